@@ -23,30 +23,20 @@ CloudOs = {
 				});
 			// cs_acct = add_icon_data(cs_acct);
 
-			var excludeApps = ['roundcube', 'roundcube-calendar', 'owncloud'];
-			var initialApps = {standardApps: [ ], additionalApps: [] };
-
-			initialApps = _.reduce(cs_acct.availableApps, function (acc, app) {
-				 app.addSeparator = false;
-				 if(excludeApps.indexOf(app.name) == -1){
-				 	app.sortingKey = Ember.isNone(app.assets.taskbarIconAltText) ? app.name : app.assets.taskbarIconAltText
-				 	acc.additionalApps.push(app);
-				 }
-				 else{
-				 	acc.standardApps[excludeApps.indexOf(app.name)] = app;
-				 }
-				return acc;
-			}, initialApps);
-
-			var preferredApps = _.compact(initialApps.standardApps);
-			
-			//add diveder after last prefferd app
-			if(preferredApps.length > 0){
-				preferredApps[preferredApps.length -1].addSeparator = true;
+			// the server sends availableApps in display order: the preferred apps first, then the others
+			// sorted by taskbar label. add a divider after the last preferred app
+			var preferredApps = Ember.isNone(cs_acct.preferredApps) ? [] : cs_acct.preferredApps;
+			var lastPreferred = null;
+
+			_.each(cs_acct.availableApps, function (app) {
+				app.addSeparator = false;
+				if (preferredApps.indexOf(app.name) != -1) lastPreferred = app;
+			});
+
+			if (!Ember.isNone(lastPreferred)) {
+				lastPreferred.addSeparator = true;
 			}
 
-			cs_acct.availableApps = preferredApps.concat(_.sortBy(initialApps.additionalApps, 'sortingKey'));
-
 			console.log(cs_acct.availableApps, 'cs_acct.availableApps');
 
 		}
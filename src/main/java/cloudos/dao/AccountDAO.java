@@ -5,13 +5,25 @@ import cloudos.model.Account;
 import cloudos.model.auth.AuthenticationException;
 import cloudos.model.auth.LoginRequest;
 import cloudos.model.support.AccountRequest;
+import cloudos.model.support.AccountTypeaheadEntry;
 import cloudos.resources.ApiConstants;
+import cloudos.server.AccountCacheConfiguration;
+import cloudos.server.CloudOsConfiguration;
+import cloudos.service.AppScriptBatcher;
 import cloudos.service.CloudOsLdapService;
 import cloudos.service.RootyService;
+import cloudos.service.ldap.InvalidCredentialsException;
+import cloudos.service.ldap.LdapChangePoller;
+import cloudos.service.ldap.NativeLdapBackend;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.cobbzilla.wizard.dao.AbstractLdapDAO;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.stereotype.Repository;
 import rooty.events.account.AccountEvent;
 import rooty.events.account.NewAccountEvent;
@@ -19,43 +31,327 @@ import rooty.events.account.RemoveAccountEvent;
 import rooty.toots.app.AppScriptMessage;
 import rooty.toots.app.AppScriptMessageType;
 
+import javax.annotation.PreDestroy;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.SearchResult;
 import javax.validation.Valid;
-import java.util.List;
-import java.util.Map;
+import javax.xml.bind.DatatypeConverter;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
 import static org.cobbzilla.util.daemon.ZillaRuntime.die;
 import static org.cobbzilla.util.daemon.ZillaRuntime.notSupported;
 
 @Repository  @Slf4j
-public class AccountDAO extends AbstractLdapDAO<Account> implements BasicAccountDAO<Account> {
+public class AccountDAO extends AbstractLdapDAO<Account>
+        implements BasicAccountDAO<Account>, ApplicationListener<ContextRefreshedEvent> {
 
+    @Autowired private CloudOsConfiguration configuration;
     @Autowired private RootyService rooty;
+    @Autowired private AppScriptBatcher appScriptBatcher;
     @Autowired private AppDAO appDAO;
     @Autowired private AccountGroupDAO groupDAO;
+    @Autowired private SessionDAO sessionDAO;
     @Getter @Autowired private CloudOsLdapService ldapService;
 
+    // recent failed logins, keyed by account name and an HMAC of the attempted password.
+    // a repeat of the same bad credentials is rejected without another bind. the HMAC key is random and
+    // never leaves this process, so the keys cannot be matched against a table of password hashes
+    public static final long FAILED_LOGIN_TTL = TimeUnit.SECONDS.toMillis(30);
+    public static final long FAILED_LOGIN_MAX_SIZE = 10000;
+    public static final String LDAP_INVALID_CREDENTIALS = "Invalid credentials (49)";
+
+    private final Cache<String, Boolean> failedLogins = CacheBuilder.newBuilder()
+            .expireAfterWrite(FAILED_LOGIN_TTL, TimeUnit.MILLISECONDS)
+            .maximumSize(FAILED_LOGIN_MAX_SIZE)
+            .recordStats()
+            .build();
+
+    public static final String FAILED_LOGIN_HMAC = "HmacSHA256";
+    private final SecretKeySpec failedLoginKey = initFailedLoginKey();
+    private static SecretKeySpec initFailedLoginKey() {
+        final byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return new SecretKeySpec(key, FAILED_LOGIN_HMAC);
+    }
+
+    public CacheStats getFailedLoginStats() { return failedLogins.stats(); }
+    public long getFailedLoginCacheSize() { return failedLogins.size(); }
+
+    private String failedLoginKey(String accountName, String password) {
+        try {
+            final Mac mac = Mac.getInstance(FAILED_LOGIN_HMAC);
+            mac.init(failedLoginKey);
+            final byte[] hash = mac.doFinal(String.valueOf(password).getBytes(StandardCharsets.UTF_8));
+            return accountName.toLowerCase() + ":" + DatatypeConverter.printHexBinary(hash);
+        } catch (GeneralSecurityException e) {
+            return die("failedLoginKey: "+e, e);
+        }
+    }
+
+    private void forgetFailedLogins(String accountName) {
+        final String prefix = accountName.toLowerCase() + ":";
+        for (Iterator<String> iter = failedLogins.asMap().keySet().iterator(); iter.hasNext(); ) {
+            if (iter.next().startsWith(prefix)) iter.remove();
+        }
+    }
+
     public Account authenticate(LoginRequest loginRequest) throws AuthenticationException {
 
         final String accountName = loginRequest.getName();
         final String password = loginRequest.getPassword();
+        final String failedKey = failedLoginKey(accountName, password);
 
+        if (failedLogins.getIfPresent(failedKey) != null) {
+            log.warn("authenticate: rejecting repeated failed login for "+accountName);
+            throw new AuthenticationException(AuthenticationException.Problem.INVALID);
+        }
+
+        Account account = null;
         try {
-            authenticate(accountName, password);
+            if (ldapService.isNative()) {
+                account = ldapService.nativeAuthenticateAndFind(accountName, password, new Account(config()));
+            } else {
+                authenticate(accountName, password);
+            }
         } catch (Exception e) {
-            log.error("authenticate: "+e, e);
+            // every failed bind is reported as INVALID; only a wrong password is remembered
+            if (isInvalidCredentials(e)) {
+                failedLogins.put(failedKey, true);
+                log.warn("authenticate: invalid credentials for "+accountName);
+            } else {
+                log.error("authenticate: error binding as "+accountName+": "+e, e);
+            }
             throw new AuthenticationException(AuthenticationException.Problem.INVALID);
         }
 
-        final Account account = findByName(accountName);
+        if (account == null) account = findByName(accountName);
         if (account == null) throw new AuthenticationException(AuthenticationException.Problem.NOT_FOUND);
 
         return account;
     }
 
+    private void bindAs(String accountName, String password) {
+        final String failedKey = failedLoginKey(accountName, password);
+        if (failedLogins.getIfPresent(failedKey) != null) die("authenticate failed (cached)");
+        try {
+            if (ldapService.isNative()) {
+                ldapService.nativeAuthenticate(accountName, password);
+            } else {
+                authenticate(accountName, password);
+            }
+        } catch (RuntimeException e) {
+            if (isInvalidCredentials(e)) failedLogins.put(failedKey, true);
+            throw e;
+        }
+    }
+
+    // only a wrong password is remembered: a directory that is down or failing must not lock anyone out after it recovers.
+    // the native backend throws InvalidCredentialsException; the ldap* commands report result code 49 in their output
+    public static boolean isInvalidCredentials(Throwable t) {
+        for (; t != null; t = t.getCause()) {
+            if (t instanceof InvalidCredentialsException || t instanceof javax.naming.AuthenticationException) return true;
+            if (String.valueOf(t.getMessage()).contains(LDAP_INVALID_CREDENTIALS)) return true;
+        }
+        return false;
+    }
+
+    // Account entries are cached by lowercased DN. Names map to DNs directly, so one entry serves both lookups.
+    // The DAO writes through on create/update and evicts on delete and password changes. Callers always get a copy.
+    // The cache is only used when changes made outside cloudos can be seen (native backend with change sync);
+    // with the ldap* commands nothing would tell us about them, so every lookup goes to the directory.
+    @Getter(lazy=true) private final Cache<String, Account> accountCache = initAccountCache();
+    private Cache<String, Account> initAccountCache() {
+        final AccountCacheConfiguration cacheConfig = configuration.getAccountCache();
+        if (cacheConfig.isEnabled() && !ldapService.hasChangeSync()) log.info("initAccountCache: no LDAP change sync, account cache disabled");
+        return CacheBuilder.newBuilder()
+                .maximumSize(isAccountCacheEnabled() ? cacheConfig.getMaxSize() : 0)
+                .expireAfterWrite(cacheConfig.getTtl(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    private boolean isAccountCacheEnabled() { return configuration.getAccountCache().isEnabled() && ldapService.hasChangeSync(); }
+
+    // started once every bean is wired (ldapService and this DAO depend on each other), before any request is served
+    private LdapChangePoller accountPoller;
+
+    @Override public synchronized void onApplicationEvent(ContextRefreshedEvent event) {
+        if (accountPoller != null || !isAccountCacheEnabled()) return;
+        accountPoller = new LdapChangePoller(ldapService.getNativeBackend(), config().getUser_dn(),
+                configuration.getAccountCache().getSyncInterval(),
+                new LdapChangePoller.ChangeListener() {
+                    @Override public void entryChanged(String dn) {
+                        getAccountCache().invalidate(cacheKey(dn));
+                        reindex(dn);
+                    }
+                }).start();
+    }
+
+    @PreDestroy public synchronized void stopChangeSync() {
+        if (accountPoller != null) accountPoller.stop();
+        accountPoller = null;
+    }
+
+    public CacheStats getAccountCacheStats() { return getAccountCache().stats(); }
+    public long getAccountCacheSize() { return getAccountCache().size(); }
+
+    private static String cacheKey(String dn) { return dn.toLowerCase(); }
+
+    private Account cachedCopy(String dn) {
+        final Account cached = getAccountCache().getIfPresent(cacheKey(dn));
+        return cached == null ? null : new Account(cached);
+    }
+
+    private Account cache(Account account) {
+        if (account != null) getAccountCache().put(cacheKey(account.getDn()), new Account(account));
+        return account;
+    }
+
+    private void uncache(String accountName) { getAccountCache().invalidate(cacheKey(config().userDN(accountName))); }
+
+    // without change sync nothing tells us about changes made outside cloudos, so the type-ahead indexes are rebuilt
+    // from scratch this often. with change sync such changes are patched in as they are seen, except deletes, so
+    // the indexes are only rebuilt every TYPEAHEAD_SYNCED_MAX_AGE to drop entries deleted behind our back
+    public static final long TYPEAHEAD_MAX_AGE = TimeUnit.MINUTES.toMillis(10);
+    public static final long TYPEAHEAD_SYNCED_MAX_AGE = TimeUnit.HOURS.toMillis(6);
+
+    public long getTypeaheadMaxAge() { return ldapService.hasChangeSync() ? TYPEAHEAD_SYNCED_MAX_AGE : TYPEAHEAD_MAX_AGE; }
+
+    private final AtomicReference<TypeaheadIndex<Account, AccountTypeaheadEntry>> typeahead = new AtomicReference<>();
+
+    public TypeaheadIndex<Account, AccountTypeaheadEntry> getTypeaheadIndex() {
+        final long maxAge = getTypeaheadMaxAge();
+        TypeaheadIndex<Account, AccountTypeaheadEntry> index = typeahead.get();
+        if (index == null || System.currentTimeMillis() - index.getCtime() > maxAge) {
+            synchronized (typeahead) {
+                index = typeahead.get();
+                if (index == null || System.currentTimeMillis() - index.getCtime() > maxAge) {
+                    index = newTypeaheadIndex().putAll(findAll());
+                    typeahead.set(index);
+                    log.info("getTypeaheadIndex: indexed "+index.size()+" accounts");
+                }
+            }
+        }
+        return index;
+    }
+
+    private TypeaheadIndex<Account, AccountTypeaheadEntry> newTypeaheadIndex() {
+        return new TypeaheadIndex<Account, AccountTypeaheadEntry>() {
+            @Override protected String[] fields(Account a) {
+                return new String[] {a.getName(), a.getFirstName(), a.getLastName()};
+            }
+            // DefaultSearchScrubber hides email from non-admins, so they must not be able to match on it either
+            @Override protected String[] privateFields(Account a) { return new String[] {a.getEmail()}; }
+            @Override protected AccountTypeaheadEntry entry(Account a) { return new AccountTypeaheadEntry(a); }
+            @Override protected AccountTypeaheadEntry view(AccountTypeaheadEntry entry, boolean includePrivate) {
+                return includePrivate ? entry : entry.withoutEmail();
+            }
+        };
+    }
+
+    // patch the type-ahead index only if it has been built; otherwise it will be built with the latest data
+    private void index(Account account) {
+        final TypeaheadIndex<Account, AccountTypeaheadEntry> index = typeahead.get();
+        if (index != null && account != null) index.put(account);
+    }
+
+    private void unindex(String dn) {
+        final TypeaheadIndex<Account, AccountTypeaheadEntry> index = typeahead.get();
+        if (index != null) index.remove(dn);
+    }
+
+    private void reindex(String dn) {
+        if (typeahead.get() == null) return;
+        final Account account = loadByDn(dn);
+        if (account == null) {
+            unindex(dn);
+        } else {
+            index(account);
+        }
+    }
+
+    // bumped on every create/update/delete made through this DAO, so callers holding search results can tell they are stale
+    private final AtomicLong writeGeneration = new AtomicLong();
+    public long getWriteGeneration() { return writeGeneration.get(); }
+
+    @Override public Account findByName(String name) {
+        final String dn = config().userDN(name);
+        final Account cached = cachedCopy(dn);
+        if (cached != null) return cached;
+        return cache(ldapService.isNative() ? loadByDn(dn) : super.findByName(name));
+    }
+
+    @Override public Account findByDn(String dn) {
+        final Account cached = cachedCopy(dn);
+        if (cached != null) return cached;
+        return cache(loadByDn(dn));
+    }
+
+    // names per OR-filter search when resolving names in bulk
+    public static final int DN_LOOKUP_BATCH_SIZE = 200;
+
+    /**
+     * Find the DNs of many accounts at once. Cached accounts are answered from the cache. With the native
+     * LDAP backend the rest are found with one OR-filtered search per DN_LOOKUP_BATCH_SIZE names.
+     * @param names account names
+     * @return a map of lowercased account name to DN, containing only accounts that exist
+     */
+    public Map<String, String> findDNsByName(Collection<String> names) {
+        final Map<String, String> found = new HashMap<>();
+        final List<String> toSearch = new ArrayList<>();
+        for (String name : names) {
+            final String dn = config().userDN(name);
+            if (getAccountCache().getIfPresent(cacheKey(dn)) != null) {
+                found.put(name.toLowerCase(), dn);
+            } else if (ldapService.isNative()) {
+                toSearch.add(name);
+            } else {
+                final Account account = findByName(name);
+                if (account != null) found.put(name.toLowerCase(), account.getDn());
+            }
+        }
+
+        final String idField = config().getUser_username();
+        for (int i=0; i<toSearch.size(); i += DN_LOOKUP_BATCH_SIZE) {
+            final List<String> batch = toSearch.subList(i, Math.min(i + DN_LOOKUP_BATCH_SIZE, toSearch.size()));
+            final StringBuilder filter = new StringBuilder("(|");
+            for (int j=0; j<batch.size(); j++) filter.append("(").append(idField).append("={").append(j).append("})");
+            filter.append(")");
+
+            final List<SearchResult> results = ldapService.getNativeBackend().search(config().getUser_dn(), filter.toString(), batch.toArray(), new String[]{idField});
+            for (SearchResult result : results) {
+                try {
+                    final Attribute id = result.getAttributes().get(idField);
+                    if (id != null) found.put(NativeLdapBackend.attrValue(id.get()).toLowerCase(), result.getNameInNamespace());
+                } catch (NamingException e) {
+                    die("findDNsByName: "+e, e);
+                }
+            }
+        }
+        return found;
+    }
+
+    private Account loadByDn(String dn) {
+        if (!ldapService.isNative()) return super.findByDn(dn);
+        return dn.endsWith(config().getUser_dn()) ? ldapService.nativeFind(dn, new Account(config())) : null;
+    }
+
     public void changePassword(Account account, String oldPassword, String newPassword) throws AuthenticationException {
         checkAuth(account, oldPassword);
         ldapService.changePassword(account.getName(), oldPassword, newPassword);
+        uncache(account.getName());
+        sessionDAO.evictAccount(account.getName());
+        forgetFailedLogins(account.getName());
 
         // Tell the rooty subsystems we've changed the password
         broadcastPasswordChange(account, newPassword);
@@ -63,7 +359,7 @@ public class AccountDAO extends AbstractLdapDAO<Account> implements BasicAccount
 
     public void checkAuth(Account account, String oldPassword) throws AuthenticationException {
         try {
-            authenticate(account.getName(), oldPassword);
+            bindAs(account.getName(), oldPassword);
         } catch (Exception e) {
             final String message = "changePassword: Error authenticating with current password: " + e;
             log.error(message, e);
@@ -73,6 +369,8 @@ public class AccountDAO extends AbstractLdapDAO<Account> implements BasicAccount
 
     public void setPassword(Account account, String newPassword) {
         ldapService.adminChangePassword(account.getName(), newPassword);
+        uncache(account.getName());
+        forgetFailedLogins(account.getName());
         account.clearResetPasswordToken();
         account.setPassword(null);
         update(account);
@@ -81,14 +379,28 @@ public class AccountDAO extends AbstractLdapDAO<Account> implements BasicAccount
         broadcastPasswordChange(account, newPassword);
     }
 
+    // accounts being created by createAll: their group memberships are applied once for the whole batch
+    private final Set<String> deferredMembership = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     @Override public Account postCreate(Account account, Object context) {
-        groupDAO.addToDefaultGroup(account);
-        if (account.isAdmin()) groupDAO.addToAdminGroup(account);
+        if (!deferredMembership.contains(account.getName().toLowerCase())) {
+            groupDAO.addToDefaultGroup(account);
+            if (account.isAdmin()) groupDAO.addToAdminGroup(account);
+        }
         return super.postCreate(account, context);
     }
 
     public Account create(AccountRequest request) throws Exception {
 
+        final Account account = createEntry(request);
+
+        announceNewAccounts(Collections.singletonList(account));
+
+        return account;
+    }
+
+    private Account createEntry(AccountRequest request) {
+
         if (!request.hasPassword()) request.setPassword(ApiConstants.randomPassword());
 
         final Account account = (Account) new Account(config()).merge(request).clean();
@@ -98,27 +410,128 @@ public class AccountDAO extends AbstractLdapDAO<Account> implements BasicAccount
 
         // Create account in LDAP
         try {
-            super.create(account);
+            index(cache(super.create(account)));
+            writeGeneration.incrementAndGet();
         } catch (Exception e) {
             final String message = "create: error creating account in LDAP: " + e;
             log.error(message, e);
             die(message, e);
         }
+        forgetFailedLogins(account.getName());
+        return account;
+    }
 
-        // Tell the rooty subsystems we have a new account
-        final AccountEvent event = new NewAccountEvent()
-                .setName(account.getName())
-                .setAdmin(account.isAdmin());
-        rooty.getSender().write(event);
+    public interface BulkCreateListener {
+        void created(AccountRequest request, Account account);
+        void failed(AccountRequest request, Exception e);
+    }
 
-        broadcastNewAccount(account);
+    // shared by every createAll call, so concurrent bulk creates together use at most one thread per pooled connection
+    private ExecutorService bulkCreateExecutor;
+
+    private synchronized ExecutorService getBulkCreateExecutor() {
+        if (bulkCreateExecutor == null) {
+            final int threads = ldapService.isNative() ? Math.max(1, configuration.getLdapPool().getSize()) : 1;
+            final AtomicLong count = new AtomicLong();
+            bulkCreateExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "AccountDAO-bulkCreate-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return bulkCreateExecutor;
+    }
 
-        return account;
+    @PreDestroy public synchronized void stopBulkCreate() {
+        if (bulkCreateExecutor != null) bulkCreateExecutor.shutdownNow();
+    }
+
+    /**
+     * Create many accounts. With the native LDAP backend, entries are added concurrently (up to one per pooled
+     * connection, across all bulk creates). The new accounts are then added to the default and admin groups with one
+     * update per group, and the rooty events for all of them are sent together.
+     * A failure to create one account does not stop the others, and every account is waited for before returning.
+     * @param requests the accounts to create. Passwords are generated for requests that do not have one.
+     * @param listener told about each account as soon as its LDAP entry has been created (or has failed)
+     * @return the accounts that were created
+     */
+    public List<Account> createAll(List<AccountRequest> requests, final BulkCreateListener listener) {
+
+        final List<Account> created = Collections.synchronizedList(new ArrayList<Account>());
+        final List<String> names = new ArrayList<>();
+        for (AccountRequest request : requests) names.add(String.valueOf(request.getName()).toLowerCase());
+        deferredMembership.addAll(names);
+
+        try {
+            final ExecutorService executor = getBulkCreateExecutor();
+            final List<Future<?>> futures = new ArrayList<>();
+            for (final AccountRequest request : requests) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override public void run() {
+                        final Account account;
+                        try {
+                            account = createEntry(request);
+                        } catch (Exception e) {
+                            listener.failed(request, e);
+                            return;
+                        }
+                        created.add(account);
+                        listener.created(request, account);
+                    }
+                }));
+            }
+            // wait for every task, even after one fails, so no account is still being created when we return
+            boolean interrupted = false;
+            for (Future<?> f : futures) {
+                while (true) {
+                    try {
+                        f.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        // only the listener can throw here: the account (if created) is in 'created' regardless
+                        log.error("createAll: listener failed: "+e.getCause(), e.getCause());
+                        break;
+                    }
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        } finally {
+            deferredMembership.removeAll(names);
+        }
+
+        if (!created.isEmpty()) {
+            final List<Account> admins = new ArrayList<>();
+            for (Account account : created) if (account.isAdmin()) admins.add(account);
+            groupDAO.addToDefaultGroup(created);
+            if (!admins.isEmpty()) groupDAO.addToAdminGroup(admins);
+
+            announceNewAccounts(created);
+        }
+        return created;
+    }
+
+    private void announceNewAccounts(List<Account> accounts) {
+        // Tell the rooty subsystems we have new accounts. A NewAccountEvent names one account, so a bulk create
+        // still sends one event per account, but they are handed to the batcher's writer as a single batch
+        final List<AccountEvent> events = new ArrayList<>(accounts.size());
+        for (Account account : accounts) {
+            events.add(new NewAccountEvent()
+                    .setName(account.getName())
+                    .setAdmin(account.isAdmin()));
+        }
+        appScriptBatcher.writeAll(events);
+
+        broadcastNewAccounts(accounts);
     }
 
     @Override public Account update(@Valid Account account) {
 
-        final Account existing = findByDn(account.getDn());
+        // merge into what the directory has now, not a cached copy that may predate someone else's change
+        final Account existing = loadByDn(account.getDn());
         if (existing == null) die("Cannot update non-existent account: "+account.getDn());
 
         boolean isSuspending = !existing.isSuspended() && account.isSuspended();
@@ -127,9 +540,19 @@ public class AccountDAO extends AbstractLdapDAO<Account> implements BasicAccount
             final String newPassword = randomAlphanumeric(20);
             existing.setPassword(newPassword);
             ldapService.adminChangePassword(account.getName(), newPassword);
+            forgetFailedLogins(account.getName());
         }
 
-        return super.update(existing);
+        final Account updated = super.update(existing);
+        index(updated);
+        writeGeneration.incrementAndGet();
+        if (isSuspending) {
+            uncache(existing.getName()); // don't keep the new random password around
+        } else {
+            cache(updated);
+        }
+        sessionDAO.evictAccount(existing.getName());
+        return updated;
     }
 
     public void delete(String accountName) {
@@ -142,11 +565,15 @@ public class AccountDAO extends AbstractLdapDAO<Account> implements BasicAccount
 
         try {
             super.delete(account.getName());
+            uncache(account.getName());
+            unindex(account.getDn());
+            writeGeneration.incrementAndGet();
         } catch (Exception e) {
             final String message = "delete: account deleted in LDAP but account not deleted in storageEngine! " + e;
             log.error(message, e);
             die(message, e);
         }
+        sessionDAO.evictAccount(account.getName());
 
         // Tell the rooty subsystems we have removed an account
         final AccountEvent event = new RemoveAccountEvent()
@@ -157,17 +584,19 @@ public class AccountDAO extends AbstractLdapDAO<Account> implements BasicAccount
         broadcastDeleteAccount(account);
     }
 
-    private void broadcastNewAccount (Account account) {
+    private void broadcastNewAccounts (List<Account> accounts) {
         final Map<String, AppRuntime> apps = appDAO.getAvailableRuntimes();
 
         for (Map.Entry<String, AppRuntime> app : apps.entrySet()) {
             final AppRuntime runtime = app.getValue();
             if (runtime.hasUserManagement() && runtime.getAuthentication().getUser_management().hasUserCreate()) {
-                final AppScriptMessage message = new AppScriptMessage()
-                        .setApp(runtime.getDetails().getName())
-                        .setType(AppScriptMessageType.user_create)
-                        .addArg(account.getName());
-                rooty.getSender().write(message);
+                for (Account account : accounts) {
+                    final AppScriptMessage message = new AppScriptMessage()
+                            .setApp(runtime.getDetails().getName())
+                            .setType(AppScriptMessageType.user_create)
+                            .addArg(account.getName());
+                    appScriptBatcher.send(message);
+                }
             }
         }
     }
@@ -182,7 +611,7 @@ public class AccountDAO extends AbstractLdapDAO<Account> implements BasicAccount
                         .setApp(runtime.getDetails().getName())
                         .setType(AppScriptMessageType.user_delete)
                         .addArg(account.getName());
-                rooty.getSender().write(message);
+                appScriptBatcher.send(message);
             }
         }
     }
@@ -198,7 +627,7 @@ public class AccountDAO extends AbstractLdapDAO<Account> implements BasicAccount
                         .setType(AppScriptMessageType.user_change_password)
                         .addArg(account.getName())
                         .addArg(newPassword);
-                rooty.getSender().write(message);
+                appScriptBatcher.send(message);
             }
         }
     }
@@ -2,18 +2,26 @@ package cloudos.dao;
 
 import cloudos.model.Account;
 import cloudos.model.AccountGroup;
-import cloudos.model.AccountGroupMember;
 import cloudos.model.support.AccountGroupRequest;
+import cloudos.server.CloudOsConfiguration;
 import cloudos.service.CloudOsLdapService;
+import cloudos.service.ldap.LdapChangePoller;
+import cloudos.service.ldap.NativeLdapBackend;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.cobbzilla.util.collection.InspectCollection;
 import org.cobbzilla.wizard.dao.AbstractLdapDAO;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.stereotype.Repository;
 
+import javax.annotation.PreDestroy;
+import javax.naming.directory.SearchResult;
 import javax.validation.Valid;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static cloudos.model.AccountGroup.ADMIN_GROUP_NAME;
 import static cloudos.model.AccountGroup.DEFAULT_GROUP_NAME;
@@ -22,11 +30,157 @@ import static org.cobbzilla.util.daemon.ZillaRuntime.notSupported;
 import static org.cobbzilla.wizard.resources.ResourceUtil.invalidEx;
 
 @Repository @Slf4j
-public class AccountGroupDAO extends AbstractLdapDAO<AccountGroup> {
+public class AccountGroupDAO extends AbstractLdapDAO<AccountGroup> implements ApplicationListener<ContextRefreshedEvent> {
 
     @Autowired private AccountDAO accountDAO;
     @Getter @Autowired private CloudOsLdapService ldapService;
 
+    @Override public AccountGroup findByName(String name) {
+        return ldapService.isNative() ? findByDn(ldapService.groupDN(name)) : super.findByName(name);
+    }
+
+    @Override public AccountGroup findByDn(String dn) {
+        if (!ldapService.isNative()) return super.findByDn(dn);
+        return dn.endsWith(config().getGroup_dn()) ? ldapService.nativeFind(dn, new AccountGroup(config())) : null;
+    }
+
+    // the membership graph is rebuilt from scratch at least this often, in case the directory was changed behind our back
+    public static final long GRAPH_MAX_AGE = TimeUnit.MINUTES.toMillis(10);
+    public static final String ALL_GROUPS_FILTER = "(objectClass=groupOfUniqueNames)";
+
+    @Autowired private CloudOsConfiguration configuration;
+
+    private final AtomicReference<GroupMembershipGraph> graph = new AtomicReference<>();
+
+    /**
+     * The membership graph is only kept between calls when changes made outside cloudos can be seen (native backend
+     * with change sync), like the account cache. Otherwise nothing would tell us about them, so every call reads
+     * the groups again: callers should get the graph once per operation and pass it along.
+     */
+    public GroupMembershipGraph getGraph() {
+        if (!ldapService.hasChangeSync()) return loadGraph();
+        GroupMembershipGraph g = graph.get();
+        if (g == null || System.currentTimeMillis() - g.getCtime() > GRAPH_MAX_AGE) {
+            synchronized (graph) {
+                g = graph.get();
+                if (g == null || System.currentTimeMillis() - g.getCtime() > GRAPH_MAX_AGE) {
+                    g = loadGraph();
+                    graph.set(g);
+                    log.info("getGraph: loaded "+g.size()+" groups");
+                }
+            }
+        }
+        return g;
+    }
+
+    /**
+     * @return the kept membership graph, or null if it has not been built (or is not kept). Never reads the directory
+     */
+    public GroupMembershipGraph getBuiltGraph() { return graph.get(); }
+
+    private GroupMembershipGraph loadGraph() { return new GroupMembershipGraph(config().getGroup_dn(), loadAllGroups()); }
+
+    // patch the kept graph only if it has been built; otherwise it will be built with the latest data
+    private void graphPut(AccountGroup group) {
+        final GroupMembershipGraph g = graph.get();
+        if (g != null) g.put(group);
+    }
+
+    // started once every bean is wired (ldapService and this DAO depend on each other), before any request is served
+    private LdapChangePoller groupPoller;
+
+    @Override public synchronized void onApplicationEvent(ContextRefreshedEvent event) {
+        if (groupPoller != null || !ldapService.hasChangeSync()) return;
+        groupPoller = new LdapChangePoller(ldapService.getNativeBackend(), config().getGroup_dn(),
+                configuration.getAccountCache().getSyncInterval(),
+                new LdapChangePoller.ChangeListener() {
+                    @Override public void entryChanged(String dn) { reloadGroup(dn); }
+                }).start();
+    }
+
+    @PreDestroy public synchronized void stopChangeSync() {
+        if (groupPoller != null) groupPoller.stop();
+        groupPoller = null;
+    }
+
+    private void reloadGroup(String dn) {
+        final GroupMembershipGraph g = graph.get();
+        final TypeaheadIndex<AccountGroup, AccountGroup> index = typeahead.get();
+        if (g == null && index == null) return;
+        final AccountGroup group = findByDn(dn);
+        if (group == null) {
+            if (g != null) g.remove(dn);
+            if (index != null) index.remove(dn);
+        } else {
+            if (g != null) g.put(group);
+            if (index != null) index.put(group);
+        }
+    }
+
+    private final AtomicReference<TypeaheadIndex<AccountGroup, AccountGroup>> typeahead = new AtomicReference<>();
+
+    public TypeaheadIndex<AccountGroup, AccountGroup> getTypeaheadIndex() {
+        TypeaheadIndex<AccountGroup, AccountGroup> index = typeahead.get();
+        final long maxAge = accountDAO.getTypeaheadMaxAge();
+        if (index == null || System.currentTimeMillis() - index.getCtime() > maxAge) {
+            synchronized (typeahead) {
+                index = typeahead.get();
+                if (index == null || System.currentTimeMillis() - index.getCtime() > maxAge) {
+                    index = new TypeaheadIndex<AccountGroup, AccountGroup>() {
+                        @Override protected String[] fields(AccountGroup group) { return new String[] {group.getName()}; }
+                        @Override protected AccountGroup entry(AccountGroup group) { return new AccountGroup(group); }
+                        @Override protected AccountGroup view(AccountGroup group, boolean includePrivate) { return new AccountGroup(group); }
+                    }.putAll(findAll());
+                    typeahead.set(index);
+                    log.info("getTypeaheadIndex: indexed "+index.size()+" groups");
+                }
+            }
+        }
+        return index;
+    }
+
+    // patch the type-ahead index only if it has been built; otherwise it will be built with the latest data
+    private void index(AccountGroup group) {
+        final TypeaheadIndex<AccountGroup, AccountGroup> index = typeahead.get();
+        if (index != null) index.put(group);
+    }
+
+    private List<AccountGroup> loadAllGroups() {
+        final List<AccountGroup> groups = new ArrayList<>();
+        if (ldapService.isNative()) {
+            for (SearchResult result : ldapService.getNativeBackend().search(config().getGroup_dn(), ALL_GROUPS_FILTER, new Object[0])) {
+                groups.add(NativeLdapBackend.toEntity(result.getAttributes(), new AccountGroup(config())));
+            }
+        } else {
+            // the command-line search does not return uniqueMember, so read each group once while building the graph
+            for (AccountGroup g : findAll()) {
+                g = findByDn(g.getDn());
+                if (g != null) groups.add(g);
+            }
+        }
+        return groups;
+    }
+
+    // bumped on every create/update/delete made through this DAO, so callers holding search results can tell they are stale
+    private final AtomicLong writeGeneration = new AtomicLong();
+    public long getWriteGeneration() { return writeGeneration.get(); }
+
+    @Override public AccountGroup create(@Valid AccountGroup group) {
+        final AccountGroup created = super.create(group);
+        graphPut(group);
+        index(group);
+        writeGeneration.incrementAndGet();
+        return created;
+    }
+
+    @Override public AccountGroup update(@Valid AccountGroup group) {
+        final AccountGroup updated = super.update(group);
+        graphPut(group);
+        index(group);
+        writeGeneration.incrementAndGet();
+        return updated;
+    }
+
     public AccountGroup findDefaultGroup() { return findByName(DEFAULT_GROUP_NAME); }
     public AccountGroup findAdminGroup() { return findByName(ADMIN_GROUP_NAME); }
 
@@ -37,18 +191,22 @@ public class AccountGroupDAO extends AbstractLdapDAO<AccountGroup> {
     private AccountGroup adminGroup() { return getTemplateObject().adminGroup(); }
     private AccountGroup defaultGroup() { return getTemplateObject().defaultGroup(); }
 
-    public AccountGroup addToDefaultGroup(Account account) {
+    public AccountGroup addToDefaultGroup(Account account) { return addToDefaultGroup(Collections.singletonList(account)); }
+
+    public AccountGroup addToDefaultGroup(Collection<Account> accounts) {
         AccountGroup defaultGroup = findDefaultGroup();
         if (defaultGroup == null) defaultGroup = create(defaultGroup());
-        defaultGroup.addMember(account.getDn());
+        for (Account account : accounts) defaultGroup.addMember(account.getDn());
         update(defaultGroup);
         return defaultGroup;
     }
 
-    public AccountGroup addToAdminGroup(Account account) {
+    public AccountGroup addToAdminGroup(Account account) { return addToAdminGroup(Collections.singletonList(account)); }
+
+    public AccountGroup addToAdminGroup(Collection<Account> accounts) {
         AccountGroup adminGroup = findAdminGroup();
         if (adminGroup == null) adminGroup = create(adminGroup());
-        adminGroup.addMember(account.getDn());
+        for (Account account : accounts) adminGroup.addMember(account.getDn());
         update(adminGroup);
         return adminGroup;
     }
@@ -67,6 +225,11 @@ public class AccountGroupDAO extends AbstractLdapDAO<AccountGroup> {
         }
 
         super.delete(ldapService.groupDN(name));
+        final GroupMembershipGraph g = graph.get();
+        if (g != null) g.remove(ldapService.groupDN(name));
+        final TypeaheadIndex<AccountGroup, AccountGroup> index = typeahead.get();
+        if (index != null) index.remove(ldapService.groupDN(name));
+        writeGeneration.incrementAndGet();
     }
 
     public static boolean isDefaultGroup(String groupName) {
@@ -80,19 +243,20 @@ public class AccountGroupDAO extends AbstractLdapDAO<AccountGroup> {
 
         final String groupName = groupRequest.getName();
         final AccountGroup group;
-        validate(groupRequest, recipients);
+        final GroupMembershipGraph g = getGraph();
+        final List<String> memberDNs = validate(groupRequest, recipients, g);
         try {
             group = (AccountGroup) new AccountGroup(config())
                     .setDescription(groupRequest.getDescription())
                     .setMirrors(groupRequest.getMirrorList())
                     .setName(groupName);
 
-            List<String> members = buildGroupMemberList(group, recipients, true);
+            List<String> members = buildGroupMemberList(group, memberDNs, true, g);
             if (members.isEmpty()) die("create: Group has no members: "+groupRequest.getName());
 
-            members = buildGroupMemberList(group, recipients, false);
+            members = buildGroupMemberList(group, memberDNs, false, g);
             group.setMembers(members);
-            return super.create(group);
+            return create(group);
 
         } catch (Exception e) {
             // Remove group and members from DB, and entry from LDAP?
@@ -114,12 +278,14 @@ public class AccountGroupDAO extends AbstractLdapDAO<AccountGroup> {
             delete(groupName);
             return null;
         }
-        if (createsCircularReference(groupName, recipients)) {
+        final GroupMembershipGraph g = getGraph();
+        final List<String> memberDNs = resolveMemberDNs(recipients, g);
+        if (g.createsCycle(ldapService.groupDN(groupName), memberDNs)) {
             throw invalidEx("{err.group.circularReference}", "group cannot contain a circular reference");
         }
 
         // update members
-        final List<String> members = buildGroupMemberList(group, recipients, false);
+        final List<String> members = buildGroupMemberList(group, memberDNs, false, g);
         group.setMembers(members);
 
         // update quota/description and member list in LDAP
@@ -134,48 +300,29 @@ public class AccountGroupDAO extends AbstractLdapDAO<AccountGroup> {
      * @return a List of members of this group. If this group is a mirror, this also includes (via union) the members of its mirror source groups.
      */
     public List<String> buildGroupMemberList(AccountGroup group) {
+        return new ArrayList<>(getGraph().getExpandedMembers(group));
+    }
 
-        final Set<String> members = new HashSet<>(group.getMembers());
-
-        if (group.hasMirror()) {
-            for (String mirror : group.getMirrors()) {
-                final AccountGroup source = findByName(mirror);
-                if (source == null) {
-                    log.warn("Mirror broken: "+mirror+" -> "+group.getName());
-                } else {
-                    for (String m : source.getMembers()) {
-                        if (m.endsWith(config().getGroup_dn())) {
-                            // recursively load group
-                            members.addAll(buildGroupMemberList(findByDn(m)));
-                        } else {
-                            log.warn("adding: '"+m+"' (size before="+members.size()+")");
-                            members.add(m);
-                            log.warn("added: '"+m+"' (size after="+members.size()+")");
-                        }
-                    }
-                }
-            }
-        }
-
-        return new ArrayList<>(members);
+    private List<String> buildGroupMemberList(AccountGroup group, GroupMembershipGraph g) {
+        return new ArrayList<>(g.getExpandedMembers(group));
     }
 
     /**
      * @param group The group to build a member list for.
-     * @param recipients The member names that will comprise the list. They must exist in the DB.
+     * @param memberDNs The DNs of the members that will comprise the list, from resolveMemberDNs
      * @param includeMirror If true and the group is a mirror, include members from the mirror source too
+     * @param g the membership graph for this operation
      * @return a List of AccountGroupMembers objects
      */
-    private List<String> buildGroupMemberList(AccountGroup group, List<String> recipients, boolean includeMirror) {
-        final Set<String> members = new HashSet<>();
-        for (String recipient : recipients) members.add(findAccountOrGroupDN(recipient));
+    private List<String> buildGroupMemberList(AccountGroup group, List<String> memberDNs, boolean includeMirror, GroupMembershipGraph g) {
+        final Set<String> members = new HashSet<>(memberDNs);
         if (includeMirror && group.hasMirror()) {
             for (String mirror : group.getMirrors()) {
                 final AccountGroup source = findByName(mirror);
                 if (source == null) {
                     log.warn("Mirror broken: " + mirror + " -> " + group.getName());
                 } else {
-                    members.addAll(buildGroupMemberList(source));
+                    members.addAll(buildGroupMemberList(source, g));
                 }
             }
         }
@@ -183,46 +330,44 @@ public class AccountGroupDAO extends AbstractLdapDAO<AccountGroup> {
     }
 
     public boolean createsCircularReference(String group, List<String> members) {
-        final Map<String, List<String>> map = new HashMap<>();
-        for (AccountGroupMember m : findAllMembers()) {
-            List<String> groupMembers = map.get(m.getGroupDn());
-            if (groupMembers == null) {
-                groupMembers = new ArrayList<>();
-                map.put(m.getGroupDn(), groupMembers);
-            }
-            groupMembers.add(m.getMemberDn());
-        }
-
         // we want to see what would happen IF this group were added with these members.
-        // So add ourselves last, possibly overwriting a previous value
-        final String groupDN = ldapService.groupDN(group);
-        final List<String> membersDNs = new ArrayList<>();
-        for (String member : members) membersDNs.add(findAccountOrGroupDN(member));
-        map.put(groupDN, membersDNs);
-        return InspectCollection.containsCircularReference(groupDN, map);
+        final GroupMembershipGraph g = getGraph();
+        return g.createsCycle(ldapService.groupDN(group), resolveMemberDNs(members, g));
     }
 
-    private List<AccountGroupMember> findAllMembers() {
-        final List<AccountGroupMember> all = new ArrayList<>();
-        for (AccountGroup g : findAll()) {
-            // populate members. todo: we can make this more efficient by including the uniqueMember field in ldapsearch
-            g = findByDn(g.getDn());
-            for (String member : g.getMembers()) {
-                all.add(new AccountGroupMember(g.getDn(), member, config()));
+    /**
+     * Resolve member names to DNs. Accounts are looked up in bulk, groups come from the membership graph.
+     * As before, a name that is both an account and a group resolves to the account.
+     * @param recipients account and/or group names
+     * @return the DNs, in the same order as the names. If any names are not found, a single validation error lists them all
+     */
+    public List<String> resolveMemberDNs(List<String> recipients) { return resolveMemberDNs(recipients, getGraph()); }
+
+    private List<String> resolveMemberDNs(List<String> recipients, GroupMembershipGraph g) {
+        if (recipients == null) return new ArrayList<>();
+        final Map<String, String> accountDNs = accountDAO.findDNsByName(recipients);
+        final List<String> dns = new ArrayList<>(recipients.size());
+        final List<String> notFound = new ArrayList<>();
+        for (String recipient : recipients) {
+            String dn = accountDNs.get(recipient.toLowerCase());
+            if (dn == null) {
+                final GroupMembershipGraph.Node node = g.getByName(recipient);
+                if (node != null) {
+                    dn = node.getDn();
+                } else {
+                    // maybe created since the graph was built
+                    final AccountGroup group = findByName(recipient);
+                    if (group != null) dn = group.getDn();
+                }
+            }
+            if (dn == null) {
+                notFound.add(recipient);
+            } else {
+                dns.add(dn);
             }
         }
-        return all;
-    }
-
-    private String findAccountOrGroupDN(String recipient) {
-        // Is it an account or another group?
-        final Account account = accountDAO.findByName(recipient);
-        if (account != null) return account.getDn();
-
-        final AccountGroup accountGroup = findByName(recipient);
-        if (accountGroup != null) return accountGroup.getDn();
-
-        throw invalidEx("{err.member.notFound}", "group member does not exist: "+recipient);
+        if (!notFound.isEmpty()) throw invalidEx("{err.member.notFound}", "group members do not exist: "+notFound);
+        return dns;
     }
 
     @Override protected String formatBound(String bound, String value) {
@@ -235,7 +380,8 @@ public class AccountGroupDAO extends AbstractLdapDAO<AccountGroup> {
         }
     }
 
-    private void validate(AccountGroupRequest groupRequest, List<String> recipients) {
+    // returns the recipients' DNs, so create does not resolve them again
+    private List<String> validate(AccountGroupRequest groupRequest, List<String> recipients, GroupMembershipGraph g) {
 
         if (groupRequest.hasMirror()) {
             for (String mirror : groupRequest.getMirrorList()) {
@@ -266,9 +412,11 @@ public class AccountGroupDAO extends AbstractLdapDAO<AccountGroup> {
             throw invalidEx("{err.name.isUser}", "user with same name already exists");
         }
 
-        if (createsCircularReference(groupName, recipients)) {
+        final List<String> memberDNs = resolveMemberDNs(recipients, g);
+        if (g.createsCycle(ldapService.groupDN(groupName), memberDNs)) {
             throw invalidEx("{err.group.circularReference}", "group cannot contain a circular reference");
         }
+        return memberDNs;
     }
 
 }
@@ -9,12 +9,15 @@ import cloudos.appstore.model.app.AppMetadata;
 import cloudos.appstore.model.app.config.AppConfiguration;
 import cloudos.model.Account;
 import cloudos.model.app.AppRepositoryState;
+import cloudos.model.app.AppRuntimeStatus;
+import cloudos.model.app.AvailableAppsSnapshot;
 import cloudos.model.app.CloudOsApp;
 import cloudos.model.support.AppDownloadRequest;
 import cloudos.model.support.AppInstallRequest;
 import cloudos.model.support.AppUninstallRequest;
 import cloudos.server.CloudOsConfiguration;
 import cloudos.service.*;
+import cloudos.service.app.AppProxyRoutes;
 import org.cobbzilla.wizard.task.TaskId;
 import cloudos.service.task.TaskService;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -22,23 +25,22 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.filefilter.DirectoryFileFilter;
-import org.cobbzilla.util.io.DirFilter;
 import org.cobbzilla.util.io.FileUtil;
 import org.cobbzilla.util.json.JsonUtil;
-import org.cobbzilla.wizard.model.SemanticVersion;
 import org.cobbzilla.wizard.validation.SimpleViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 import java.io.File;
 import java.io.FileFilter;
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.cobbzilla.util.daemon.ZillaRuntime.die;
 import static org.cobbzilla.util.json.JsonUtil.fromJson;
+import static org.cobbzilla.util.json.JsonUtil.toJson;
 import static org.cobbzilla.wizard.resources.ResourceUtil.invalidEx;
 
 @Repository @Slf4j
@@ -47,27 +49,46 @@ public class AppDAO {
     @Autowired private TaskService taskService;
     @Autowired private RootyService rootyService;
     @Autowired private CloudOsConfiguration configuration;
+    @Autowired private SystemFactsService systemFacts;
+    @Autowired private VendorSettingsService vendorSettings;
+    @Autowired private AppProxyRoutes proxyRoutes;
     @Getter @Setter private CloudOsAppConfigValidationResolver resolver;
 
+    private final AtomicReference<AppRepositoryCatalog> catalog = new AtomicReference<>();
+
+    /**
+     * @return the catalog of the app repository, loading it on first use (or if the app repository has been moved)
+     */
+    public AppRepositoryCatalog getCatalog() {
+        final AppRepositoryCatalog current = catalog.get();
+        if (current != null && current.getRoot().equals(configuration.getAppRepository())) return current;
+        synchronized (catalog) {
+            final AppRepositoryCatalog existing = catalog.get();
+            if (existing != null && existing.getRoot().equals(configuration.getAppRepository())) return existing;
+            final AppRepositoryCatalog fresh = new AppRepositoryCatalog(configuration).watch().load();
+            catalog.set(fresh);
+            if (existing != null) existing.close();
+            return fresh;
+        }
+    }
+
+    /** Re-read one app from the app repository, after it was downloaded, installed or removed. */
+    public void refreshCatalog(String app) {
+        getCatalog().reload(app);
+        proxyRoutes.invalidate(app);
+    }
+
+    /** Re-read the whole app repository. */
+    public void refreshCatalog() {
+        getCatalog().load();
+        proxyRoutes.invalidateAll();
+    }
+
     public AppRepositoryState getAppRepositoryState() {
         final AppRepositoryState state = new AppRepositoryState();
-        for (File appDir : configuration.getAppRepository().listFiles(DirFilter.instance)) {
-
-            final String appName = appDir.getName();
-            final AppLayout layout = configuration.getAppLayout(appName);
-            final File activeVersion = layout.getAppActiveVersionDir();
-
-            for (File versionDir : appDir.listFiles(SemanticVersion.DIR_FILTER)) {
-                final String appVersion = versionDir.getName();
-                final File manifestFile = configuration.getAppLayout(appName, appVersion).getManifest();
-                if (manifestFile.exists()) {
-                    final AppManifest manifest = AppManifest.load(manifestFile);
-                    if (versionDir.equals(activeVersion)) {
-                        state.addApp(manifest, true);
-                    } else {
-                        state.addApp(manifest, false);
-                    }
-                }
+        for (AppRepositoryCatalog.Entry entry : getCatalog().getEntries()) {
+            for (Map.Entry<String, AppManifest> version : entry.getManifests().entrySet()) {
+                state.addApp(version.getValue(), entry.isActiveVersion(version.getKey()));
             }
         }
         return state;
@@ -89,6 +110,7 @@ public class AppDAO {
                 .setAppDAO(this)
                 .setRequest(request)
                 .setConfiguration(configuration)
+                .setSystemFacts(systemFacts)
                 .setTaskService(taskService)
                 .setRootyService(rootyService);
 
@@ -136,6 +158,7 @@ public class AppDAO {
         final File appDatabagsDir = new File(layout.getDatabagsDir(), manifest.getName());
 
         config.writeAppConfiguration(manifest, appDatabagsDir);
+        proxyRoutes.invalidate(app);
     }
 
     public TaskId install(Account admin, String app, String version, boolean force) {
@@ -146,7 +169,8 @@ public class AppDAO {
                 .setRequest(new AppInstallRequest(app, version, force))
                 .setRootyService(rootyService)
                 .setResolver(resolver)
-                .setConfiguration(configuration);
+                .setConfiguration(configuration)
+                .setSystemFacts(systemFacts);
 
         return taskService.execute(task);
     }
@@ -164,52 +188,45 @@ public class AppDAO {
     }
 
     public CloudOsApp findInstalledByName(String name) {
-        return loadApp(configuration.getAppLayout(name).getAppDir());
+        final AppRepositoryCatalog.Entry entry = getCatalog().get(name);
+        return entry == null ? null : toInstalledApp(entry);
     }
 
     public CloudOsApp findLatestVersionByName(String name) {
-        final AppLayout appLayout = configuration.getAppLayout(name);
-        final File latestVersionDir = appLayout.getLatestVersionDir();
-        return latestVersionDir != null && latestVersionDir.exists() ? loadApp(appLayout.getAppDir(), latestVersionDir, null, false) : null;
+        final AppRepositoryCatalog.Entry entry = getCatalog().get(name);
+        if (entry == null || entry.getLatestManifest() == null) return null;
+        return new CloudOsApp()
+                .setName(name)
+                .setAppRepository(configuration.getAppRepository())
+                .setManifest(entry.getLatestManifest());
     }
 
     public List<CloudOsApp> findActive() {
         final List<CloudOsApp> apps = new ArrayList<>();
-        final File appRepository = configuration.getAppRepository();
-        final File[] appDirs = FileUtil.list(appRepository);
-        for (File appDir : appDirs) {
-            final AppMetadata metadata = AppMetadata.fromJson(appDir);
-            if (metadata.isActive()) {
-                final CloudOsApp app = loadApp(appDir, metadata, false);
+        for (AppRepositoryCatalog.Entry entry : getCatalog().getEntries()) {
+            if (entry.getMetadata().isActive()) {
+                final CloudOsApp app = toInstalledApp(entry);
                 if (app != null) apps.add(app);
             }
-
         }
         return apps;
     }
 
-    private CloudOsApp loadApp(File appDir) {
-        return loadApp(appDir, AppMetadata.fromJson(appDir));
-    }
-
-    private CloudOsApp loadApp(File appDir, AppMetadata metadata) {
-        return loadApp(appDir, metadata, false);
-    }
-
-    private CloudOsApp loadApp(File appDir, AppMetadata metadata, boolean loadDataBags) {
-
-        if (!appDir.exists() || !appDir.isDirectory()) return null;
-
-        final String appName = appDir.getName();
-        final AppLayout layout = configuration.getAppLayout(appName);
-
-        final File versionDir = layout.getAppActiveVersionDir();
-        if (versionDir == null) {
-            log.warn("App " + appName + " downloaded but no version is active");
+    private CloudOsApp toInstalledApp(AppRepositoryCatalog.Entry entry) {
+        if (entry.getActiveVersionDir() == null) {
+            log.warn("App " + entry.getName() + " downloaded but no version is active");
             return null;
         }
-
-        return loadApp(appDir, versionDir, metadata, loadDataBags);
+        final AppManifest manifest = entry.getActiveManifest();
+        if (manifest == null) {
+            log.error("toInstalledApp: no manifest found for active version of " + entry.getName() + ": " + entry.getActiveVersionDir());
+            return null;
+        }
+        return new CloudOsApp()
+                .setName(entry.getName())
+                .setAppRepository(configuration.getAppRepository())
+                .setMetadata(entry.getMetadata())
+                .setManifest(manifest);
     }
 
     protected CloudOsApp loadApp(File appDir, File versionDir, AppMetadata metadata, boolean loadDataBags) {
@@ -259,9 +276,16 @@ public class AppDAO {
         return name.substring(0, lastDot);
     }
 
-    private final AtomicReference<Map<String, AppRuntimeDetails>> appDetails = new AtomicReference<>();
+    private final AtomicLong appsGeneration = new AtomicLong(0);
+    private final AtomicReference<AvailableAppsSnapshot> appDetails = new AtomicReference<>();
+
+    public Map<String, AppRuntimeDetails> getAvailableAppDetails() { return getAvailableApps().getDetails(); }
 
-    public Map<String, AppRuntimeDetails> getAvailableAppDetails() {
+    /**
+     * @return the current snapshot of available apps. The snapshot is immutable and can be shared by any number
+     * of sessions; a new one (with a higher generation) is published when the apps are reset.
+     */
+    public AvailableAppsSnapshot getAvailableApps() {
         if (this.appDetails.get() == null) {
             synchronized (this.appDetails) {
                 if (this.appDetails.get() == null) {
@@ -269,7 +293,7 @@ public class AppDAO {
                     for (Map.Entry<String, AppRuntime> entry : getAvailableRuntimes().entrySet()) {
                         detailsMap.put(entry.getKey(), entry.getValue().getDetails());
                     }
-                    this.appDetails.set(detailsMap);
+                    this.appDetails.set(new AvailableAppsSnapshot(appsGeneration.incrementAndGet(), detailsMap));
                 }
             }
         }
@@ -295,36 +319,108 @@ public class AppDAO {
         return this.apps.get();
     }
 
-    private Map<String, AppRuntime> initAvailableRuntimes() throws Exception {
+    public static final int INIT_THREADS = Math.min(8, Runtime.getRuntime().availableProcessors());
+    public static final int ASSET_THREADS = 2;
 
-        final Map<String, CloudOsApp> appCache = new HashMap<>();
-        final Map<String, AppRuntime> runtimes = new HashMap<>();
-        final String assetUrlBase = configuration.getAssetUrlBase();
+    private final ExecutorService initExecutor = Executors.newFixedThreadPool(INIT_THREADS, daemonThreads("AppDAO-init"));
+    private final ExecutorService assetExecutor = Executors.newFixedThreadPool(ASSET_THREADS, daemonThreads("AppDAO-assets"));
 
-        // load runtimes
-        for (CloudOsApp app : findActive()) {
-            final AppManifest manifest = app.getManifest();
-            final AppLayout layout = configuration.getAppLayout(manifest.getName());
-            final File pluginJar = layout.getPluginJar();
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            private final AtomicLong count = new AtomicLong();
+            @Override public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
 
-            final Class<? extends AppRuntime> appClass;
-            if (pluginJar.exists()) {
-                appClass = loadPluginClass(pluginJar, manifest.getPlugin());
-            } else {
-                appClass = (Class<? extends AppRuntime>) getClass().getClassLoader().loadClass(manifest.getPlugin());
+    // app name -> init status. entries are replaced, never modified, so readers can serialize them safely
+    private final ConcurrentMap<String, AppRuntimeStatus> runtimeStatus = new ConcurrentSkipListMap<>();
+    private final AtomicLong runtimeGeneration = new AtomicLong();
+
+    /** @return the init status of every active app, sorted by name */
+    public List<AppRuntimeStatus> getRuntimeStatus() { return new ArrayList<>(runtimeStatus.values()); }
+
+    // start a new init of the app's runtime; updates made for an older generation will be ignored
+    private long startRuntimeStatus(String name) {
+        final long generation = runtimeGeneration.incrementAndGet();
+        runtimeStatus.put(name, new AppRuntimeStatus(name).setGeneration(generation));
+        return generation;
+    }
+
+    private boolean isCurrentRuntime(String name, long generation) {
+        final AppRuntimeStatus status = runtimeStatus.get(name);
+        return status != null && status.getGeneration() == generation;
+    }
+
+    private interface StatusChange { void apply(AppRuntimeStatus status); }
+
+    /*
+     * Copy, change and replace the app's status, retrying if another thread replaced it first.
+     * If generation is not null and the app has been re-initialized since (or removed), nothing is changed.
+     */
+    private boolean updateRuntimeStatus(String name, Long generation, StatusChange change) {
+        while (true) {
+            final AppRuntimeStatus current = runtimeStatus.get(name);
+            if (current == null || (generation != null && current.getGeneration() != generation)) return false;
+            final AppRuntimeStatus updated = new AppRuntimeStatus(current);
+            change.apply(updated);
+            updated.setMtime(System.currentTimeMillis());
+            if (runtimeStatus.replace(name, current, updated)) return true;
+        }
+    }
+
+    private boolean setRuntimeState(String name, Long generation, final AppRuntimeStatus.State state, final String error) {
+        return updateRuntimeStatus(name, generation, new StatusChange() {
+            @Override public void apply(AppRuntimeStatus status) {
+                status.setRuntime(state);
+                if (error != null) status.setError(error);
             }
+        });
+    }
 
-            final AppRuntime appRuntime = appClass.newInstance();
-            try {
-                AppMutableData.downloadAssetsAndUpdateManifest(manifest, layout, assetUrlBase + app.getName() + "/");
-            } catch (Exception e) {
-                log.warn("Error downloading/checking assets for app "+app.getName()+": "+e, e);
+    private boolean setAssetsState(String name, Long generation, final AppRuntimeStatus.State state, final String error) {
+        return updateRuntimeStatus(name, generation, new StatusChange() {
+            @Override public void apply(AppRuntimeStatus status) {
+                status.setAssets(state);
+                if (error != null) status.setError(error);
             }
-            appRuntime.setDetails(manifest.getInstalledAppDetails());
-            appRuntime.setAuthentication(manifest.getAuth());
+        });
+    }
+
+    /*
+     * Plugins are loaded in parallel on initExecutor. An app whose plugin cannot be loaded is left out (and reported
+     * as failed in getRuntimeStatus) instead of failing every app. Assets are fetched afterwards on assetExecutor, so
+     * a slow or unreachable asset host never delays the runtimes.
+     */
+    private Map<String, AppRuntime> initAvailableRuntimes() throws Exception {
 
-            appCache.put(manifest.getName(), app);
-            runtimes.put(manifest.getName(), appRuntime);
+        final Map<String, CloudOsApp> appCache = new HashMap<>();
+        final Map<String, Long> generations = new HashMap<>();
+        final Map<String, Future<AppRuntime>> futures = new LinkedHashMap<>();
+
+        for (final CloudOsApp app : findActive()) {
+            final String name = app.getManifest().getName();
+            appCache.put(name, app);
+            final long generation = startRuntimeStatus(name);
+            generations.put(name, generation);
+            futures.put(name, initExecutor.submit(new Callable<AppRuntime>() {
+                @Override public AppRuntime call() throws Exception { return initRuntime(app, generation); }
+            }));
+        }
+        runtimeStatus.keySet().retainAll(appCache.keySet());
+
+        final Map<String, AppRuntime> runtimes = new HashMap<>();
+        for (Map.Entry<String, Future<AppRuntime>> future : futures.entrySet()) {
+            final String name = future.getKey();
+            try {
+                runtimes.put(name, future.getValue().get());
+            } catch (ExecutionException e) {
+                log.error("initAvailableRuntimes: error initializing "+name+": "+e.getCause(), e.getCause());
+                setRuntimeState(name, generations.get(name), AppRuntimeStatus.State.failed, String.valueOf(e.getCause()));
+            }
         }
 
         // for apps that have a parent, merge parent runtime into child
@@ -332,18 +428,217 @@ public class AppDAO {
         for (CloudOsApp app : appCache.values()) {
             final AppManifest manifest = app.getManifest();
             final AppRuntime appRuntime = runtimes.get(manifest.getName());
+            if (appRuntime == null) continue;
             if (manifest.hasParent()) {
                 final AppRuntime parentRuntime = runtimes.get(manifest.getParent());
-                mergeParent(appRuntime, parentRuntime);
+                if (parentRuntime == null) {
+                    setRuntimeState(manifest.getName(), generations.get(manifest.getName()), AppRuntimeStatus.State.failed, "parent app is not available: "+manifest.getParent());
+                    continue;
+                }
+                linkParent(appRuntime, manifest, parentRuntime);
             }
             apps.put(manifest.getName(), appRuntime);
+            setRuntimeState(manifest.getName(), generations.get(manifest.getName()), AppRuntimeStatus.State.ready, null);
         }
 
+        pluginLoaders.retain(apps.keySet());
+        for (String name : apps.keySet()) fetchAssets(appCache.get(name), generations.get(name));
+
         return apps;
     }
 
-    private void mergeParent(AppRuntime appRuntime, AppRuntime parentRuntime) {
-        appRuntime.getDetails().mergeParent(parentRuntime.getDetails());
+    private AppRuntime initRuntime(CloudOsApp app, long generation) throws Exception {
+        final long start = System.currentTimeMillis();
+        final AppManifest manifest = app.getManifest();
+        final AppLayout layout = configuration.getAppLayout(manifest.getName());
+        final File pluginJar = layout.getPluginJar();
+
+        final Class<? extends AppRuntime> appClass;
+        if (pluginJar.exists()) {
+            appClass = loadPluginClass(manifest.getName(), pluginJar, manifest.getPlugin());
+        } else {
+            pluginLoaders.release(manifest.getName());
+            appClass = (Class<? extends AppRuntime>) getClass().getClassLoader().loadClass(manifest.getPlugin());
+        }
+
+        final AppRuntime appRuntime = appClass.newInstance();
+        appRuntime.setDetails(manifest.getInstalledAppDetails());
+        appRuntime.setAuthentication(manifest.getAuth());
+
+        final long initMillis = System.currentTimeMillis() - start;
+        updateRuntimeStatus(manifest.getName(), generation, new StatusChange() {
+            @Override public void apply(AppRuntimeStatus status) { status.setInitMillis(initMillis); }
+        });
+        return appRuntime;
+    }
+
+    // generation: the runtime init these assets are for. If the app is re-initialized meanwhile, the result is dropped
+    private void fetchAssets(final CloudOsApp app, final long generation) {
+        final String name = app.getManifest().getName();
+        final String assetUrlBase = configuration.getAssetUrlBase();
+        assetExecutor.submit(new Runnable() {
+            @Override public void run() {
+                // the catalog's manifest is shared: update a copy, then swap it in
+                final AppManifest shared = app.getManifest();
+                final AppManifest manifest;
+                try {
+                    manifest = fromJson(toJson(shared), AppManifest.class);
+                    AppMutableData.downloadAssetsAndUpdateManifest(manifest, configuration.getAppLayout(name), assetUrlBase + app.getName() + "/");
+                } catch (Exception e) {
+                    log.warn("Error downloading/checking assets for app "+name+": "+e, e);
+                    setAssetsState(name, generation, AppRuntimeStatus.State.failed, String.valueOf(e));
+                    return;
+                }
+                if (!isCurrentRuntime(name, generation)) return;
+                if (!getCatalog().replaceManifest(name, shared, manifest)) {
+                    log.info("fetchAssets: "+name+" was re-read from the app repository meanwhile, its catalog manifest was not updated");
+                }
+                if (refreshDetails(name, generation, manifest)) {
+                    setAssetsState(name, generation, AppRuntimeStatus.State.ready, null);
+                }
+            }
+        });
+    }
+
+    // after assets are fetched, the manifest points to the local copies: rebuild the app's details, and its children's.
+    // returns false if the app was re-initialized, reset or removed since; a new init fetches assets again
+    private boolean refreshDetails(String name, long generation, AppManifest manifest) {
+        final Map<CloudOsApp, Long> newChildren;
+        synchronized (this.apps) {
+            final Map<String, AppRuntime> runtimes = this.apps.get();
+            final AppRuntime appRuntime = runtimes == null ? null : runtimes.get(name);
+            if (appRuntime == null || !isCurrentRuntime(name, generation)) return false;
+
+            if (manifest.hasParent() && runtimes.containsKey(manifest.getParent())) {
+                linkParent(appRuntime, manifest, runtimes.get(manifest.getParent()));
+            } else {
+                appRuntime.setDetails(manifest.getInstalledAppDetails());
+            }
+            final Map<String, AppRuntime> updated = new LinkedHashMap<>(runtimes);
+            newChildren = relinkChildren(updated, name);
+            this.apps.set(updated);
+            publishDetails(updated);
+        }
+        for (Map.Entry<CloudOsApp, Long> child : newChildren.entrySet()) fetchAssets(child.getKey(), child.getValue());
+        proxyRoutes.invalidateAll();
+        return true;
+    }
+
+    /**
+     * Rebuild one app's runtime after it was installed, upgraded or removed, without touching other apps' runtimes.
+     * The runtimes map is copied, changed and swapped in, and a new snapshot of app details is published at the same
+     * time, so readers always see a complete map: either the one before the change or the one after it.
+     * Apps whose parent is this app are re-linked to the new runtime (and initialized, if they had no runtime because
+     * the parent was missing), or dropped if it was removed.
+     * @param name the app name
+     */
+    public void reloadApp(String name) {
+        refreshCatalog(name);
+        synchronized (this.apps) {
+            final Map<String, AppRuntime> current = this.apps.get();
+            if (current != null) {
+                final Map<String, AppRuntime> updated = new LinkedHashMap<>(current);
+                updated.remove(name);
+
+                final CloudOsApp app = findInstalledByName(name);
+                AppRuntime appRuntime = null;
+                long generation = 0;
+                if (app != null && app.getMetadata().isActive()) {
+                    generation = startRuntimeStatus(name);
+                    try {
+                        appRuntime = initRuntime(app, generation);
+                    } catch (Exception e) {
+                        log.error("reloadApp: error initializing "+name+": "+e, e);
+                        setRuntimeState(name, generation, AppRuntimeStatus.State.failed, String.valueOf(e));
+                    }
+                } else {
+                    runtimeStatus.remove(name);
+                }
+
+                if (appRuntime != null) {
+                    final AppManifest manifest = app.getManifest();
+                    final AppRuntime parentRuntime = manifest.hasParent() ? updated.get(manifest.getParent()) : null;
+                    if (manifest.hasParent() && parentRuntime == null) {
+                        setRuntimeState(name, generation, AppRuntimeStatus.State.failed, "parent app is not available: "+manifest.getParent());
+                        appRuntime = null;
+                    } else {
+                        if (parentRuntime != null) linkParent(appRuntime, manifest, parentRuntime);
+                        updated.put(name, appRuntime);
+                        setRuntimeState(name, generation, AppRuntimeStatus.State.ready, null);
+                    }
+                }
+                final Map<CloudOsApp, Long> newChildren = relinkChildren(updated, name);
+                pluginLoaders.retain(updated.keySet());
+
+                this.apps.set(updated);
+                publishDetails(updated);
+                if (appRuntime != null) fetchAssets(app, generation);
+                for (Map.Entry<CloudOsApp, Long> child : newChildren.entrySet()) fetchAssets(child.getKey(), child.getValue());
+            }
+        }
+        // installing or removing an app changes which cookbooks exist and which fields each one exposes
+        vendorSettings.invalidateAll();
+        // the app's children were re-linked too, so their routes hold stale runtime details
+        proxyRoutes.invalidateAll();
+    }
+
+    /*
+     * Find the active apps whose parent is 'parent' in the catalog. Link each to the parent's current runtime,
+     * initializing any that has no runtime yet (its parent was missing before), or drop them all if the parent is gone.
+     * Changes 'runtimes' in place; returns the children that were initialized, with their status generation, so the
+     * caller can fetch their assets once the map is published.
+     */
+    private Map<CloudOsApp, Long> relinkChildren(Map<String, AppRuntime> runtimes, String parent) {
+        final Map<CloudOsApp, Long> initialized = new LinkedHashMap<>();
+        final AppRuntime parentRuntime = runtimes.get(parent);
+        for (CloudOsApp child : findActive()) {
+            final AppManifest manifest = child.getManifest();
+            if (!manifest.hasParent() || !manifest.getParent().equals(parent)) continue;
+            final String name = manifest.getName();
+
+            if (parentRuntime == null) {
+                runtimes.remove(name);
+                setRuntimeState(name, null, AppRuntimeStatus.State.failed, "parent app is not available: "+parent);
+                continue;
+            }
+
+            AppRuntime childRuntime = runtimes.get(name);
+            if (childRuntime == null) {
+                final long generation = startRuntimeStatus(name);
+                try {
+                    childRuntime = initRuntime(child, generation);
+                } catch (Exception e) {
+                    log.error("relinkChildren: error initializing "+name+": "+e, e);
+                    setRuntimeState(name, generation, AppRuntimeStatus.State.failed, String.valueOf(e));
+                    continue;
+                }
+                linkParent(childRuntime, manifest, parentRuntime);
+                runtimes.put(name, childRuntime);
+                setRuntimeState(name, generation, AppRuntimeStatus.State.ready, null);
+                initialized.put(child, generation);
+            } else {
+                linkParent(childRuntime, manifest, parentRuntime);
+            }
+        }
+        return initialized;
+    }
+
+    // called holding the lock on 'apps'
+    private void publishDetails(Map<String, AppRuntime> runtimes) {
+        synchronized (this.appDetails) {
+            final Map<String, AppRuntimeDetails> detailsMap = new HashMap<>();
+            for (Map.Entry<String, AppRuntime> entry : runtimes.entrySet()) {
+                detailsMap.put(entry.getKey(), entry.getValue().getDetails());
+            }
+            this.appDetails.set(new AvailableAppsSnapshot(appsGeneration.incrementAndGet(), detailsMap));
+        }
+    }
+
+    // merged details are built completely before being set, so a reader never sees them half-merged
+    private void linkParent(AppRuntime appRuntime, AppManifest manifest, AppRuntime parentRuntime) {
+        final AppRuntimeDetails details = manifest.getInstalledAppDetails();
+        details.mergeParent(parentRuntime.getDetails());
+        appRuntime.setDetails(details);
         appRuntime.setAuthentication(parentRuntime.getAuthentication());
     }
 
@@ -351,22 +646,27 @@ public class AppDAO {
         return getAvailableRuntimes().get(appName);
     }
 
-    public Class<? extends AppRuntime> loadPluginClass(File pluginJar, String pluginClassName) throws SimpleViolationException {
+    @Getter private final PluginClassLoaderRegistry pluginLoaders = new PluginClassLoaderRegistry(getClass().getClassLoader());
+
+    public Class<? extends AppRuntime> loadPluginClass(String app, File pluginJar, String pluginClassName) throws SimpleViolationException {
         final Class<? extends AppRuntime> pluginClass;
         try {
-            final ClassLoader loader = new URLClassLoader(new URL[]{pluginJar.toURI().toURL()}, getClass().getClassLoader());
+            final ClassLoader loader = pluginLoaders.acquire(app, pluginJar);
             pluginClass = (Class<AppRuntime>) loader.loadClass(pluginClassName);
 
         } catch (Exception e) {
+            pluginLoaders.release(app);
             throw invalidEx("{error.installApp.pluginClass.errorLoading}", "The sso class specified in the cloudos-manifest.json file could not be loaded", pluginClassName);
         }
 
         if (!AppRuntime.class.isAssignableFrom(pluginClass)) {
+            pluginLoaders.release(app);
             throw invalidEx("{error.installApp.pluginClass.doesNotImplementInstalledApp}", "The sso class specified in the cloudos-manifest.json file does not implement the AppRuntime interface", pluginClass.getName());
         }
         return pluginClass;
     }
 
+    /** Throw away every runtime; they are all rebuilt on next use. To update a single app, use reloadApp. */
     public void resetApps() {
         synchronized (this.apps) {
             synchronized (this.appDetails) {
@@ -374,6 +674,8 @@ public class AppDAO {
                 this.appDetails.set(null);
             }
         }
+        vendorSettings.invalidateAll();
+        proxyRoutes.invalidateAll();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,252 @@
+package cloudos.dao;
+
+import cloudos.appstore.model.app.AppLayout;
+import cloudos.appstore.model.app.AppManifest;
+import cloudos.appstore.model.app.AppMetadata;
+import cloudos.server.CloudOsConfiguration;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.util.io.DirFilter;
+import org.cobbzilla.wizard.model.SemanticVersion;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * An in-memory view of the app repository: for each app, its metadata, its active and latest version dirs, and the
+ * manifest of every version. Lookups are map reads; nothing is read from disk after an app is loaded.
+ * <p>
+ * An app is re-read when something tells the catalog it changed (the download, install and uninstall tasks do, via
+ * AppDAO.refreshCatalog), and when a WatchService sees a change to the repository dir, an app dir or a version dir.
+ * Watched changes are applied after SETTLE_DELAY, so that a burst of writes (unpacking a bundle) causes one re-read.
+ * <p>
+ * Manifests are shared between callers and must be treated as read-only; to change one, change a copy and swap it in
+ * with replaceManifest.
+ */
+@Slf4j
+public class AppRepositoryCatalog {
+
+    public static final long SETTLE_DELAY = 500;
+
+    @AllArgsConstructor
+    public static class Entry {
+        @Getter private final String name;
+        @Getter private final AppMetadata metadata;
+        @Getter private final File activeVersionDir;
+        @Getter private final File latestVersionDir;
+        // version -> manifest, for every version dir that has a manifest
+        @Getter private final Map<String, AppManifest> manifests;
+
+        public boolean isActiveVersion(String version) {
+            return activeVersionDir != null && activeVersionDir.getName().equals(version);
+        }
+        public AppManifest getActiveManifest() {
+            return activeVersionDir == null ? null : manifests.get(activeVersionDir.getName());
+        }
+        public AppManifest getLatestManifest() {
+            return latestVersionDir == null ? null : manifests.get(latestVersionDir.getName());
+        }
+    }
+
+    private final CloudOsConfiguration configuration;
+    @Getter private final File root;
+    @Getter private final long ctime = System.currentTimeMillis();
+
+    private final Map<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    private WatchService watchService;
+    private final Map<WatchKey, File> watched = new ConcurrentHashMap<>();
+    private final Set<String> pendingReloads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean closed = false;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "AppRepositoryCatalog");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    public AppRepositoryCatalog(CloudOsConfiguration configuration) {
+        this.configuration = configuration;
+        this.root = configuration.getAppRepository();
+    }
+
+    public Entry get(String name) { return entries.get(name); }
+
+    /** @return every app, sorted by name */
+    public Collection<Entry> getEntries() { return Collections.unmodifiableCollection(entries.values()); }
+
+    public int size() { return entries.size(); }
+
+    public boolean isWatching() { return watchService != null && !closed; }
+
+    public Map<String, Object> getStats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("apps", size());
+        stats.put("ageMillis", System.currentTimeMillis() - ctime);
+        stats.put("watching", isWatching());
+        return stats;
+    }
+
+    /** Re-read every app in the repository. Holds the lock throughout, so an app reloaded meanwhile is not dropped. */
+    public synchronized AppRepositoryCatalog load() {
+        final File[] appDirs = root.listFiles(DirFilter.instance);
+        final Set<String> found = new HashSet<>();
+        if (appDirs != null) {
+            for (File appDir : appDirs) {
+                found.add(appDir.getName());
+                reload(appDir.getName());
+            }
+        }
+        entries.keySet().retainAll(found);
+        return this;
+    }
+
+    /** Re-read one app. If its dir no longer exists, it is removed from the catalog. */
+    public synchronized void reload(String name) {
+        final File appDir = new File(root, name);
+        if (!appDir.isDirectory()) {
+            entries.remove(name);
+            return;
+        }
+        register(appDir);
+        entries.put(name, read(appDir));
+    }
+
+    /**
+     * Swap one manifest of an app for an updated copy (after its assets were fetched, say).
+     * @param name the app name
+     * @param expected the manifest the copy was made from
+     * @param replacement the updated copy
+     * @return true if the manifest was swapped, false if the app was re-read (or removed) since 'expected' was handed out
+     */
+    public synchronized boolean replaceManifest(String name, AppManifest expected, AppManifest replacement) {
+        final Entry entry = entries.get(name);
+        if (entry == null) return false;
+        for (Map.Entry<String, AppManifest> version : entry.getManifests().entrySet()) {
+            if (version.getValue() != expected) continue;
+            final Map<String, AppManifest> manifests = new LinkedHashMap<>(entry.getManifests());
+            manifests.put(version.getKey(), replacement);
+            entries.put(name, new Entry(name, entry.getMetadata(), entry.getActiveVersionDir(), entry.getLatestVersionDir(),
+                                        Collections.unmodifiableMap(manifests)));
+            return true;
+        }
+        return false;
+    }
+
+    private Entry read(File appDir) {
+        final String name = appDir.getName();
+        final AppLayout layout = configuration.getAppLayout(name);
+
+        final Map<String, AppManifest> manifests = new LinkedHashMap<>();
+        final File[] versionDirs = appDir.listFiles(SemanticVersion.DIR_FILTER);
+        if (versionDirs != null) {
+            for (File versionDir : versionDirs) {
+                register(versionDir);
+                final String version = versionDir.getName();
+                final File manifestFile = configuration.getAppLayout(name, version).getManifest();
+                if (!manifestFile.exists()) continue;
+                try {
+                    manifests.put(version, AppManifest.load(manifestFile));
+                } catch (Exception e) {
+                    log.error("read: error loading manifest "+manifestFile.getAbsolutePath()+": "+e, e);
+                }
+            }
+        }
+
+        return new Entry(name, AppMetadata.fromJson(appDir), layout.getAppActiveVersionDir(), layout.getLatestVersionDir(),
+                         Collections.unmodifiableMap(manifests));
+    }
+
+    /** Start watching the repository for changes made outside of the download/install/uninstall tasks. */
+    public AppRepositoryCatalog watch() {
+        try {
+            watchService = root.toPath().getFileSystem().newWatchService();
+        } catch (IOException e) {
+            log.warn("watch: cannot watch "+root.getAbsolutePath()+", apps changed on disk will not be seen until refreshed: "+e);
+            return this;
+        }
+        register(root);
+        final Thread t = new Thread(new Runnable() {
+            @Override public void run() { watchLoop(); }
+        }, "AppRepositoryCatalog-watch");
+        t.setDaemon(true);
+        t.start();
+        return this;
+    }
+
+    private void register(File dir) {
+        if (watchService == null || closed) return;
+        try {
+            watched.put(dir.toPath().register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+        } catch (IOException e) {
+            log.warn("register: cannot watch "+dir.getAbsolutePath()+": "+e);
+        }
+    }
+
+    private void watchLoop() {
+        try {
+            while (!closed) {
+                final WatchKey key = watchService.take();
+                final File dir = watched.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW || dir == null) {
+                        scheduleLoad();
+                    } else {
+                        scheduleReload(appName(dir, String.valueOf(event.context())));
+                    }
+                }
+                if (!key.reset()) watched.remove(key);
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            log.info("watchLoop: stopped watching "+root.getAbsolutePath());
+        }
+    }
+
+    // we watch the repository dir, app dirs and version dirs; work out which app a change belongs to
+    private String appName(File dir, String child) {
+        if (dir.equals(root)) return child;
+        if (root.equals(dir.getParentFile())) return dir.getName();
+        return dir.getParentFile().getName();
+    }
+
+    private void scheduleReload(final String name) {
+        if (closed || !pendingReloads.add(name)) return;
+        scheduler.schedule(new Runnable() {
+            @Override public void run() {
+                pendingReloads.remove(name);
+                try {
+                    reload(name);
+                } catch (Exception e) {
+                    log.error("scheduleReload: error reloading "+name+": "+e, e);
+                }
+            }
+        }, SETTLE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleLoad() {
+        scheduler.schedule(new Runnable() {
+            @Override public void run() { load(); }
+        }, SETTLE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.warn("close: "+e);
+            }
+        }
+    }
+
+}
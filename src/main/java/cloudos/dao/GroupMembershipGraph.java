@@ -0,0 +1,196 @@
+package cloudos.dao;
+
+import cloudos.model.AccountGroup;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory copy of the group -> member edges (and mirror sources) of every group in the directory.
+ * Built once from a bulk read by AccountGroupDAO, then patched as groups are created, updated and deleted.
+ * Keys are lowercased DNs; member DNs are kept as stored.
+ *
+ * The expanded (mirror-inclusive) member list of each group is memoized. Each memo records which groups it
+ * was computed from, and is dropped when any of those groups changes.
+ */
+@Slf4j
+public class GroupMembershipGraph {
+
+    public static class Node {
+        @Getter private final String dn;
+        @Getter private final String name;
+        @Getter private final List<String> members;
+        @Getter private final List<String> mirrors;
+
+        public Node(AccountGroup group) {
+            this.dn = group.getDn();
+            this.name = group.getName();
+            this.members = Collections.unmodifiableList(new ArrayList<>(group.getMembers()));
+            this.mirrors = group.hasMirror()
+                    ? Collections.unmodifiableList(new ArrayList<>(group.getMirrors()))
+                    : Collections.<String>emptyList();
+        }
+    }
+
+    private static class Expansion {
+        final List<String> members;
+        final Set<String> dependsOn;
+        Expansion(List<String> members, Set<String> dependsOn) {
+            this.members = members;
+            this.dependsOn = dependsOn;
+        }
+    }
+
+    private final String groupBaseDn;
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+    private final Map<String, Node> nodesByName = new ConcurrentHashMap<>();
+    private final Map<String, Expansion> expansions = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    @Getter private final long ctime = System.currentTimeMillis();
+
+    public static String key(String dn) { return dn.toLowerCase(); }
+    private static String nameKey(String name) { return "name:" + name.toLowerCase(); }
+
+    public GroupMembershipGraph(String groupBaseDn, Collection<AccountGroup> groups) {
+        this.groupBaseDn = key(groupBaseDn);
+        for (AccountGroup group : groups) put(group);
+    }
+
+    private boolean isGroupDn(String dn) { return key(dn).endsWith(groupBaseDn); }
+
+    public void put(AccountGroup group) {
+        final Node node = new Node(group);
+        final Node old = nodes.put(key(node.getDn()), node);
+        if (old != null && old.getName() != null) nodesByName.remove(old.getName().toLowerCase());
+        if (node.getName() != null) nodesByName.put(node.getName().toLowerCase(), node);
+        changed(node.getDn(), node.getName());
+    }
+
+    public void remove(String groupDn) {
+        final Node old = nodes.remove(key(groupDn));
+        if (old != null && old.getName() != null) nodesByName.remove(old.getName().toLowerCase());
+        changed(groupDn, old == null ? null : old.getName());
+    }
+
+    private void changed(String dn, String name) {
+        final String dnKey = key(dn);
+        final String nameKey = name == null ? null : nameKey(name);
+        synchronized (expansions) {
+            version.incrementAndGet();
+            for (Iterator<Expansion> iter = expansions.values().iterator(); iter.hasNext(); ) {
+                final Set<String> deps = iter.next().dependsOn;
+                if (deps.contains(dnKey) || (nameKey != null && deps.contains(nameKey))) iter.remove();
+            }
+        }
+    }
+
+    public int getExpansionCount() { return expansions.size(); }
+
+    public Map<String, Object> getStats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("groups", size());
+        stats.put("ageMillis", System.currentTimeMillis() - ctime);
+        stats.put("memoizedExpansions", getExpansionCount());
+        return stats;
+    }
+
+    /**
+     * @param group a group
+     * @return the group's members. If the group is a mirror, this also includes (via union) the members of its
+     * mirror source groups, with any groups in those sources expanded recursively.
+     */
+    public List<String> getExpandedMembers(AccountGroup group) {
+        final String k = key(group.getDn());
+        final Expansion memo = expansions.get(k);
+        if (memo != null) return memo.members;
+
+        final long startVersion = version.get();
+        Node node = nodes.get(k);
+        final boolean known = node != null;
+        if (!known) node = new Node(group);
+
+        final Set<String> members = new LinkedHashSet<>(node.getMembers());
+        final Set<String> dependsOn = new HashSet<>();
+        dependsOn.add(k);
+        expandMirrors(node, members, dependsOn, new HashSet<String>());
+
+        final List<String> result = Collections.unmodifiableList(new ArrayList<>(members));
+        // don't memoize if a group changed while we were computing, or if the group itself isn't in the graph
+        if (known) {
+            synchronized (expansions) {
+                if (version.get() == startVersion) expansions.put(k, new Expansion(result, dependsOn));
+            }
+        }
+        return result;
+    }
+
+    private void expandMirrors(Node node, Set<String> members, Set<String> dependsOn, Set<String> visited) {
+        if (!visited.add(key(node.getDn()))) return; // mirror loop
+        for (String mirror : node.getMirrors()) {
+            dependsOn.add(nameKey(mirror));
+            final Node source = nodesByName.get(mirror.toLowerCase());
+            if (source == null) {
+                log.warn("Mirror broken: "+mirror+" -> "+node.getName());
+                continue;
+            }
+            dependsOn.add(key(source.getDn()));
+            for (String m : source.getMembers()) {
+                if (isGroupDn(m)) {
+                    dependsOn.add(key(m));
+                    final Node nested = nodes.get(key(m));
+                    if (nested == null) continue;
+                    members.addAll(nested.getMembers());
+                    expandMirrors(nested, members, dependsOn, visited);
+                } else {
+                    members.add(m);
+                }
+            }
+        }
+    }
+
+    public Node get(String groupDn) { return nodes.get(key(groupDn)); }
+
+    public Node getByName(String name) { return nodesByName.get(name.toLowerCase()); }
+
+    public int size() { return nodes.size(); }
+
+    public List<String> getMembers(String groupDn) {
+        final Node node = get(groupDn);
+        return node == null ? Collections.<String>emptyList() : node.getMembers();
+    }
+
+    /**
+     * Same rule as the InspectCollection.containsCircularReference check this replaced: walking every edge once from
+     * the proposed members, reaching the group itself or reaching any account or group a second time is a circular
+     * reference. So a group may not contain another group and also (directly or through a third group) its members.
+     * @param groupDn a group that is being created or updated
+     * @param memberDns the proposed direct members of that group
+     * @return true if, with those members, the group would contain a circular reference
+     */
+    public boolean createsCycle(String groupDn, Collection<String> memberDns) {
+        final String target = key(groupDn);
+        final Set<String> found = new HashSet<>();
+        final Deque<String> toExpand = new ArrayDeque<>();
+        if (reachesAgain(target, memberDns, found, toExpand)) return true;
+
+        while (!toExpand.isEmpty()) {
+            final Node node = nodes.get(toExpand.pop());
+            if (node == null) continue; // an account, or a group we don't know about
+            if (reachesAgain(target, node.getMembers(), found, toExpand)) return true;
+        }
+        return false;
+    }
+
+    private boolean reachesAgain(String target, Collection<String> memberDns, Set<String> found, Deque<String> toExpand) {
+        for (String m : memberDns) {
+            final String k = key(m);
+            if (k.equals(target) || !found.add(k)) return true;
+            toExpand.push(k);
+        }
+        return false;
+    }
+
+}
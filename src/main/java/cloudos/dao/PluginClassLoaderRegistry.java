@@ -0,0 +1,217 @@
+package cloudos.dao;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.util.security.ShaUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+
+/**
+ * Hands out the class loaders for app plugin jars, one per jar path and content hash.
+ * <ul>
+ *     <li>an app that is reloaded with the same jar gets the same loader back, so plugin classes are not loaded again</li>
+ *     <li>when an app is reloaded with a different jar (a new version, say), it gets a new loader</li>
+ *     <li>a loader that no app uses any more is closed after CLOSE_DELAY, releasing its jar file and letting its
+ *     classes be unloaded. The delay lets requests that are still using the old runtime finish</li>
+ * </ul>
+ * A new version of a plugin jar must be put in place by writing it to a temporary file and renaming it over the old
+ * one, never by overwriting the old file in place: the old loader keeps its jar open for up to CLOSE_DELAY and would
+ * read the new bytes through the old file's index. acquire refuses a jar that was changed in place (same file,
+ * different content) while a loader for its old content is still open.
+ * <p>
+ * Jars are hashed and class loaders are created outside the registry's lock, so one slow jar does not hold up
+ * other apps.
+ */
+@Slf4j
+public class PluginClassLoaderRegistry {
+
+    public static final long CLOSE_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    @AllArgsConstructor
+    private static class JarHash {
+        final long lastModified;
+        final long length;
+        final String sha;
+        final Object fileKey; // identifies the file itself (device and inode), or null if the filesystem can't say
+    }
+
+    private static class Loader {
+        final String key;
+        final String path;
+        final Object fileKey;
+        final URLClassLoader classLoader;
+        final Set<String> apps = new HashSet<>();
+        ScheduledFuture<?> closing;
+        Loader(String key, String path, Object fileKey, URLClassLoader classLoader) {
+            this.key = key; this.path = path; this.fileKey = fileKey; this.classLoader = classLoader;
+        }
+    }
+
+    private final ClassLoader parent;
+
+    // path -> hash of the jar at that path, for paths that have a loader (or are about to)
+    private final Map<String, JarHash> hashes = new ConcurrentHashMap<>();
+
+    // all guarded by 'this'
+    private final Map<String, Loader> loaders = new HashMap<>();
+    private final Map<String, Loader> loaderByApp = new HashMap<>();
+    private long created = 0;
+    private long closed = 0;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "PluginClassLoaderRegistry");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    public PluginClassLoaderRegistry(ClassLoader parent) { this.parent = parent; }
+
+    /**
+     * Get the class loader for an app's plugin jar, creating it if no app is using this version of the jar yet.
+     * If the app was using a loader for another jar (or another version of it), that loader is released.
+     * @param app the app name
+     * @param pluginJar the plugin jar
+     * @return a class loader for the jar
+     */
+    public ClassLoader acquire(String app, File pluginJar) {
+        final String path = pluginJar.getAbsolutePath();
+        final JarHash hash = hash(pluginJar);
+        final String key = path + "@" + hash.sha;
+        synchronized (this) {
+            final Loader existing = loaders.get(key);
+            if (existing != null) return attach(app, existing);
+        }
+
+        final URLClassLoader candidate;
+        try {
+            candidate = new URLClassLoader(new URL[]{pluginJar.toURI().toURL()}, parent);
+        } catch (IOException e) {
+            return die("acquire: error creating class loader for "+path+": "+e, e);
+        }
+
+        URLClassLoader unused = null;
+        try {
+            synchronized (this) {
+                Loader loader = loaders.get(key);
+                if (loader == null) {
+                    for (Loader other : loaders.values()) {
+                        if (other.path.equals(path) && hash.fileKey != null && hash.fileKey.equals(other.fileKey)) {
+                            unused = candidate;
+                            return die("acquire: "+path+" was overwritten in place while "+other.key+" still has it open; "
+                                    +"replace plugin jars by renaming a new file over the old one");
+                        }
+                    }
+                    loader = new Loader(key, path, hash.fileKey, candidate);
+                    loaders.put(key, loader);
+                    created++;
+                    log.info("acquire: new class loader for "+app+": "+key);
+                } else {
+                    unused = candidate; // another thread created one for this jar first
+                }
+                return attach(app, loader);
+            }
+        } finally {
+            if (unused != null) close(unused, key);
+        }
+    }
+
+    private ClassLoader attach(String app, Loader loader) {
+        if (loader.closing != null) {
+            loader.closing.cancel(false);
+            loader.closing = null;
+        }
+        final Loader previous = loaderByApp.put(app, loader);
+        loader.apps.add(app);
+        if (previous != null && previous != loader) release(app, previous);
+        return loader.classLoader;
+    }
+
+    /** The app no longer has a runtime (it was removed, or failed to load); release its loader. */
+    public synchronized void release(String app) {
+        final Loader loader = loaderByApp.remove(app);
+        if (loader != null) release(app, loader);
+    }
+
+    /** Release the loaders of every app not in the given set. */
+    public synchronized void retain(Collection<String> apps) {
+        for (String app : new ArrayList<>(loaderByApp.keySet())) {
+            if (!apps.contains(app)) release(app);
+        }
+    }
+
+    private void release(String app, final Loader loader) {
+        loader.apps.remove(app);
+        if (!loader.apps.isEmpty() || loader.closing != null) return;
+        loader.closing = scheduler.schedule(new Runnable() {
+            @Override public void run() { close(loader); }
+        }, CLOSE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void close(Loader loader) {
+        if (!loader.apps.isEmpty() || loaders.get(loader.key) != loader) return;
+        loaders.remove(loader.key);
+        closed++;
+        boolean pathInUse = false;
+        for (Loader other : loaders.values()) pathInUse |= other.path.equals(loader.path);
+        if (!pathInUse) hashes.remove(loader.path);
+        close(loader.classLoader, loader.key);
+    }
+
+    private void close(URLClassLoader classLoader, String key) {
+        try {
+            classLoader.close();
+            log.info("close: closed class loader "+key);
+        } catch (IOException e) {
+            log.warn("close: error closing class loader "+key+": "+e);
+        }
+    }
+
+    // the jar's content hash is recomputed only when its size or mtime changes. Called without the lock: two threads
+    // may hash the same jar at once, which is wasted work but harmless
+    private JarHash hash(File pluginJar) {
+        final String path = pluginJar.getAbsolutePath();
+        JarHash hash = hashes.get(path);
+        if (hash == null || hash.lastModified != pluginJar.lastModified() || hash.length != pluginJar.length()) {
+            try {
+                final Object fileKey = Files.readAttributes(pluginJar.toPath(), BasicFileAttributes.class).fileKey();
+                hash = new JarHash(pluginJar.lastModified(), pluginJar.length(), ShaUtil.sha256_file(pluginJar), fileKey);
+            } catch (Exception e) {
+                return die("hash: error hashing "+path+": "+e, e);
+            }
+            hashes.put(path, hash);
+        }
+        return hash;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        int closing = 0;
+        for (Loader loader : loaders.values()) if (loader.closing != null) closing++;
+        stats.put("loaders", loaders.size());
+        stats.put("closing", closing);
+        stats.put("created", created);
+        stats.put("closed", closed);
+        stats.put("hashedJars", hashes.size());
+        stats.put("loadedClasses", ManagementFactory.getClassLoadingMXBean().getLoadedClassCount());
+        stats.put("unloadedClasses", ManagementFactory.getClassLoadingMXBean().getUnloadedClassCount());
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            final String name = pool.getName();
+            if (name.equals("Metaspace") || name.contains("Perm Gen")) stats.put("metaspaceBytes", pool.getUsage().getUsed());
+        }
+        return stats;
+    }
+
+}
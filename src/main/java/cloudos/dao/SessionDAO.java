@@ -1,20 +1,91 @@
 package cloudos.dao;
 
-import cloudos.appstore.model.AppRuntimeDetails;
 import cloudos.model.Account;
 import cloudos.server.CloudOsConfiguration;
+import com.google.common.cache.*;
 import org.cobbzilla.util.json.JsonUtil;
+import org.cobbzilla.wizard.cache.redis.RedisService;
 import org.cobbzilla.wizard.dao.AbstractSessionDAO;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
-import java.util.ArrayList;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
+import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
 
 @Repository
 public class SessionDAO extends AbstractSessionDAO<Account> {
 
+    // Decoded sessions are kept in-process, so most authenticated calls skip the redis read, decrypt and json parse.
+    // Each cached session remembers its account's epoch, a redis key that is changed whenever a session of that account
+    // is updated or revoked, or the account changes in LDAP, on any API node. Epochs are themselves kept here for
+    // EPOCH_CHECK_INTERVAL, so a cache hit normally makes no redis call at all: a change made on this node is seen
+    // at once (it sets the local epoch too), a change made on another node within EPOCH_CHECK_INTERVAL.
+    // The TTL only bounds how long a session that expired in redis can still be served from here.
+    public static final long SESSION_CACHE_TTL = TimeUnit.MINUTES.toMillis(1);
+    public static final int SESSION_CACHE_MAX_SIZE = 10000;
+
+    public static final String EPOCH_PREFIX = "cloudos.session.epoch.";
+    public static final long EPOCH_EXPIRATION = TimeUnit.HOURS.toSeconds(1);
+    public static final long EPOCH_CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(5);
+
     @Autowired private CloudOsConfiguration configuration;
     @Autowired private AppDAO appDAO;
+    @Autowired private RedisService redis;
+
+    private static class CachedSession {
+        final Account account;
+        final String epoch;
+        CachedSession(Account account, String epoch) { this.account = account; this.epoch = epoch; }
+    }
+
+    private static class LocalEpoch {
+        final String value;
+        final long readAt = System.nanoTime();
+        LocalEpoch(String value) { this.value = value; }
+    }
+
+    // account name (lowercase) -> ids of its cached sessions, so evictAccount need not scan the whole cache
+    private final ConcurrentMap<String, Set<String>> sessionsByAccount = new ConcurrentHashMap<>();
+
+    // account uuid -> account name (lowercase), so invalidateAllSessions(uuid) can use sessionsByAccount
+    private final ConcurrentMap<String, String> accountNamesByUuid = new ConcurrentHashMap<>();
+
+    // account name (lowercase) -> its epoch, as last read from (or written to) redis
+    private final Cache<String, LocalEpoch> epochs = CacheBuilder.newBuilder()
+            .maximumSize(SESSION_CACHE_MAX_SIZE)
+            .expireAfterWrite(EPOCH_CHECK_INTERVAL, TimeUnit.MILLISECONDS)
+            .build();
+
+    // session id -> account name: a session's account never changes, so after an epoch mismatch we can read the
+    // epoch before the session (see find) without reading the session twice
+    private final Cache<String, String> sessionNames = CacheBuilder.newBuilder()
+            .maximumSize(SESSION_CACHE_MAX_SIZE)
+            .expireAfterAccess(SESSION_CACHE_TTL, TimeUnit.MILLISECONDS)
+            .build();
+
+    private final Cache<String, CachedSession> sessionCache = CacheBuilder.newBuilder()
+            .maximumSize(SESSION_CACHE_MAX_SIZE)
+            .expireAfterWrite(SESSION_CACHE_TTL, TimeUnit.MILLISECONDS)
+            .removalListener(new RemovalListener<String, CachedSession>() {
+                @Override public void onRemoval(RemovalNotification<String, CachedSession> removal) {
+                    if (removal.getCause() == RemovalCause.REPLACED) return;
+                    final String name = accountKey(removal.getValue().account.getName());
+                    final Set<String> ids = sessionsByAccount.get(name);
+                    if (ids == null) return;
+                    ids.remove(removal.getKey());
+                    if (ids.isEmpty()) sessionsByAccount.remove(name, ids);
+                }
+            })
+            .recordStats()
+            .build();
+
+    public CacheStats getSessionCacheStats () { return sessionCache.stats(); }
+    public long getSessionCacheSize () { return sessionCache.size(); }
 
     @Override protected Class<Account> getEntityClass() { return Account.class; }
 
@@ -30,12 +101,135 @@ public class SessionDAO extends AbstractSessionDAO<Account> {
 
     @Override
     protected Account fromJson(String json) {
-        final Account account = super.fromJson(json);
+        return withAvailableApps(super.fromJson(json));
+    }
+
+    // the snapshot is immutable and already in display order, every session shares the same list
+    private Account withAvailableApps(Account account) { return account.applyAvailableApps(appDAO.getAvailableApps()); }
+
+    /*
+     * A session may be cached with an epoch only if the epoch was read before the session: then any change made
+     * after the session was read shows up as a different epoch. On a miss:
+     * - if we know the session's account (we had cached it before), read the epoch, then the session: one redis read
+     * - if we hold an epoch for the account that was read before we read the session: one redis read
+     * - otherwise (the first lookup of an account on this node) read the session, the epoch, and the session again
+     */
+    @Override public Account find(String uuid) {
+        if (empty(uuid)) return null;
 
-        // todo: sort these by the user's preference. this is the order they will be displayed.
-        final ArrayList<AppRuntimeDetails> availableApps = new ArrayList<>(appDAO.getAvailableAppDetails().values());
+        // callers (and the response scrubber) modify the account they get back, so always hand out a copy
+        final CachedSession cached = sessionCache.getIfPresent(uuid);
+        if (cached != null) {
+            if (Objects.equals(cached.epoch, getEpoch(cached.account.getName()).value)) {
+                return withAvailableApps(new Account(cached.account));
+            }
+            sessionCache.invalidate(uuid);
+        }
+
+        final String knownName = sessionNames.getIfPresent(uuid);
+        if (knownName != null) {
+            final LocalEpoch epoch = getEpoch(knownName);
+            final Account account = super.find(uuid);
+            if (account != null && accountKey(account.getName()).equals(knownName)) cache(uuid, account, epoch.value);
+            return account;
+        }
 
-        account.setAvailableApps(availableApps);
+        final long start = System.nanoTime();
+        final Account first = super.find(uuid);
+        if (first == null) return null;
+        final LocalEpoch epoch = getEpoch(first.getName());
+        if (epoch.readAt - start < 0) {
+            cache(uuid, first, epoch.value);
+            return first;
+        }
+        final Account account = super.find(uuid);
+        if (account != null) cache(uuid, account, epoch.value);
         return account;
     }
+
+    private void cache(String uuid, Account account, String epoch) {
+        final String name = accountKey(account.getName());
+        Set<String> ids = sessionsByAccount.get(name);
+        if (ids == null) {
+            final Set<String> newIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            ids = sessionsByAccount.putIfAbsent(name, newIds);
+            if (ids == null) ids = newIds;
+        }
+        ids.add(uuid);
+        if (account.getUuid() != null) accountNamesByUuid.put(account.getUuid(), name);
+        sessionNames.put(uuid, name);
+        sessionCache.put(uuid, new CachedSession(new Account(account), epoch));
+    }
+
+    @Override public void update(String uuid, Account account) {
+        sessionCache.invalidate(uuid);
+        super.update(uuid, account);
+        bumpEpoch(account.getName());
+    }
+
+    @Override public void invalidate(String uuid) {
+        final CachedSession cached = sessionCache.getIfPresent(uuid);
+        final Account account = cached != null ? cached.account : super.find(uuid);
+        sessionCache.invalidate(uuid);
+        super.invalidate(uuid);
+        if (account != null) bumpEpoch(account.getName());
+    }
+
+    @Override public void invalidateAllSessions(String uuid) {
+        final String name = uuid == null ? null : accountNamesByUuid.get(uuid);
+        if (name != null) {
+            final Set<String> ids = sessionsByAccount.get(name);
+            if (ids != null) sessionCache.invalidateAll(new ArrayList<>(ids));
+        }
+        super.invalidateAllSessions(uuid);
+        if (name != null) bumpEpoch(name);
+    }
+
+    /**
+     * Revoke every session of an account, on every API node.
+     * @param account the account whose sessions should be revoked
+     */
+    public void invalidateAllSessions(Account account) {
+        if (account.getUuid() != null && !empty(account.getName())) {
+            accountNamesByUuid.put(account.getUuid(), accountKey(account.getName()));
+        }
+        invalidateAllSessions(account.getUuid());
+    }
+
+    /**
+     * Drop any cached sessions for an account, here and on every other API node. Called when the account changes in
+     * LDAP (update, password change), so the next lookup reads the session from redis again.
+     * @param accountName the name of the account whose sessions should be dropped
+     */
+    public void evictAccount(String accountName) {
+        if (empty(accountName)) return;
+        final Set<String> ids = sessionsByAccount.get(accountKey(accountName));
+        if (ids != null) sessionCache.invalidateAll(new ArrayList<>(ids));
+        bumpEpoch(accountName);
+    }
+
+    private String accountKey(String accountName) { return accountName == null ? "" : accountName.toLowerCase(); }
+
+    private LocalEpoch getEpoch(String accountName) {
+        final String name = accountKey(accountName);
+        LocalEpoch epoch = epochs.getIfPresent(name);
+        if (epoch == null) {
+            epoch = new LocalEpoch(redis.get(EPOCH_PREFIX + name));
+            epochs.put(name, epoch);
+        }
+        return epoch;
+    }
+
+    // any new value will do: nodes only compare it with the one they cached. if the key expires, every cached
+    // session of the account simply reads a new one. XX replaces an existing epoch in one command, so there is never
+    // a moment where a live epoch is missing; NX creates it if there was none (or it expired)
+    private void bumpEpoch(String accountName) {
+        if (empty(accountName)) return;
+        final String name = accountKey(accountName);
+        final String key = EPOCH_PREFIX + name;
+        final String epoch = randomAlphanumeric(16);
+        redis.set(key, epoch, "XX", "EX", EPOCH_EXPIRATION);
+        redis.set(key, epoch, "NX", "EX", EPOCH_EXPIRATION);
+        epochs.put(name, new LocalEpoch(epoch));
+    }
 }
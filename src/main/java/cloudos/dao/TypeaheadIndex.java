@@ -0,0 +1,136 @@
+package cloudos.dao;
+
+import lombok.Getter;
+import org.cobbzilla.wizard.model.ldap.LdapEntity;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * An in-memory prefix index over a few text fields of LDAP entities, for type-ahead lookups that must not
+ * go to the directory. Every word of every indexed field is a term; terms are kept lowercased in a sorted map,
+ * so a prefix lookup is a range scan. Entries are keyed by lowercased DN; each holds whatever entry() keeps of the
+ * entity (E), not the entity itself.
+ * Private fields (an account's email, say) are kept in a separate term map that only privileged lookups scan,
+ * so a caller who may not see a field cannot find entries by guessing its value either.
+ *
+ * Built once from a bulk read by the owning DAO, then patched as entities are created, updated and deleted.
+ */
+public abstract class TypeaheadIndex<E extends LdapEntity, T> {
+
+    // one past the highest char, to turn a prefix into the end of a range
+    private static final char MAX_CHAR = Character.MAX_VALUE;
+
+    // publicTerms: terms from fields(); allTerms: terms from fields() and privateFields()
+    private final ConcurrentSkipListMap<String, Set<String>> publicTerms = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, Set<String>> allTerms = new ConcurrentSkipListMap<>();
+    private final Map<String, T> entries = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> publicTermsByEntry = new HashMap<>();
+    private final Map<String, Set<String>> allTermsByEntry = new HashMap<>();
+    @Getter private final long ctime = System.currentTimeMillis();
+
+    /** @return the values of the fields to index, any of which may be null */
+    protected abstract String[] fields(E entity);
+
+    /** @return the values of fields that only privileged lookups may match on, any of which may be null */
+    protected String[] privateFields(E entity) { return new String[0]; }
+
+    /** @return what to keep of the entity, and return from lookups */
+    protected abstract T entry(E entity);
+
+    /** @return the entry as a lookup should see it. the default returns the entry itself, which must then never change */
+    protected T view(T entry, boolean includePrivate) { return entry; }
+
+    private static String key(String dn) { return dn.toLowerCase(); }
+
+    public TypeaheadIndex<E, T> putAll(Collection<E> entities) {
+        for (E entity : entities) put(entity);
+        return this;
+    }
+
+    public synchronized void put(E entity) {
+        if (entity == null || entity.getDn() == null) return;
+        final String key = key(entity.getDn());
+        unindex(key);
+
+        final Set<String> entryTerms = terms(fields(entity));
+        final Set<String> entryAllTerms = new HashSet<>(entryTerms);
+        entryAllTerms.addAll(terms(privateFields(entity)));
+        index(publicTerms, entryTerms, key);
+        index(allTerms, entryAllTerms, key);
+        publicTermsByEntry.put(key, entryTerms);
+        allTermsByEntry.put(key, entryAllTerms);
+        entries.put(key, entry(entity));
+    }
+
+    private Set<String> terms(String[] fields) {
+        final Set<String> terms = new HashSet<>();
+        for (String field : fields) {
+            if (field == null) continue;
+            final String value = field.trim().toLowerCase();
+            if (value.isEmpty()) continue;
+            terms.add(value);
+            for (String word : value.split("[\\s@._-]+")) if (!word.isEmpty()) terms.add(word);
+        }
+        return terms;
+    }
+
+    private void index(Map<String, Set<String>> termMap, Set<String> entryTerms, String key) {
+        for (String term : entryTerms) {
+            Set<String> keys = termMap.get(term);
+            if (keys == null) {
+                keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                termMap.put(term, keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    public synchronized void remove(String dn) { unindex(key(dn)); }
+
+    private void unindex(String key) {
+        entries.remove(key);
+        unindex(publicTerms, publicTermsByEntry.remove(key), key);
+        unindex(allTerms, allTermsByEntry.remove(key), key);
+    }
+
+    private void unindex(Map<String, Set<String>> termMap, Set<String> old, String key) {
+        if (old == null) return;
+        for (String term : old) {
+            final Set<String> keys = termMap.get(term);
+            if (keys == null) continue;
+            keys.remove(key);
+            if (keys.isEmpty()) termMap.remove(term);
+        }
+    }
+
+    public int size() { return entries.size(); }
+
+    /**
+     * @param prefix the start of any word in any indexed field (case-insensitive)
+     * @param limit the maximum number of matches to return
+     * @param includePrivate if true, also match on privateFields; only for callers allowed to see those fields
+     * @return views of up to 'limit' matching entries, ordered by the matching term
+     */
+    public List<T> find(String prefix, int limit, boolean includePrivate) {
+        final List<T> found = new ArrayList<>();
+        if (prefix == null || limit <= 0) return found;
+        final String from = prefix.trim().toLowerCase();
+        if (from.isEmpty()) return found;
+
+        final Set<String> seen = new HashSet<>();
+        final ConcurrentSkipListMap<String, Set<String>> terms = includePrivate ? allTerms : publicTerms;
+        for (Set<String> keys : terms.subMap(from, true, from + MAX_CHAR, false).values()) {
+            for (String key : keys) {
+                if (!seen.add(key)) continue;
+                final T entry = entries.get(key);
+                if (entry == null) continue; // removed while we were looking
+                found.add(view(entry, includePrivate));
+                if (found.size() >= limit) return found;
+            }
+        }
+        return found;
+    }
+
+}
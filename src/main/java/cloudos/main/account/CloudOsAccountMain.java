@@ -1,12 +1,23 @@
 package cloudos.main.account;
 
+import au.com.bytecode.opencsv.CSVReader;
 import cloudos.main.CloudOsMainBase;
+import cloudos.model.support.AccountRequest;
+import org.cobbzilla.util.io.FileUtil;
 import org.cobbzilla.wizard.api.CrudOperation;
 import org.cobbzilla.wizard.client.ApiClientBase;
 
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static cloudos.main.account.CloudOsAccountMainOptions.LONGOPT_NAME;
 import static cloudos.main.account.CloudOsAccountMainOptions.OPT_NAME;
 import static cloudos.resources.ApiConstants.ACCOUNTS_ENDPOINT;
+import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+import static org.cobbzilla.util.json.JsonUtil.fromJson;
 import static org.cobbzilla.util.json.JsonUtil.toJson;
 
 public class CloudOsAccountMain extends CloudOsMainBase<CloudOsAccountMainOptions> {
@@ -17,6 +28,13 @@ public class CloudOsAccountMain extends CloudOsMainBase<CloudOsAccountMainOption
 
         final ApiClientBase api = getApiClient();
         final CloudOsAccountMainOptions options = getOptions();
+
+        if (options.hasBatchFile()) {
+            if (options.getOperation() != CrudOperation.create) throw new IllegalArgumentException("batch mode only supports the create operation");
+            out(api.put(ACCOUNTS_ENDPOINT, toJson(readBatch(options.getBatchFile()))).json);
+            return;
+        }
+
         final String uri = options.hasName() ? ACCOUNTS_ENDPOINT+"/"+options.getName() : ACCOUNTS_ENDPOINT;
 
         if (options.getOperation() != CrudOperation.read) {
@@ -44,4 +62,44 @@ public class CloudOsAccountMain extends CloudOsMainBase<CloudOsAccountMainOption
                 throw new IllegalArgumentException("unrecognized operation: "+options.getOperation());
         }
     }
+
+    private List<AccountRequest> readBatch(File file) throws Exception {
+        if (file.getName().toLowerCase().endsWith(".json")) {
+            return Arrays.asList(fromJson(FileUtil.toString(file), AccountRequest[].class));
+        }
+
+        final List<AccountRequest> requests = new ArrayList<>();
+        try (CSVReader reader = new CSVReader(new FileReader(file))) {
+            final String[] header = reader.readNext();
+            if (header == null) return requests;
+            String[] row;
+            while ((row = reader.readNext()) != null) {
+                final AccountRequest request = new AccountRequest(getOptions().getLdap());
+                for (int i=0; i<header.length && i<row.length; i++) {
+                    final String value = row[i].trim();
+                    if (empty(value)) continue;
+                    setField(request, header[i].trim(), value);
+                }
+                if (empty(request.getName())) continue; // blank line
+                requests.add(request);
+            }
+        }
+        return requests;
+    }
+
+    private void setField(AccountRequest request, String column, String value) {
+        switch (column) {
+            case "name":                   request.setName(value); break;
+            case "firstName":              request.setFirstName(value); break;
+            case "lastName":               request.setLastName(value); break;
+            case "email":                  request.setEmail(value); break;
+            case "password":               request.setPassword(value); break;
+            case "admin":                  request.setAdmin(Boolean.valueOf(value)); break;
+            case "mobilePhone":            request.setMobilePhone(value); break;
+            case "mobilePhoneCountryCode": request.setMobilePhoneCountryCode(Integer.parseInt(value)); break;
+            case "storageQuota":           request.setStorageQuotaString(value); break;
+            case "twoFactor":              request.setTwoFactor(Boolean.valueOf(value)); break;
+            default: throw new IllegalArgumentException("unrecognized column: "+column);
+        }
+    }
 }
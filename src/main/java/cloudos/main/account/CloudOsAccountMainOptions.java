@@ -7,6 +7,8 @@ import lombok.Setter;
 import org.cobbzilla.wizard.api.CrudOperation;
 import org.kohsuke.args4j.Option;
 
+import java.io.File;
+
 import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
 
 public class CloudOsAccountMainOptions extends CloudOsMainOptions {
@@ -84,6 +86,15 @@ public class CloudOsAccountMainOptions extends CloudOsMainOptions {
     @Option(name=OPT_SUSPENDED, aliases=LONGOPT_SUSPENDED, usage=USAGE_SUSPENDED)
     @Getter @Setter private boolean suspended = false;
 
+    public static final String USAGE_BATCH = "Create every account listed in this file (operation must be 'create'). "
+            + "Either a JSON array of account requests (file name ending in .json), or a CSV file whose first row names the columns: "
+            + "name, firstName, lastName, email, password, admin, mobilePhone, mobilePhoneCountryCode, storageQuota, twoFactor";
+    public static final String OPT_BATCH = "-B";
+    public static final String LONGOPT_BATCH = "--batch";
+    @Option(name=OPT_BATCH, aliases=LONGOPT_BATCH, usage=USAGE_BATCH)
+    @Getter @Setter private File batchFile;
+    public boolean hasBatchFile () { return batchFile != null; }
+
     public AccountRequest getAccountRequest() {
         return (AccountRequest) new AccountRequest()
                 .setPassword(getAccountPassword())
@@ -2,6 +2,7 @@ package cloudos.model;
 
 import cloudos.appstore.model.AppRuntimeDetails;
 import cloudos.appstore.model.CloudOsAccount;
+import cloudos.model.app.AvailableAppsSnapshot;
 import com.fasterxml.jackson.annotation.JacksonInject;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.JavaType;
@@ -222,9 +223,23 @@ public class Account extends LdapEntity implements CloudOsAccount, BasicAccount,
         }
     }
 
-    // filled out by SessionDAO when it returns lookups
+    // filled out by SessionDAO when it returns lookups. this is usually the list of the shared AvailableAppsSnapshot:
+    // it is unmodifiable and must not be changed in place (nor the details in it), set a new list instead
     @Transient @Getter @Setter private List<AppRuntimeDetails> availableApps = new ArrayList<>();
 
+    // names of the apps that availableApps lists first, see AvailableAppsSnapshot.PREFERRED_APPS
+    @Transient @Getter @Setter private List<String> preferredApps = new ArrayList<>();
+
+    // generation of the AvailableAppsSnapshot that availableApps came from, lets clients see when the list changes
+    @Transient @Getter @Setter private long availableAppsGeneration;
+
+    public Account applyAvailableApps(AvailableAppsSnapshot snapshot) {
+        availableApps = snapshot.getApps();
+        preferredApps = AvailableAppsSnapshot.PREFERRED_APPS;
+        availableAppsGeneration = snapshot.getGeneration();
+        return this;
+    }
+
     public static class FullNameProducer implements LdapDerivedValueProducer<Account> {
         public static FullNameProducer instance = new FullNameProducer();
         @Override public String deriveValue(Account account) { return account.getFullName(); }
@@ -0,0 +1,39 @@
+package cloudos.model.app;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+/**
+ * How far along an app's runtime is: whether its plugin has been loaded (runtime), and whether its assets have been
+ * checked and downloaded (assets). An app is usable as soon as its runtime is ready; assets are fetched afterwards,
+ * in the background.
+ */
+@Accessors(chain=true) @NoArgsConstructor
+public class AppRuntimeStatus {
+
+    public enum State { pending, ready, failed }
+
+    @Getter @Setter private String name;
+    @Getter @Setter private State runtime = State.pending;
+    @Getter @Setter private State assets = State.pending;
+    @Getter @Setter private String error;
+    @Getter @Setter private long initMillis;
+    @Getter @Setter private long mtime = System.currentTimeMillis();
+
+    // a new generation starts each time the app's runtime is initialized; updates from an older init are ignored
+    @Getter @Setter private long generation;
+
+    public AppRuntimeStatus(String name) { this.name = name; }
+
+    public AppRuntimeStatus(AppRuntimeStatus other) {
+        this.name = other.name;
+        this.runtime = other.runtime;
+        this.assets = other.assets;
+        this.error = other.error;
+        this.initMillis = other.initMillis;
+        this.generation = other.generation;
+    }
+
+}
@@ -0,0 +1,55 @@
+package cloudos.model.app;
+
+import cloudos.appstore.model.AppRuntimeDetails;
+import lombok.Getter;
+
+import java.util.*;
+
+/**
+ * An immutable view of the apps that are available to users, published by AppDAO each time the
+ * runtimes are (re)built. Sessions hold a reference to the list rather than copying it, so neither
+ * the list (which is unmodifiable) nor the details in it may be modified.
+ * The generation increases every time a new snapshot is published.
+ */
+public class AvailableAppsSnapshot {
+
+    // these are shown first, in this order, followed by the other apps sorted by their taskbar label (or name).
+    // this is the only copy of the ordering: sessions carry PREFERRED_APPS (Account.preferredApps) and the web UI
+    // shows availableApps as they come, using preferredApps only to place its separator
+    public static final List<String> PREFERRED_APPS
+            = Collections.unmodifiableList(Arrays.asList("roundcube", "roundcube-calendar", "owncloud"));
+
+    public static final Comparator<AppRuntimeDetails> DISPLAY_ORDER = new Comparator<AppRuntimeDetails>() {
+        @Override public int compare(AppRuntimeDetails a1, AppRuntimeDetails a2) {
+            final int p1 = preferredIndex(a1.getName());
+            final int p2 = preferredIndex(a2.getName());
+            if (p1 != p2) return p1 - p2;
+            final int diff = sortingKey(a1).compareTo(sortingKey(a2));
+            return diff != 0 ? diff : String.valueOf(a1.getName()).compareTo(String.valueOf(a2.getName()));
+        }
+    };
+
+    private static int preferredIndex(String name) {
+        final int index = PREFERRED_APPS.indexOf(name);
+        return index == -1 ? PREFERRED_APPS.size() : index;
+    }
+
+    private static String sortingKey(AppRuntimeDetails app) {
+        final String label = app.getAssets() == null ? null : app.getAssets().getTaskbarIconAltText();
+        return String.valueOf(label == null ? app.getName() : label);
+    }
+
+    @Getter private final long generation;
+    @Getter private final Map<String, AppRuntimeDetails> details;
+    @Getter private final List<AppRuntimeDetails> apps;
+
+    public AvailableAppsSnapshot(long generation, Map<String, AppRuntimeDetails> details) {
+        this.generation = generation;
+        this.details = Collections.unmodifiableMap(new LinkedHashMap<>(details));
+
+        final List<AppRuntimeDetails> sorted = new ArrayList<>(details.values());
+        Collections.sort(sorted, DISPLAY_ORDER);
+        this.apps = Collections.unmodifiableList(sorted);
+    }
+
+}
@@ -0,0 +1,31 @@
+package cloudos.model.support;
+
+import cloudos.model.Account;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * What the account type-ahead index keeps and returns for each account: just enough to show and pick it.
+ * Entries are shared by every lookup and never modified.
+ */
+@NoArgsConstructor
+public class AccountTypeaheadEntry {
+
+    @Getter private String name;
+    @Getter private String displayName;
+    @Getter private String email;
+
+    public AccountTypeaheadEntry(Account account) {
+        this(account.getName(), account.getFullName(), account.getEmail());
+    }
+
+    private AccountTypeaheadEntry(String name, String displayName, String email) {
+        this.name = name;
+        this.displayName = displayName;
+        this.email = email;
+    }
+
+    // DefaultSearchScrubber hides email from non-admins
+    public AccountTypeaheadEntry withoutEmail() { return new AccountTypeaheadEntry(name, displayName, null); }
+
+}
@@ -0,0 +1,22 @@
+package cloudos.model.support;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+@Accessors(chain=true) @NoArgsConstructor @AllArgsConstructor
+public class BulkAccountResult {
+
+    @Getter @Setter private String name;
+    @Getter @Setter private boolean created;
+    @Getter @Setter private String error;
+
+    public static BulkAccountResult created(String name) { return new BulkAccountResult(name, true, null); }
+    public static BulkAccountResult failed(String name, String error) { return new BulkAccountResult(name, false, error); }
+
+    // the account exists, but a later step (group membership, telling apps about it) failed
+    public static BulkAccountResult incomplete(String name, String error) { return new BulkAccountResult(name, true, error); }
+
+}
@@ -0,0 +1,18 @@
+package cloudos.model.support;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+@Accessors(chain=true) @NoArgsConstructor
+public class VendorSettingUpdateResult {
+
+    @Getter @Setter private String path;
+    @Getter @Setter private boolean updated;
+    @Getter @Setter private boolean rolledBack;
+    @Getter @Setter private String error;
+
+    public VendorSettingUpdateResult(String path) { this.path = path; }
+
+}
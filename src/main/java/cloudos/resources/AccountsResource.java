@@ -8,6 +8,7 @@ import cloudos.model.auth.ChangePasswordRequest;
 import cloudos.model.auth.CloudOsAuthResponse;
 import cloudos.model.auth.LoginRequest;
 import cloudos.model.support.AccountRequest;
+import cloudos.model.support.BulkAccountResult;
 import cloudos.server.CloudOsConfiguration;
 import com.qmino.miredot.annotations.ReturnType;
 import lombok.extern.slf4j.Slf4j;
@@ -17,13 +18,23 @@ import org.cobbzilla.util.time.TimeUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validation;
+import javax.validation.Validator;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.util.ArrayList;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.*;
 
 import static cloudos.resources.ApiConstants.ACCOUNTS_ENDPOINT;
+import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+import static org.cobbzilla.util.json.JsonUtil.toJson;
 import static org.cobbzilla.wizard.resources.ResourceUtil.*;
 
 @Consumes(MediaType.APPLICATION_JSON)
@@ -43,7 +54,7 @@ public class AccountsResource extends AccountsResourceBase<Account, CloudOsAuthR
 
     @Override protected void afterSuccessfulLogin(LoginRequest login, Account account) throws Exception {
         // set apps
-        account.setAvailableApps(new ArrayList<>(appDAO.getAvailableAppDetails().values()));
+        account.applyAvailableApps(appDAO.getAvailableApps());
     }
 
     @Override
@@ -111,6 +122,121 @@ public class AccountsResource extends AccountsResourceBase<Account, CloudOsAuthR
         return ok(created);
     }
 
+    // the same bean validation Jersey applies to @Valid parameters, run on each element of a bulk request
+    private static final Validator VALIDATOR = Validation.buildDefaultValidatorFactory().getValidator();
+
+    /**
+     * Create many Accounts at once. Must be an admin. This also sends a welcome email to each new user.
+     * The response is a JSON array with one BulkAccountResult per request. Results are streamed, in the order in
+     * which accounts are created, so the array may be read as it arrives. A failure for one account does not stop the others.
+     * Requests that fail validation (or repeat a name used earlier in the list) are reported first, as failed, and not created.
+     * If accounts were created but then could not be added to their groups or announced to apps, a second result is
+     * written for each of them, with created=true and the error.
+     * @param apiKey The session ID
+     * @param requests The AccountRequests
+     * @return a List of BulkAccountResults
+     * @statuscode 403 if caller is not an admin
+     * @statuscode 422 if the request body is not a list of accounts
+     */
+    @PUT
+    @ReturnType("java.util.List<cloudos.model.support.BulkAccountResult>")
+    public Response addAccounts(@HeaderParam(ApiConstants.H_API_KEY) String apiKey,
+                                List<AccountRequest> requests) {
+
+        final Account admin = sessionDAO.find(apiKey);
+        if (admin == null) return notFound(apiKey);
+
+        // only admins can create new accounts
+        if (!admin.isAdmin()) return forbidden();
+
+        if (requests == null) return invalid("{err.accounts.empty}");
+
+        final List<BulkAccountResult> rejected = new ArrayList<>();
+        final List<AccountRequest> valid = new ArrayList<>();
+        final Set<String> names = new HashSet<>();
+        for (AccountRequest request : requests) {
+            final String error = validate(request, names);
+            if (error != null) {
+                rejected.add(BulkAccountResult.failed(request == null ? null : request.getName(), error));
+                continue;
+            }
+            if (request.isTwoFactor()) set2factor(request);
+            valid.add(request);
+        }
+
+        final StreamingOutput output = new StreamingOutput() {
+            @Override public void write(OutputStream out) throws IOException, WebApplicationException {
+                final BulkResultWriter writer = new BulkResultWriter(new OutputStreamWriter(out));
+                for (BulkAccountResult result : rejected) writer.write(result);
+
+                final List<String> created = Collections.synchronizedList(new ArrayList<String>());
+                try {
+                    if (!valid.isEmpty()) accountDAO.createAll(valid, new AccountDAO.BulkCreateListener() {
+                        @Override public void created(AccountRequest request, Account account) {
+                            created.add(account.getName());
+                            writer.write(BulkAccountResult.created(account.getName()));
+                            sendInvitation(admin, account, request.getPassword());
+                        }
+                        @Override public void failed(AccountRequest request, Exception e) {
+                            log.error("addAccounts: error creating account "+request.getName()+": "+e, e);
+                            writer.write(BulkAccountResult.failed(request.getName(), e.getMessage()));
+                        }
+                    });
+                } catch (Exception e) {
+                    // the accounts were created, but adding them to groups or notifying apps failed
+                    log.error("addAccounts: error finishing bulk create: "+e, e);
+                    synchronized (created) {
+                        for (String name : created) writer.write(BulkAccountResult.incomplete(name, e.getMessage()));
+                    }
+                }
+                writer.close();
+            }
+        };
+        return Response.ok(output).build();
+    }
+
+    // returns null if the request may be created, otherwise the message key saying why not
+    private String validate(AccountRequest request, Set<String> namesSoFar) {
+        if (request == null) return "{err.account.empty}";
+        final Set<ConstraintViolation<AccountRequest>> violations = VALIDATOR.validate(request);
+        if (!violations.isEmpty()) {
+            final StringBuilder b = new StringBuilder();
+            for (ConstraintViolation<AccountRequest> v : violations) {
+                if (b.length() > 0) b.append(", ");
+                b.append(v.getMessageTemplate());
+            }
+            return b.toString();
+        }
+        if (empty(request.getName())) return "{err.name.empty}";
+        if (!namesSoFar.add(request.getName().toLowerCase())) return "{err.name.notUnique}";
+        return null;
+    }
+
+    // writes a JSON array one element at a time, from whichever thread has a result
+    private static class BulkResultWriter {
+        private final Writer out;
+        private boolean first = true;
+
+        BulkResultWriter(Writer out) { this.out = out; }
+
+        public synchronized void write(BulkAccountResult result) {
+            try {
+                out.write(first ? "[" : ",");
+                first = false;
+                out.write(toJson(result));
+                out.write("\n");
+                out.flush();
+            } catch (Exception e) {
+                log.warn("BulkResultWriter.write: error writing result (client went away?): "+e);
+            }
+        }
+
+        public synchronized void close() throws IOException {
+            out.write(first ? "[]" : "]");
+            out.close();
+        }
+    }
+
     public void sendInvitation(Account admin, Account created, String password) {
         // todo: use the event bus for this?
         // Send welcome email with password and link to login and change it
@@ -189,7 +315,7 @@ public class AccountsResource extends AccountsResourceBase<Account, CloudOsAuthR
         }
 
         if (request.isSuspended()) {
-            sessionDAO.invalidateAllSessions(found.getUuid());
+            sessionDAO.invalidateAllSessions(found);
         } else {
             sessionDAO.update(apiKey, account);
         }
@@ -5,6 +5,7 @@ import org.apache.commons.lang3.RandomStringUtils;
 public class ApiConstants {
 
     public static final String H_API_KEY = "x-cloudos-api-key";
+    public static final String H_SEARCH_CURSOR = "x-cloudos-search-cursor";
 
     public static final String AUTH_ENDPOINT = "/auth";
     public static final String SETUP_ENDPOINT = "/setup";
@@ -32,6 +33,7 @@ public class ApiConstants {
     public static final String APPS_ENDPOINT = "/apps";
     public static final String APP_ASSETS_ENDPOINT = "/app_assets";
     public static final String TASKS_ENDPOINT = "/tasks";
+    public static final String STATS_ENDPOINT = "/stats";
 
     public static final String APPSTORE_ENDPOINT = "/appstore";
 
@@ -1,17 +1,14 @@
 package cloudos.resources;
 
 import cloudos.appstore.model.AppRuntime;
-import cloudos.appstore.model.AppRuntimeDetails;
-import cloudos.appstore.model.app.AppManifest;
 import cloudos.appstore.model.app.filter.AppFilter;
 import cloudos.appstore.model.app.filter.AppFilterConfig;
 import cloudos.dao.AppDAO;
 import cloudos.dao.SessionDAO;
-import cloudos.databag.PortsDatabag;
 import cloudos.model.Account;
-import cloudos.appstore.model.app.config.AppConfiguration;
-import cloudos.model.app.CloudOsApp;
 import cloudos.server.CloudOsConfiguration;
+import cloudos.service.app.AppProxyRoute;
+import cloudos.service.app.AppProxyRoutes;
 import cloudos.service.app.AuthTransition;
 import cloudos.service.app.InstalledAppLoader;
 import com.qmino.miredot.annotations.ReturnType;
@@ -31,10 +28,8 @@ import org.springframework.stereotype.Service;
 import javax.ws.rs.*;
 import javax.ws.rs.core.*;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
 
-import static cloudos.appstore.model.app.filter.AppFilterHandler.*;
 import static cloudos.resources.ApiConstants.H_API_KEY;
 import static javax.ws.rs.core.Response.temporaryRedirect;
 import static org.cobbzilla.wizard.resources.ResourceUtil.notFound;
@@ -48,6 +43,7 @@ public class AppAdapter {
     @Autowired private SessionDAO sessionDAO;
     @Autowired private AppDAO appDAO;
     @Autowired private InstalledAppLoader installedAppLoader;
+    @Autowired private AppProxyRoutes proxyRoutes;
     @Autowired private CloudOsConfiguration configuration;
     @Autowired private RedisService redis;
 
@@ -160,52 +156,34 @@ public class AppAdapter {
                            String method,
                            MultivaluedMap<String, String> formData) throws IOException {
 
-        final CloudOsApp app = appDAO.findInstalledByName(appName);
-        if (app == null) return notFound();
+        final AppProxyRoute route = proxyRoutes.get(appName);
+        if (route == null) return notFound();
+        // proxying without the app's filters could expose what they rewrite or hide
+        if (!route.isAvailable()) return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
 
-        final AppManifest manifest = app.getManifest();
-        final PortsDatabag ports = configuration.getAppLayout(manifest).getPortsDatabag();
-        if (ports == null) return notFound();
-
-        final String appUri = "http://127.0.0.1:" + ports.getPrimary() + manifest.getNormalizedLocalMount();
+        final String appUri = route.getAppUri();
         final String proxyUri = appUri + uri + getQueryParams(context);
         final CookieJar cookieJar = new CookieJar();
         final HttpRequestBean<String> requestBean = new HttpRequestBean<>(method, proxyUri);
         if (method.equals(HttpMethods.POST)) requestBean.setData(HttpContextUtil.encodeParams(formData));
         final BufferedResponse response = ProxyUtil.proxyResponse(requestBean, context, appUri, cookieJar);
 
-        if (manifest.hasFilters()) {
-
-            final AppFilterConfig filterConfig = manifest.getFilterConfig(uri);
-            if (filterConfig != null) {
-                final AppFilter[] filters = filterConfig.getFilters();
-                final AppRuntime runtime = appDAO.findAppRuntime(appName);
-                final AppRuntimeDetails runtimeDetails = runtime.getDetails().getDetails(configuration.getPublicUriBase());
-                final AppConfiguration appConfig = appDAO.getConfiguration(appName, manifest.getVersion());
-
-                // these things define the {{ }} vars used in a manifest file's web.filters section, they can also be used by a PluginFilterHandler
-                final Map<String, Object> scope = new HashMap<>();
-                scope.put(FSCOPE_SYSTEM, configuration);
-                scope.put(FSCOPE_RUNTIME, runtime);
-                scope.put(FSCOPE_APP, runtimeDetails);
-                scope.put(FSCOPE_APP_URI, appUri);
-                scope.put(FSCOPE_METHOD, method);
-                scope.put(FSCOPE_CONFIG, appConfig.getDatabagMap());
-                scope.put(FSCOPE_CONTEXT, context);
-                scope.put(FSCOPE_COOKIE_JAR, cookieJar);
-
-                String document = response.getDocument();
-
-                if (filterConfig.hasFilters(scope)) {
-                    try {
-                        for (AppFilter filter : filters) {
-                            document = filter.getHandler().apply(document, scope);
-                        }
-                        return response.withNewDocument(document);
-
-                    } catch (Exception e) {
-                        log.error("Error applying filter fields (uri=" + uri + "): " + e, e);
+        final AppFilterConfig filterConfig = route.getFilterConfig(uri);
+        if (filterConfig != null) {
+            final AppFilter[] filters = filterConfig.getFilters();
+            final Map<String, Object> scope = route.newScope(method, context, cookieJar);
+
+            String document = response.getDocument();
+
+            if (filterConfig.hasFilters(scope)) {
+                try {
+                    for (AppFilter filter : filters) {
+                        document = filter.getHandler().apply(document, scope);
                     }
+                    return response.withNewDocument(document);
+
+                } catch (Exception e) {
+                    log.error("Error applying filter fields (uri=" + uri + "): " + e, e);
                 }
             }
         }
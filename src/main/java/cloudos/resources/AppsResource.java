@@ -10,6 +10,7 @@ import cloudos.model.app.CloudOsApp;
 import cloudos.model.support.AppDownloadRequest;
 import cloudos.model.support.AppUninstallRequest;
 import cloudos.server.CloudOsConfiguration;
+import cloudos.service.SystemFactsService;
 import org.cobbzilla.wizard.task.TaskId;
 import com.qmino.miredot.annotations.ReturnType;
 import lombok.extern.slf4j.Slf4j;
@@ -34,6 +35,7 @@ import static org.cobbzilla.wizard.resources.ResourceUtil.serverError;
 public class AppsResource {
 
     @Autowired private CloudOsConfiguration configuration;
+    @Autowired private SystemFactsService systemFacts;
     @Autowired private SessionDAO sessionDAO;
     @Autowired private AppDAO appDAO;
 
@@ -89,17 +91,39 @@ public class AppsResource {
         return ok(state);
     }
 
+    /**
+     * Report how far each active app's runtime has got: loaded or not (runtime), and whether its assets are in place
+     * (assets). An app can be used once its runtime is ready. Must be admin
+     * @param apiKey The session ID
+     * @return a List of AppRuntimeStatus, one per active app
+     * @statuscode 403 if caller is not an admin
+     */
+    @GET
+    @Path("/status")
+    @ReturnType("java.util.List<cloudos.model.app.AppRuntimeStatus>")
+    public Response getRuntimeStatus (@HeaderParam(H_API_KEY) String apiKey) {
+
+        final Account admin = sessionDAO.find(apiKey);
+        if (admin == null) return ResourceUtil.notFound(apiKey);
+        if (!admin.isAdmin()) return ResourceUtil.forbidden();
+
+        return ok(appDAO.getRuntimeStatus());
+    }
+
     /**
      * Refresh the list of apps. Must be admin or supply proper key
      * @param apiKey The session ID
      * @param refreshKey The key to refresh the apps
+     * @param app If set, refresh only this app: its runtime is rebuilt from what is on disk now, picking up a new
+     *            plugin jar if one was put in place, while other apps keep running undisturbed
      * @statuscode 403 if caller is not an admin or key is wrong
      */
     @GET
     @Path(ApiConstants.EP_REFRESH)
     @ReturnType("java.lang.Void")
     public Response refresh (@HeaderParam(H_API_KEY) String apiKey,
-                             @QueryParam("refreshKey") String refreshKey) {
+                             @QueryParam("refreshKey") String refreshKey,
+                             @QueryParam("app") String app) {
 
         if (!empty(refreshKey)) {
             if (!refreshKey.equals(configuration.getAppRefreshKey())) return ResourceUtil.forbidden();
@@ -112,7 +136,12 @@ public class AppsResource {
             if (!admin.isAdmin()) return ResourceUtil.forbidden();
         }
 
-        appDAO.resetApps();
+        if (!empty(app)) {
+            appDAO.reloadApp(app);
+        } else {
+            appDAO.refreshCatalog();
+            appDAO.resetApps();
+        }
         return ok();
     }
 
@@ -160,7 +189,7 @@ public class AppsResource {
         // only admins can view app configs
         if (!admin.isAdmin()) return ResourceUtil.forbidden();
 
-        final String locale = configuration.getLocale(admin);
+        final String locale = systemFacts.getLocale(admin);
         final AppConfiguration config = appDAO.getConfiguration(app, version, locale);
         if (config == null) return ResourceUtil.notFound(app+"/"+version);
 
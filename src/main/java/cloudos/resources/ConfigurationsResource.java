@@ -1,30 +1,26 @@
 package cloudos.resources;
 
-import cloudos.appstore.model.app.AppConfigDef;
-import cloudos.appstore.model.app.AppManifest;
-import cloudos.dao.AppDAO;
 import cloudos.dao.SessionDAO;
 import cloudos.dao.SslCertificateDAO;
 import cloudos.model.Account;
-import cloudos.model.app.CloudOsApp;
 import cloudos.model.support.SslCertificateRequest;
 import cloudos.model.support.UnlockRequest;
+import cloudos.model.support.VendorSettingUpdateResult;
 import cloudos.server.CloudOsConfiguration;
 import cloudos.service.RootyService;
+import cloudos.service.SystemFactsService;
+import cloudos.service.VendorSettingsService;
 import com.qmino.miredot.annotations.ReturnType;
 import edu.emory.mathcs.backport.java.util.Arrays;
 import lombok.extern.slf4j.Slf4j;
 import org.cobbzilla.util.http.HttpStatusCodes;
-import org.cobbzilla.util.json.JsonUtil;
 import org.cobbzilla.wizard.resources.ResourceUtil;
+import org.cobbzilla.wizard.validation.SimpleViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import rooty.RootyMessage;
-import rooty.toots.service.ServiceKeyRequest;
 import rooty.toots.vendor.VendorSettingDisplayValue;
 import rooty.toots.vendor.VendorSettingHandler;
-import rooty.toots.vendor.VendorSettingUpdateRequest;
-import rooty.toots.vendor.VendorSettingsListRequest;
 
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
@@ -35,7 +31,6 @@ import java.util.concurrent.TimeUnit;
 import static cloudos.resources.ApiConstants.H_API_KEY;
 import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
 import static org.cobbzilla.wizard.resources.ResourceUtil.*;
-import static rooty.toots.service.ServiceKeyRequest.Operation.ALLOW_SSH;
 
 @Consumes(MediaType.APPLICATION_JSON)
 @Produces(MediaType.APPLICATION_JSON)
@@ -47,10 +42,11 @@ public class ConfigurationsResource {
     public static final long ROOTY_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
 
     @Autowired private CloudOsConfiguration configuration;
-    @Autowired private AppDAO appDAO;
     @Autowired private SessionDAO sessionDAO;
     @Autowired private SslCertificateDAO certificateDAO;
     @Autowired private RootyService rooty;
+    @Autowired private VendorSettingsService vendorSettings;
+    @Autowired private SystemFactsService systemFacts;
 
     /**
      * Get all configuration groups. Must be admin
@@ -68,7 +64,7 @@ public class ConfigurationsResource {
 
         final Set<String> configs = new HashSet<>();
         try {
-            configs.addAll(Arrays.asList(getAllConfigurations()));
+            configs.addAll(Arrays.asList(vendorSettings.getConfigurations()));
             configs.add(SYSTEM_APP);
             return ok(configs);
 
@@ -78,11 +74,6 @@ public class ConfigurationsResource {
         }
     }
 
-    private String[] getAllConfigurations() throws Exception {
-        final RootyMessage request = rooty.request(new VendorSettingsListRequest(), ROOTY_TIMEOUT);
-        return JsonUtil.fromJson(request.getResults(), String[].class);
-    }
-
     /**
      * Get all configuration options for a configuration group. Must be admin
      * @param apiKey The session ID
@@ -105,7 +96,7 @@ public class ConfigurationsResource {
         }
 
         try {
-            return ok(getConfiguration(app));
+            return ok(vendorSettings.getSettings(app));
         } catch (Exception e) {
             log.error("Error getting options for app "+app+": "+e, e);
             return serverError();
@@ -114,39 +105,11 @@ public class ConfigurationsResource {
 
     private VendorSettingDisplayValue[] getSystemOptions() {
         return new VendorSettingDisplayValue[] {
-                new VendorSettingDisplayValue("mxrecord", "mx."+configuration.getHostname(), true),
-                new VendorSettingDisplayValue("allowssh", getAllowSsh().toString(), true)
+                new VendorSettingDisplayValue("mxrecord", "mx."+systemFacts.getFacts().getHostname(), true),
+                new VendorSettingDisplayValue("allowssh", String.valueOf(systemFacts.isAllowSsh()), true)
         };
     }
 
-    private Boolean getAllowSsh() {
-        return Boolean.valueOf(rooty.request(new ServiceKeyRequest(ALLOW_SSH), ROOTY_TIMEOUT).getResults());
-    }
-
-    private VendorSettingDisplayValue[] getConfiguration(String app) throws Exception {
-        final CloudOsApp installedApp = appDAO.findInstalledByName(app);
-        List<String> fields = null;
-        if (installedApp != null) {
-            final AppManifest appManifest = installedApp.getManifest();
-            fields = toFieldList(appManifest);
-        }
-        final RootyMessage request = rooty.request(new VendorSettingsListRequest().setCookbook(app).setFields(fields), ROOTY_TIMEOUT);
-        return JsonUtil.fromJson(request.getResults(), VendorSettingDisplayValue[].class);
-    }
-
-    private List<String> toFieldList(AppManifest appManifest) {
-        final List<String> fields = new ArrayList<>();
-        final AppConfigDef[] databags = appManifest.getConfig();
-        if (databags != null && databags.length > 0) {
-            for (AppConfigDef def : databags) {
-                for (String item : def.getItems()) {
-                    fields.add(def.getName() + "/" + item);
-                }
-            }
-        }
-        return fields;
-    }
-
     /**
      * Get the value for a single configuration option
      * @param apiKey The session ID
@@ -174,7 +137,7 @@ public class ConfigurationsResource {
             value = getOption(option, getSystemOptions());
         } else {
             try {
-                value = getOption(category+"/"+option, getConfiguration(app));
+                value = vendorSettings.getSetting(app, category+"/"+option);
             } catch (Exception e) {
                 log.error("Error reading config: " + e, e);
                 return serverError();
@@ -224,8 +187,49 @@ public class ConfigurationsResource {
         }
     }
 
+    /**
+     * Set several configuration options in one configuration group. Either all of the options are written, or none of them:
+     * options are written together, and if any cannot be written, the options that were written are set back to their
+     * previous values. An option that still has its vendor default value cannot be set back to it, so a request that
+     * includes one is rejected before anything is written.
+     * @param apiKey The session ID
+     * @param app Name of the configuration group (usually the name of the CloudOs app)
+     * @param values a map of option path (category/option) to the value to set
+     * @return one result per option, saying whether it was updated, and if not, whether it was rolled back
+     * @statuscode 403 if caller is not admin
+     * @statuscode 422 if any value is invalid, or any option still has its vendor default value
+     * @statuscode 500 if an error occurred writing the options
+     */
+    @POST
+    @Path("/{app}")
+    @ReturnType("java.util.List<cloudos.model.support.VendorSettingUpdateResult>")
+    public Response setConfigurationOptions (@HeaderParam(H_API_KEY) String apiKey,
+                                             @PathParam("app") String app,
+                                             Map<String, String> values) {
+
+        final Account admin = sessionDAO.find(apiKey);
+        if (admin == null) return notFound(apiKey);
+        if (!admin.isAdmin()) return forbidden();
+
+        if (values == null || values.isEmpty()) return ResourceUtil.invalid("{err.setConfig.empty}");
+        for (String value : values.values()) {
+            if (value == null || value.equals(VendorSettingHandler.VENDOR_DEFAULT)) return ResourceUtil.invalid("{err.setConfig.invalidValue}");
+        }
+
+        try {
+            return ok(vendorSettings.updateAll(app, values));
+
+        } catch (SimpleViolationException e) {
+            throw e;
+
+        } catch (Exception e) {
+            log.error("Error handling setConfigs ("+ app +"): "+e, e);
+            return serverError();
+        }
+    }
+
     public RootyMessage updateConfig(String app, String option, String value) {
-        return rooty.request(new VendorSettingUpdateRequest(option, value).setCookbook(app), ROOTY_TIMEOUT);
+        return vendorSettings.update(app, option, value);
     }
 
     /**
@@ -245,24 +249,23 @@ public class ConfigurationsResource {
 
         final SslCertificateRequest cert = unlockRequest.getCert();
         final Response certResponse = SslCertificatesResource.addOrOverwriteCert(certificateDAO, rooty, cert.getName(), cert);
+        systemFacts.allowSshChanged();
         if (certResponse.getStatus() != HttpStatusCodes.OK) return certResponse;
 
-        for (Map.Entry<String, String> setting : unlockRequest.getSettings().entrySet()) {
-            final String name = setting.getKey();
-            try {
-                final RootyMessage response = updateConfig("cloudos", name, setting.getValue());
-                if (!response.getBooleanResult()) {
-                    log.warn("unlockCloudstead: updateConfig returned false");
+        try {
+            // a locked cloudstead's settings are at their vendor defaults, so these cannot be rolled back anyway
+            for (VendorSettingUpdateResult result : vendorSettings.writeAll("cloudos", unlockRequest.getSettings())) {
+                if (!result.isUpdated()) {
+                    log.warn("unlockCloudstead: "+result.getPath()+" was not updated: "+result.getError());
                     return ResourceUtil.invalid("{err.unlock.stillLocked}");
                 }
-
-            } catch (Exception e) {
-                log.error("Error handling setConfig ("+name+"): "+e, e);
-                return serverError();
             }
+        } catch (Exception e) {
+            log.error("Error handling setConfig (unlock): "+e, e);
+            return serverError();
         }
 
-        return getAllowSsh() ? ok() : ResourceUtil.invalid("{err.unlock.stillLocked}");
+        return systemFacts.checkAllowSsh() ? ok() : ResourceUtil.invalid("{err.unlock.stillLocked}");
     }
 
 }
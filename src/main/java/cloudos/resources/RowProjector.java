@@ -0,0 +1,117 @@
+package cloudos.resources;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.util.reflect.ReflectionUtil;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Turns objects into rows of strings for a fixed list of fields. Field names may be dotted paths
+ * (info.description), and may start with DATE_PREFIX to format an epoch-millis value as a date.
+ *
+ * Field names are parsed once, and the getter for each path segment is looked up once per class and
+ * kept as a MethodHandle. Properties without a public getter fall back to ReflectionUtil.get.
+ */
+@Slf4j
+public class RowProjector {
+
+    public static final String DATE_PREFIX = "DATETIME:";
+    public static final DateTimeFormatter DATE_FORMAT = DateTimeFormat.forPattern("YYYY-MM-dd HH:mm:ss");
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodHandle NO_GETTER = MethodHandles.constant(Object.class, null);
+
+    @Getter private final String[] fields;
+    private final FieldAccessor[] accessors;
+
+    public RowProjector(String[] fields) {
+        this.fields = fields;
+        this.accessors = new FieldAccessor[fields.length];
+        for (int i=0; i<fields.length; i++) accessors[i] = new FieldAccessor(fields[i]);
+    }
+
+    public String[] project(Object thing) {
+        final String[] row = new String[accessors.length];
+        for (int i=0; i<row.length; i++) row[i] = accessors[i].format(thing);
+        return row;
+    }
+
+    public static class FieldAccessor {
+
+        @Getter private final String path;
+        @Getter private final boolean date;
+        private final String[] segments;
+
+        // for each path segment: class -> getter handle, or NO_GETTER if the class has no public getter for it
+        private final ConcurrentMap<Class<?>, MethodHandle>[] getters;
+
+        @SuppressWarnings("unchecked")
+        public FieldAccessor(String field) {
+            date = field.startsWith(DATE_PREFIX);
+            path = date ? field.substring(DATE_PREFIX.length()) : field;
+            segments = path.split("\\.");
+            getters = new ConcurrentMap[segments.length];
+            for (int i=0; i<segments.length; i++) getters[i] = new ConcurrentHashMap<>();
+        }
+
+        public String format(Object thing) {
+            final Object rawValue;
+            try {
+                rawValue = get(thing);
+            } catch (Throwable e) {
+                log.warn("Error getting field "+path+": "+e);
+                return null;
+            }
+            if (rawValue == null) return null;
+            return date ? DATE_FORMAT.print(((Number) rawValue).longValue()) : rawValue.toString();
+        }
+
+        public Object get(Object thing) throws Throwable {
+            Object current = thing;
+            for (int i=0; i<segments.length; i++) {
+                if (current == null) return null;
+                final MethodHandle getter = getter(i, current.getClass());
+                if (getter == NO_GETTER) return ReflectionUtil.get(thing, path);
+                current = (Object) getter.invokeExact(current);
+            }
+            return current;
+        }
+
+        private MethodHandle getter(int segment, Class<?> clazz) {
+            MethodHandle getter = getters[segment].get(clazz);
+            if (getter == null) {
+                getter = findGetter(clazz, segments[segment]);
+                getters[segment].putIfAbsent(clazz, getter);
+            }
+            return getter;
+        }
+
+        private static MethodHandle findGetter(Class<?> clazz, String property) {
+            final String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+            for (String prefix : new String[] {"get", "is"}) {
+                try {
+                    final Method m = clazz.getMethod(prefix + suffix);
+                    if (Modifier.isStatic(m.getModifiers())) continue;
+                    if (prefix.equals("is") && m.getReturnType() != boolean.class && m.getReturnType() != Boolean.class) continue;
+                    m.setAccessible(true); // public method, possibly on a non-public class
+                    return MethodHandles.lookup().unreflect(m).asType(GETTER_TYPE);
+                } catch (NoSuchMethodException ignored) {
+                    // try next prefix
+                } catch (Exception e) {
+                    log.warn("findGetter: "+clazz.getName()+"."+prefix+suffix+": "+e);
+                }
+            }
+            return NO_GETTER;
+        }
+    }
+
+}
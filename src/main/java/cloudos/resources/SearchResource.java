@@ -7,18 +7,22 @@ import cloudos.dao.SessionDAO;
 import cloudos.model.Account;
 import cloudos.model.AccountGroup;
 import cloudos.model.support.AccountGroupView;
+import cloudos.service.CloudOsLdapService;
+import cloudos.service.ldap.NativeLdapBackend;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
 import com.qmino.miredot.annotations.ReturnType;
 import lombok.extern.slf4j.Slf4j;
-import org.cobbzilla.util.reflect.ReflectionUtil;
 import org.cobbzilla.wizard.dao.SearchResults;
 import org.cobbzilla.wizard.ldap.LdapService;
 import org.cobbzilla.wizard.model.ResultPage;
 import org.cobbzilla.wizard.resources.ResourceUtil;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import javax.naming.directory.SearchResult;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -26,6 +30,8 @@ import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static cloudos.resources.AccountGroupsResource.buildAccountGroupView;
 import static cloudos.resources.DefaultSearchScrubber.DEFAULT_SEARCH_SCRUBBER;
@@ -37,7 +43,7 @@ import static org.cobbzilla.wizard.resources.ResourceUtil.ok;
 @Service @Slf4j
 public class SearchResource {
 
-    public static final String DATE_PREFIX = "DATETIME:";
+    public static final String DATE_PREFIX = RowProjector.DATE_PREFIX;
 
     private static final String[] ACCOUNT_FIELDS
             = {"name", "firstName", "lastName", "admin", "suspended", "storageQuota",
@@ -47,11 +53,51 @@ public class SearchResource {
     private static final String[] GROUP_FIELDS
             = {"name", "info.description", "info.storageQuota", "memberCount", DATE_PREFIX+"ctime" };
 
-    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormat.forPattern("YYYY-MM-dd HH:mm:ss");
+    // rows are flushed to the client this many at a time (and, with the native backend, fetched from LDAP)
+    public static final int EXPORT_PAGE_SIZE = 500;
+
+    private static final RowProjector ACCOUNT_PROJECTOR = new RowProjector(ACCOUNT_FIELDS);
+    private static final RowProjector GROUP_PROJECTOR = new RowProjector(GROUP_FIELDS);
+
+    // an admin's complete search results are kept this long, so paging through them doesn't re-run the search.
+    // a snapshot is re-taken when this node has written an account or group since, but writes made through another
+    // API node, or outside cloudos, are only seen once the snapshot expires, so keep the TTL short
+    public static final long SNAPSHOT_TTL = TimeUnit.MINUTES.toMillis(1);
+
+    // snapshots are bounded by the rows they hold, not by how many there are: one snapshot of a large directory can
+    // outweigh hundreds of small ones. a search with more rows than the limit is not kept: it is answered page by
+    // page without a cursor, and further searches with the same query skip the snapshot until SNAPSHOT_TTL
+    public static final long SNAPSHOT_MAX_ROWS = 100000;
+    public static final int OVERSIZED_QUERIES_MAX_SIZE = 1000;
+
+    private final Cache<String, SearchSnapshot> snapshotsByQuery = snapshotCache();
+    private final Cache<String, SearchSnapshot> snapshotsById = snapshotCache();
+    private final Cache<String, Boolean> oversizedQueries = CacheBuilder.newBuilder()
+            .expireAfterWrite(SNAPSHOT_TTL, TimeUnit.MILLISECONDS)
+            .maximumSize(OVERSIZED_QUERIES_MAX_SIZE)
+            .build();
+
+    // concurrencyLevel 1: with more segments, each gets an equal share of the weight, and a snapshot bigger
+    // than its segment's share would be evicted as soon as it was put
+    private static Cache<String, SearchSnapshot> snapshotCache() {
+        return CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .expireAfterWrite(SNAPSHOT_TTL, TimeUnit.MILLISECONDS)
+                .maximumWeight(SNAPSHOT_MAX_ROWS)
+                .weigher(new Weigher<String, SearchSnapshot>() {
+                    @Override public int weigh(String key, SearchSnapshot snapshot) { return snapshot.size() + 1; }
+                })
+                .recordStats()
+                .build();
+    }
+
+    public CacheStats getSnapshotCacheStats() { return snapshotsByQuery.stats(); }
+    public long getSnapshotCacheSize() { return snapshotsByQuery.size(); }
 
     @Autowired private SessionDAO sessionDAO;
     @Autowired private AccountDAO accountDAO;
     @Autowired private AccountGroupDAO groupDAO;
+    @Autowired private CloudOsLdapService ldapService;
 
     public enum Type {accounts, groups}
 
@@ -76,9 +122,6 @@ public class SearchResource {
         if (account == null) return ResourceUtil.notFound(apiKey);
         if (!account.isAdmin()) return ResourceUtil.forbidden();
 
-        page.setPageNumber(1);
-        page.setPageSize(Integer.MAX_VALUE);
-
         final StreamingOutput output = new CsvOutput(type, page, account);
         return Response.ok(output)
                 .header("Content-Description", "File Transfer")
@@ -86,32 +129,132 @@ public class SearchResource {
                 .build();
     }
 
-    private String[] csvFields(String type) {
+    private RowProjector csvProjector(String type) {
         switch (Type.valueOf(type)) {
-            case accounts: return ACCOUNT_FIELDS;
-            case groups: return GROUP_FIELDS;
+            case accounts: return ACCOUNT_PROJECTOR;
+            case groups: return GROUP_PROJECTOR;
             default: throw new IllegalArgumentException("no csv fields defined for "+type);
         }
     }
 
     /**
      * Search CloudOs objects. If not admin, results will be scrubbed of any sensitive data.
+     * For admins, the full result list is kept for a short time, so later pages of the same search are served
+     * without querying LDAP again. When more results remain, the response carries an x-cloudos-search-cursor
+     * header; pass its value back as the 'cursor' query parameter to get the page that follows. Searches with more
+     * than SNAPSHOT_MAX_ROWS results are not kept and have no cursor: page through them with the page's pageNumber.
      * @param apiKey The session ID
      * @param type The type of report, either 'accounts' or 'groups'
+     * @param cursor (optional) a cursor returned by a previous search. The search in the request body (if any) is ignored, except for its pageSize
      * @param page The page of results to return
      * @return a SearchResults object containing the results
+     * @statuscode 404 if the cursor has expired or does not belong to the caller
      */
     @POST
     @Path("/{type}")
     @ReturnType("org.cobbzilla.wizard.dao.SearchResults")
     public Response search(@HeaderParam(ApiConstants.H_API_KEY) String apiKey,
                            @PathParam("type") String type,
+                           @QueryParam("cursor") String cursor,
                            ResultPage page) {
 
         final Account account = sessionDAO.find(apiKey);
         if (account == null) return ResourceUtil.notFound(apiKey);
 
-        return ok(search(type, page, account));
+        if (!account.isAdmin()) return ok(search(type, page, account));
+
+        SearchSnapshot snapshot;
+        final int offset;
+        if (cursor != null) {
+            snapshot = snapshotsById.getIfPresent(SearchSnapshot.cursorId(cursor));
+            offset = SearchSnapshot.cursorOffset(cursor);
+            if (snapshot == null || offset < 0 || !snapshot.getOwner().equalsIgnoreCase(account.getName())) {
+                return ResourceUtil.notFound(cursor);
+            }
+            if (isStale(snapshot)) snapshot = takeSnapshot(snapshot.getType(), snapshot.getQuery(), account);
+        } else {
+            final String queryKey = SearchSnapshot.queryKey(account.getName(), type, page);
+            if (oversizedQueries.getIfPresent(queryKey) != null) return ok(search(type, page, account));
+            snapshot = snapshotsByQuery.getIfPresent(queryKey);
+            if (snapshot == null || isStale(snapshot)) snapshot = takeSnapshot(type, page, account);
+            offset = Math.max(page.getPageOffset(), 0);
+        }
+
+        // a snapshot that was too big to keep still answers this request, but a cursor to it would 404
+        final int pageSize = (page == null ? snapshot.getQuery() : page).getPageSize();
+        final Response.ResponseBuilder response = Response.ok(snapshot.page(offset, pageSize));
+        if (isKept(snapshot) && snapshot.hasMore(offset, pageSize)) {
+            response.header(ApiConstants.H_SEARCH_CURSOR, snapshot.cursor(offset + pageSize));
+        }
+        return response.build();
+    }
+
+    private boolean isKept(SearchSnapshot snapshot) { return snapshotsById.getIfPresent(snapshot.getId()) == snapshot; }
+
+    private long writeGeneration() { return accountDAO.getWriteGeneration() + groupDAO.getWriteGeneration(); }
+
+    private boolean isStale(SearchSnapshot snapshot) { return snapshot.getGeneration() != writeGeneration(); }
+
+    private SearchSnapshot takeSnapshot(String type, ResultPage page, Account admin) {
+        final long generation = writeGeneration();
+        final String queryKey = SearchSnapshot.queryKey(admin.getName(), type, page); // before search() adds the base bound
+        final int pageNumber = page.getPageNumber();
+        final int pageSize = page.getPageSize();
+        final SearchResults results;
+        try {
+            page.setPageNumber(1);
+            page.setPageSize(Integer.MAX_VALUE);
+            results = search(type, page, admin);
+        } finally {
+            page.setPageNumber(pageNumber);
+            page.setPageSize(pageSize);
+        }
+
+        final SearchSnapshot snapshot = new SearchSnapshot(admin.getName(), type, page, queryKey, generation, results.getResults());
+        if (snapshot.size() >= SNAPSHOT_MAX_ROWS) {
+            log.info("takeSnapshot: "+snapshot.size()+" rows, too many to keep: "+queryKey);
+            oversizedQueries.put(queryKey, true);
+            snapshotsByQuery.invalidate(queryKey);
+            return snapshot;
+        }
+        snapshotsByQuery.put(snapshot.getQueryKey(), snapshot);
+        snapshotsById.put(snapshot.getId(), snapshot);
+        return snapshot;
+    }
+
+    public static final int TYPEAHEAD_DEFAULT_LIMIT = 10;
+    public static final int TYPEAHEAD_MAX_LIMIT = 100;
+
+    /**
+     * Type-ahead lookup of accounts or groups, served from an in-memory index without querying LDAP.
+     * Accounts match when any word of their name, first name or last name starts with the prefix (for admins, email
+     * too); groups match on their name. Accounts are returned as their name, display name and (for admins) email.
+     * @param apiKey The session ID
+     * @param type The type of object to find, either 'accounts' or 'groups'
+     * @param prefix The text typed so far (case-insensitive)
+     * @param limit (optional) The maximum number of results, default 10, at most 100
+     * @return a List of matching AccountTypeaheadEntries or AccountGroups
+     */
+    @GET
+    @Path("/{type}/typeahead")
+    @Consumes("*/*")
+    @ReturnType("java.util.List<java.lang.Object>")
+    public Response typeahead(@HeaderParam(ApiConstants.H_API_KEY) String apiKey,
+                              @PathParam("type") String type,
+                              @QueryParam("q") String prefix,
+                              @QueryParam("limit") Integer limit) {
+
+        final Account account = sessionDAO.find(apiKey);
+        if (account == null) return ResourceUtil.notFound(apiKey);
+
+        final int max = (limit == null || limit <= 0) ? TYPEAHEAD_DEFAULT_LIMIT : Math.min(limit, TYPEAHEAD_MAX_LIMIT);
+        final List found;
+        switch (Type.valueOf(type)) {
+            case accounts: found = accountDAO.getTypeaheadIndex().find(prefix, max, account.isAdmin()); break;
+            case groups: found = groupDAO.getTypeaheadIndex().find(prefix, max, account.isAdmin()); break;
+            default: throw new IllegalArgumentException("cannot search " + type);
+        }
+        return ok(found);
     }
 
     public SearchResults search(String type, ResultPage page, Account account) {
@@ -157,33 +300,54 @@ public class SearchResource {
         public void write(OutputStream output) throws IOException, WebApplicationException {
 
             final CSVWriter writer = new CSVWriter(new OutputStreamWriter(output));
-            final SearchResults results = search(type, page, account);
-
-            final String[] fields = csvFields(type);
-            writer.writeNext(fields); // header row
-
-            for (Object result : results.getResults()) {
-                final String[] line = new String[fields.length];
-                for (int i=0; i<line.length; i++) {
-
-                    String field = fields[i];
-                    final boolean isDate = field.startsWith(DATE_PREFIX);
-                    if (isDate) field = field.substring(DATE_PREFIX.length());
-
-                    final Object rawValue;
-                    try {
-                        rawValue = ReflectionUtil.get(result, field);
-                    } catch (Exception e) {
-                        log.warn("Error getting field "+field+": "+e);
-                        line[i] = null;
-                        continue;
+            final RowProjector projector = csvProjector(type);
+            writer.writeNext(projector.getFields()); // header row
+            writer.flush();
+
+            if (ldapService.isNative()) {
+                writeStreaming(writer, projector);
+            } else {
+                writeAll(writer, projector);
+            }
+            writer.close();
+        }
+
+        // one paged search for the DNs, then the entries are read EXPORT_PAGE_SIZE at a time. A pooled connection
+        // is only held while reading from the directory, never while writing to a (possibly slow) client.
+        // Entries deleted between the two reads are skipped
+        private void writeStreaming(final CSVWriter writer, final RowProjector projector) throws IOException {
+            final Type searchType = Type.valueOf(type);
+            final String base = page.hasBound(LdapService.BOUND_BASE)
+                    ? page.getBounds().get(LdapService.BOUND_BASE)
+                    : (searchType == Type.accounts ? accountDAO.parentDN() : groupDAO.parentDN());
+            final List<String> dns = ldapService.nativeSearchDNs(base, page, EXPORT_PAGE_SIZE);
+            for (int i = 0; i < dns.size(); i += EXPORT_PAGE_SIZE) {
+                final List<SearchResult> entries = ldapService.getNativeBackend().findAll(base, dns.subList(i, Math.min(i + EXPORT_PAGE_SIZE, dns.size())));
+                for (SearchResult result : entries) {
+                    final Object row;
+                    if (searchType == Type.accounts) {
+                        row = NativeLdapBackend.toEntity(result.getAttributes(), new Account(accountDAO.config()));
+                    } else {
+                        final AccountGroup group = NativeLdapBackend.toEntity(result.getAttributes(), new AccountGroup(groupDAO.config()));
+                        row = buildAccountGroupView(groupDAO, group, null);
                     }
-                    line[i] = (rawValue == null) ? null : (isDate ? DATE_FORMAT.print(((Number) rawValue).longValue()) : rawValue.toString());
+                    writer.writeNext(projector.project(row));
                 }
-                writer.writeNext(line);
+                writer.flush();
             }
+        }
 
-            writer.close();
+        // the command-line backend can't page: asking for page N runs the whole ldapsearch again and slices it,
+        // so search once and write the rows out, flushing every EXPORT_PAGE_SIZE rows
+        private void writeAll(CSVWriter writer, RowProjector projector) throws IOException {
+            page.setPageNumber(1);
+            page.setPageSize(Integer.MAX_VALUE);
+            int count = 0;
+            for (Object result : search(type, page, account).getResults()) {
+                writer.writeNext(projector.project(result));
+                if (++count % EXPORT_PAGE_SIZE == 0) writer.flush();
+            }
+            writer.flush();
         }
     }
 }
\ No newline at end of file
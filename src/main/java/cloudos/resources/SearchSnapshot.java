@@ -0,0 +1,89 @@
+package cloudos.resources;
+
+import cloudos.model.Account;
+import lombok.Getter;
+import org.cobbzilla.wizard.dao.SearchResults;
+import org.cobbzilla.wizard.model.ResultPage;
+
+import java.util.*;
+
+import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
+
+/**
+ * The complete, sorted result list of one admin's search, held briefly so that paging through it does not
+ * re-run the LDAP search. Pages are sliced out of the list; a cursor names a snapshot and the position just
+ * after the last row returned, so "next page" is a constant-time continuation rather than a fresh query.
+ */
+public class SearchSnapshot {
+
+    public static final String CURSOR_SEPARATOR = ".";
+
+    @Getter private final String id = randomAlphanumeric(20);
+    @Getter private final String owner;
+    @Getter private final String queryKey;
+    @Getter private final String type;
+    @Getter private final ResultPage query;
+    @Getter private final long generation;
+    private final List results;
+
+    public SearchSnapshot(String owner, String type, ResultPage query, String queryKey, long generation, List results) {
+        this.owner = owner;
+        this.type = type;
+        this.query = query;
+        this.queryKey = queryKey;
+        this.generation = generation;
+        this.results = Collections.unmodifiableList(new ArrayList(results));
+    }
+
+    public int size() { return results.size(); }
+
+    /**
+     * @param owner the admin's account name
+     * @param type the type of object searched
+     * @param page the search; paging fields are ignored
+     * @return a key that is the same for any two pages of the same search by the same admin
+     */
+    public static String queryKey(String owner, String type, ResultPage page) {
+        final Map<String, String> bounds = page.getBounds() == null
+                ? Collections.<String, String>emptyMap()
+                : new TreeMap<>(page.getBounds());
+        return owner.toLowerCase() + "|" + type + "|" + page.getFilter() + "|" + bounds
+                + "|" + page.getSortField() + "|" + page.getSortType();
+    }
+
+    public String cursor(int offset) { return id + CURSOR_SEPARATOR + offset; }
+
+    public static String cursorId(String cursor) {
+        final int pos = cursor.lastIndexOf(CURSOR_SEPARATOR);
+        return pos == -1 ? cursor : cursor.substring(0, pos);
+    }
+
+    public static int cursorOffset(String cursor) {
+        final int pos = cursor.lastIndexOf(CURSOR_SEPARATOR);
+        if (pos == -1) return -1;
+        try {
+            return Integer.parseInt(cursor.substring(pos + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param offset index of the first row to return
+     * @param pageSize maximum number of rows to return
+     * @return a page of results. Accounts are copied, because the response scrubber modifies them in place.
+     */
+    public SearchResults page(int offset, int pageSize) {
+        final SearchResults page = new SearchResults();
+        page.setTotalCount(results.size());
+        final int end = (int) Math.min((long) offset + pageSize, results.size());
+        for (int i=Math.max(offset, 0); i<end; i++) {
+            final Object result = results.get(i);
+            page.addResult(result instanceof Account ? new Account((Account) result) : result);
+        }
+        return page;
+    }
+
+    public boolean hasMore(int offset, int pageSize) { return (long) offset + pageSize < results.size(); }
+
+}
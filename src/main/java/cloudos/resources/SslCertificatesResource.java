@@ -6,6 +6,7 @@ import cloudos.model.Account;
 import cloudos.model.SslCertificate;
 import cloudos.model.support.SslCertificateRequest;
 import cloudos.service.RootyService;
+import cloudos.service.SystemFactsService;
 import com.qmino.miredot.annotations.ReturnType;
 import lombok.extern.slf4j.Slf4j;
 import org.cobbzilla.wizard.resources.ResourceUtil;
@@ -36,6 +37,7 @@ public class SslCertificatesResource {
     @Autowired private SslCertificateDAO certificateDAO;
     @Autowired private SessionDAO sessionDAO;
     @Autowired private RootyService rooty;
+    @Autowired private SystemFactsService systemFacts;
 
     /**
      * Find all SSL certificates. Must be admin
@@ -99,7 +101,12 @@ public class SslCertificatesResource {
 
         if (!name.equals(request.getName())) return ResourceUtil.invalid();
 
-        return addOrOverwriteCert(certificateDAO, rooty, name, request);
+        try {
+            return addOrOverwriteCert(certificateDAO, rooty, name, request);
+        } finally {
+            // rooty only allows ssh once the default certificate has been replaced (see unlock)
+            systemFacts.allowSshChanged();
+        }
     }
 
     public static Response addOrOverwriteCert(SslCertificateDAO certificateDAO, RootyService rooty,
@@ -163,6 +170,7 @@ public class SslCertificatesResource {
         rooty.getSender().write(new RemoveSslCertMessage(name));
 
         certificateDAO.delete(found.getUuid());
+        systemFacts.allowSshChanged(); // see addOrOverwriteCert
         return ok();
     }
 }
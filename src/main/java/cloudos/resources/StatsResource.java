@@ -0,0 +1,92 @@
+package cloudos.resources;
+
+import cloudos.dao.AccountDAO;
+import cloudos.dao.AccountGroupDAO;
+import cloudos.dao.AppDAO;
+import cloudos.dao.GroupMembershipGraph;
+import cloudos.dao.SessionDAO;
+import cloudos.model.Account;
+import cloudos.service.CloudOsLdapService;
+import cloudos.service.RootyService;
+import cloudos.service.VendorSettingsService;
+import cloudos.service.app.AppProxyRoutes;
+import com.google.common.cache.CacheStats;
+import com.qmino.miredot.annotations.ReturnType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static cloudos.resources.ApiConstants.H_API_KEY;
+import static org.cobbzilla.wizard.resources.ResourceUtil.*;
+
+@Consumes(MediaType.APPLICATION_JSON)
+@Produces(MediaType.APPLICATION_JSON)
+@Path(ApiConstants.STATS_ENDPOINT)
+@Service @Slf4j
+public class StatsResource {
+
+    @Autowired private SessionDAO sessionDAO;
+    @Autowired private AccountDAO accountDAO;
+    @Autowired private AccountGroupDAO groupDAO;
+    @Autowired private AppDAO appDAO;
+    @Autowired private CloudOsLdapService ldapService;
+    @Autowired private SearchResource searchResource;
+    @Autowired private RootyService rooty;
+    @Autowired private VendorSettingsService vendorSettings;
+    @Autowired private AppProxyRoutes proxyRoutes;
+
+    /**
+     * Get runtime statistics for the in-process caches and pools. Must be admin
+     * @param apiKey The session ID
+     * @return a Map of statistic groups, each group is a Map of counter names to values
+     * @statuscode 403 if caller is not an admin
+     */
+    @GET
+    @ReturnType("java.util.Map<java.lang.String, java.util.Map<java.lang.String, java.lang.Object>>")
+    public Response getStats (@HeaderParam(H_API_KEY) String apiKey) {
+
+        final Account admin = sessionDAO.find(apiKey);
+        if (admin == null) return notFound(apiKey);
+        if (!admin.isAdmin()) return forbidden();
+
+        final Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        stats.put("sessionCache", cacheStats(sessionDAO.getSessionCacheStats(), sessionDAO.getSessionCacheSize()));
+        stats.put("accountCache", cacheStats(accountDAO.getAccountCacheStats(), accountDAO.getAccountCacheSize()));
+        stats.put("failedLoginCache", cacheStats(accountDAO.getFailedLoginStats(), accountDAO.getFailedLoginCacheSize()));
+        stats.put("searchSnapshots", cacheStats(searchResource.getSnapshotCacheStats(), searchResource.getSnapshotCacheSize()));
+        stats.put("vendorSettings", cacheStats(vendorSettings.getCacheStats(), vendorSettings.getCacheSize()));
+        stats.put("appProxyRoutes", cacheStats(proxyRoutes.getCacheStats(), proxyRoutes.getCacheSize()));
+
+        // only report the group graph if it is already built: building it reads every group
+        final GroupMembershipGraph graph = groupDAO.getBuiltGraph();
+        if (graph != null) stats.put("groupGraph", graph.getStats());
+
+        stats.put("appCatalog", appDAO.getCatalog().getStats());
+        stats.put("pluginLoaders", appDAO.getPluginLoaders().getStats());
+
+        if (ldapService.isNative()) stats.put("ldap", ldapService.getNativeBackend().getStats());
+        final Map<String, Object> rootyStats = rooty.getRequestTracker().getStats();
+        rootyStats.put("watchingStatus", rooty.isWatchingStatus());
+        if (rooty.isWatchingStatus()) rootyStats.put("statusUpdatesSeen", rooty.getStatusWatcher().getChangeCount());
+        stats.put("rootyRequests", rootyStats);
+        stats.put("rootySharedRequests", rooty.getSharedRequestStats());
+        return ok(stats);
+    }
+
+    public static Map<String, Object> cacheStats(CacheStats cacheStats, long size) {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", size);
+        stats.put("hits", cacheStats.hitCount());
+        stats.put("misses", cacheStats.missCount());
+        stats.put("hitRate", cacheStats.hitRate());
+        stats.put("evictions", cacheStats.evictionCount());
+        return stats;
+    }
+
+}
@@ -13,6 +13,7 @@ import rooty.RootyMessage;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.concurrent.TimeUnit;
 
 import static org.cobbzilla.wizard.resources.ResourceUtil.notFound;
 import static org.cobbzilla.wizard.resources.ResourceUtil.ok;
@@ -26,22 +27,30 @@ public class TasksResource {
     @Autowired private TaskService taskService;
     @Autowired private RootyService rootyService;
 
+    public static final long MAX_WAIT = TimeUnit.SECONDS.toMillis(30);
+
     /**
      * Retrieve history for a background task
      * @param uuid The background task to look up
+     * @param wait (optional) If the task is waiting on rooty, wait up to this many milliseconds (at most 30 seconds)
+     *             for rooty to update the task's status before responding. Only has an effect when the server is
+     *             watching for rooty status updates (rootyStatusDir is configured)
      * @return a TaskResult representing the history for the task
      */
     @GET
     @Path("/{uuid}")
     @ReturnType("cloudos.service.task.TaskResult")
-    public Response getHistory (@PathParam("uuid") String uuid) {
+    public Response getHistory (@PathParam("uuid") String uuid,
+                                @QueryParam("wait") Long wait) {
 
         final CloudOsTaskResult result = taskService.getResult(uuid);
 
         if (result == null) return notFound(uuid);
 
         if (result.hasRootyUuid()) {
-            final RootyMessage status = rootyService.getStatusManager().getStatus(result.getRootyUuid());
+            final RootyMessage status = wait == null
+                    ? rootyService.getStatusManager().getStatus(result.getRootyUuid())
+                    : rootyService.awaitStatus(result.getRootyUuid(), Math.min(wait, MAX_WAIT));
             if (status != null) result.setRootyStatus(status);
         }
 
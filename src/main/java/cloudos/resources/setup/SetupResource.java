@@ -11,6 +11,7 @@ import cloudos.resources.ApiConstants;
 import cloudos.server.CloudOsConfiguration;
 import cloudos.service.RestoreTask;
 import cloudos.service.RootyService;
+import cloudos.service.SystemFactsService;
 import org.cobbzilla.wizard.task.TaskId;
 import cloudos.service.task.TaskService;
 import com.qmino.miredot.annotations.ReturnType;
@@ -25,7 +26,6 @@ import javax.validation.Valid;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.util.ArrayList;
 import java.util.concurrent.TimeUnit;
 
 import static org.cobbzilla.wizard.resources.ResourceUtil.*;
@@ -45,6 +45,7 @@ public class SetupResource {
     @Autowired private AppDAO appDAO;
     @Autowired private TaskService taskService;
     @Autowired private RootyService rootyService;
+    @Autowired private SystemFactsService systemFacts;
     @Autowired private CloudOsConfiguration configuration;
 
     private boolean adminsExist() { return !accountDAO.findAdmins().isEmpty(); }
@@ -111,6 +112,7 @@ public class SetupResource {
         if (request.hasSystemTimeZone()) {
             final ImprovedTimezone timezone = ImprovedTimezone.getTimeZoneById(request.getSystemTimeZone());
             rootyService.getSender().write(new SystemSetTimezoneMessage(timezone.getLinuxName()));
+            systemFacts.timezoneChanged(timezone.getLinuxName());
         }
 
         final String sessionId = sessionDAO.create(account);
@@ -118,7 +120,7 @@ public class SetupResource {
         setupSettingsSource.firstTimeSetupCompleted();
 
         // Load available apps
-        account.setAvailableApps(new ArrayList<>(appDAO.getAvailableAppDetails().values()));
+        account.applyAvailableApps(appDAO.getAvailableApps());
 
         // Generate the first-time setup response, which will include the restoreKey
         final SetupResponse response = new SetupResponse(sessionId, account, configuration, backupKey);
@@ -0,0 +1,25 @@
+package cloudos.server;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings for the Account entry cache in AccountDAO. The cache is only used with the native LDAP backend and a
+ * syncInterval above 0, since otherwise changes made outside of cloudos would go unnoticed until the ttl.
+ */
+public class AccountCacheConfiguration {
+
+    @Getter @Setter private boolean enabled = true;
+
+    // entries are always dropped after this long, which also bounds how long an out-of-band delete goes unnoticed
+    @Getter @Setter private long ttl = TimeUnit.MINUTES.toMillis(5);
+
+    @Getter @Setter private int maxSize = 10000;
+
+    // with the native LDAP backend, poll for accounts and groups whose modifyTimestamp has changed this often.
+    // 0 disables polling
+    @Getter @Setter private long syncInterval = TimeUnit.SECONDS.toMillis(30);
+
+}
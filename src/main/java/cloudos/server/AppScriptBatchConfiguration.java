@@ -0,0 +1,23 @@
+package cloudos.server;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Settings for AppScriptBatcher, which coalesces the per-account app user-management messages sent to rooty.
+ */
+public class AppScriptBatchConfiguration {
+
+    // with multiUserScripts, user_create and user_delete messages are held this long after the first one arrives, then
+    // sent together. Other messages are never held. 0 sends each message immediately
+    @Getter @Setter private long window = 250;
+
+    // send early once this many messages are waiting
+    @Getter @Setter private int maxBatchSize = 200;
+
+    // when true, user_create and user_delete messages for the same app are merged into one message with one arg per
+    // account, so the app's script runs once per batch. Only enable this if every installed app's user_create and
+    // user_delete scripts accept more than one account name.
+    @Getter @Setter private boolean multiUserScripts = false;
+
+}
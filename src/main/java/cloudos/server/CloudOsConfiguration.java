@@ -7,7 +7,6 @@ import cloudos.databag.DnsMode;
 import cloudos.dns.DnsClient;
 import cloudos.dns.service.dyn.DynDnsManager;
 import cloudos.dns.service.mock.MockDnsManager;
-import cloudos.model.Account;
 import cloudos.service.TwoFactorAuthService;
 import lombok.Getter;
 import lombok.Setter;
@@ -76,6 +75,8 @@ public class CloudOsConfiguration extends RestServerConfiguration
     }
 
     @Getter @Setter private LdapConfiguration ldap = new LdapConfiguration();
+    @Getter @Setter private LdapPoolConfiguration ldapPool = new LdapPoolConfiguration();
+    @Getter @Setter private AccountCacheConfiguration accountCache = new AccountCacheConfiguration();
     @Getter @Setter private String defaultAdmin = DEFAULT_ADMIN;
 
     @Getter @Setter private RootyConfiguration rooty;
@@ -84,6 +85,10 @@ public class CloudOsConfiguration extends RestServerConfiguration
 
     @Getter @Setter private String rootyGroup = "rooty";
 
+    // if set, watch this directory for rooty status files, instead of only polling for status
+    @Getter @Setter private String rootyStatusDir;
+    @Getter @Setter private AppScriptBatchConfiguration appScriptBatch = new AppScriptBatchConfiguration();
+
     @Getter @Setter private DnsMode dnsMode;
 
     @Getter @Setter private DnsConfiguration dns;
@@ -99,7 +104,7 @@ public class CloudOsConfiguration extends RestServerConfiguration
     }
 
     @Getter(lazy=true) private final String hostname = initHostname();
-    private String initHostname() { return CommandShell.hostname(); }
+    public String initHostname() { return CommandShell.hostname(); }
 
     @Getter(lazy=true) private final String shortHostname = initShortHostname();
     private String initShortHostname () {
@@ -110,7 +115,7 @@ public class CloudOsConfiguration extends RestServerConfiguration
 
     @Getter(lazy=true) private final String publicIp = initPublicIp();
 
-    private String initPublicIp() {
+    public String initPublicIp() {
         try {
             final String ip = InetAddress.getLocalHost().getHostAddress();
             log.info("initPublicIp: returning ip="+ip);
@@ -130,11 +135,11 @@ public class CloudOsConfiguration extends RestServerConfiguration
         return base + getHttp().getBaseUri() + "/app_assets/";
     }
 
-    public String getLocale(Account admin) {
-        return admin.hasLocale() ? admin.getLocale() : getSystemLocale();
-    }
-
-    public String getSystemLocale () {
-        return CommandShell.execScript("locale | grep LANG= | tr '=.' ' ' | awk '{print $2}'").trim().toLowerCase();
+    // same result as: locale | grep LANG= | tr '=.' ' ' | awk '{print $2}' -- without forking a shell on every call
+    public String initSystemLocale () {
+        final String lang = System.getenv("LANG");
+        if (lang == null) return "";
+        final int dotPos = lang.indexOf(".");
+        return (dotPos == -1 ? lang : lang.substring(0, dotPos)).trim().toLowerCase();
     }
 }
@@ -0,0 +1,31 @@
+package cloudos.server;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings for the native (JNDI) LDAP backend. When disabled, CloudOsLdapService uses the
+ * LDIF/command-line implementation from LdapServiceBase.
+ */
+public class LdapPoolConfiguration {
+
+    @Getter @Setter private boolean enabled = false;
+
+    // max connections bound as the admin DN, used for searches and writes
+    @Getter @Setter private int size = 8;
+
+    // max connections used to bind as end users (authentication)
+    @Getter @Setter private int authSize = 4;
+
+    @Getter @Setter private long connectTimeout = TimeUnit.SECONDS.toMillis(5);
+    @Getter @Setter private long readTimeout = TimeUnit.SECONDS.toMillis(30);
+
+    // how long a caller will wait for a free connection before giving up
+    @Getter @Setter private long borrowTimeout = TimeUnit.SECONDS.toMillis(10);
+
+    // connections idle longer than this are checked (root DSE read) before being handed out
+    @Getter @Setter private long validateAfterIdle = TimeUnit.SECONDS.toMillis(30);
+
+}
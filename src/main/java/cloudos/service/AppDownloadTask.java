@@ -42,6 +42,7 @@ public class AppDownloadTask extends CloudOsTaskBase {
 
     @Getter @Setter private AppDownloadRequest request;
     @Getter @Setter private CloudOsConfiguration configuration;
+    @Getter @Setter private SystemFactsService systemFacts;
     @Getter @Setter private TaskService taskService;
     @Getter @Setter private RootyService rootyService;
     @Getter @Setter private AppDAO appDAO;
@@ -154,6 +155,7 @@ public class AppDownloadTask extends CloudOsTaskBase {
             error("{appDownload.error.downloadingAssets}", e);
             return cleanup(tarball, tempDir);
         }
+        appDAO.refreshCatalog(manifest.getName());
 
         if (request.isAutoInstall() && !manifest.hasConfig()) {
             // submit another job to do the install
@@ -161,6 +163,7 @@ public class AppDownloadTask extends CloudOsTaskBase {
                     .setAccount(account)
                     .setAppDAO(appDAO)
                     .setConfiguration(configuration)
+                    .setSystemFacts(systemFacts)
                     .setRequest(new AppInstallRequest(manifest.getName(), manifest.getVersion(), request.isOverwrite()))
                     .setRootyService(rootyService)
                     .setResolver(resolver)
@@ -51,6 +51,7 @@ public class AppInstallTask extends CloudOsTaskBase {
     @Getter @Setter private SessionDAO sessionDAO;
     @Getter @Setter private CloudOsAppConfigValidationResolver resolver;
     @Getter @Setter private CloudOsConfiguration configuration;
+    @Getter @Setter private SystemFactsService systemFacts;
 
     @Override public CloudOsTaskResult execute() {
 
@@ -84,6 +85,7 @@ public class AppInstallTask extends CloudOsTaskBase {
                         .setAccount(getAccount())
                         .setAppDAO(getAppDAO())
                         .setConfiguration(getConfiguration())
+                        .setSystemFacts(getSystemFacts())
                         .setRootyService(getRootyService())
                         .setRequest(new AppDownloadRequest()
                                 .setAutoInstall(false)
@@ -111,13 +113,13 @@ public class AppInstallTask extends CloudOsTaskBase {
         // Validate databags. If any violations are related to missing passwords, pick a random password
         // and email it to the caller.
         final AppManifest manifest = AppManifest.load(appLayout.getVersionDir());
-        final AppConfiguration appConfig = AppConfiguration.readAppConfiguration(manifest, appLayout.getDatabagsDir(), configuration.getSystemLocale());
+        final AppConfiguration appConfig = AppConfiguration.readAppConfiguration(manifest, appLayout.getDatabagsDir(), systemFacts.getFacts().getLocale());
 
         final AppLayout currentLayout = configuration.getAppLayout(request.getName());
         final File currentVersionDir = currentLayout.getAppActiveVersionDir();
         if (currentVersionDir != null && currentVersionDir.exists()) {
             // copy over settings from previous installation
-            final AppConfiguration currentConfig = AppConfiguration.readAppConfiguration(AppManifest.load(currentVersionDir), currentLayout.getDatabagsDir(), configuration.getSystemLocale());
+            final AppConfiguration currentConfig = AppConfiguration.readAppConfiguration(AppManifest.load(currentVersionDir), currentLayout.getDatabagsDir(), systemFacts.getFacts().getLocale());
             if (currentConfig != null) {
                 appConfig.merge(currentConfig);
                 appConfig.writeAppConfiguration(manifest, appLayout.getDatabagDirForApp());
@@ -189,7 +191,7 @@ public class AppInstallTask extends CloudOsTaskBase {
                     .setActive_version(request.getVersion())
                     .setInteractive(manifest.isInteractive());
             metadata.write(appLayout.getAppDir());
-            appDAO.resetApps();
+            appDAO.reloadApp(request.getName());
             result.setSuccess(true);
 
         } else {
@@ -0,0 +1,215 @@
+package cloudos.service;
+
+import cloudos.server.AppScriptBatchConfiguration;
+import cloudos.server.CloudOsConfiguration;
+import com.google.common.util.concurrent.Futures;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import rooty.RootyMessage;
+import rooty.toots.app.AppScriptMessage;
+import rooty.toots.app.AppScriptMessageType;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Coalesces the app user-management messages (user_create, user_delete, user_change_password) sent to rooty.
+ * With multiUserScripts enabled, user_create and user_delete messages are held for a short window and then written
+ * together: all user_create (or user_delete) messages for an app become one message carrying every account name, so
+ * the app's script runs once, and a repeated message for the same account and app is only sent once.
+ * Every other message (all of them, with multiUserScripts off) has nothing to be merged with, so it is not held: it is
+ * handed to the writer right away.
+ * Order is kept per app and account: if a message for an account arrives while a message of another type is waiting
+ * for the same account and app (say, a delete following a create), everything waiting is sent first. Messages for the
+ * same account but different apps do not conflict, so creating an account for every installed app is one batch.
+ *
+ * Batches are handed to a single writer thread in the order they are drained, so rooty is never written to while
+ * holding the lock that senders wait on. Anything still waiting when the server stops is written before it exits.
+ */
+@Service @Slf4j
+public class AppScriptBatcher {
+
+    public static final long SHUTDOWN_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    @Autowired private RootyService rooty;
+    @Autowired private CloudOsConfiguration configuration;
+
+    private static final Set<AppScriptMessageType> MERGEABLE
+            = EnumSet.of(AppScriptMessageType.user_create, AppScriptMessageType.user_delete);
+
+    // all guarded by 'pending'
+    // app|type -> account name -> latest message
+    private final Map<String, Map<String, AppScriptMessage>> pending = new LinkedHashMap<>();
+    // app|account -> app|type of the message waiting for that account and app
+    private final Map<String, String> pendingBatchByAppAccount = new HashMap<>();
+    private int pendingCount = 0;
+    private boolean flushScheduled = false;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(daemon("AppScriptBatcher"));
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(daemon("AppScriptBatcher-writer"));
+
+    private static ThreadFactory daemon(final String name) {
+        return new ThreadFactory() {
+            @Override public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    private AppScriptBatchConfiguration config() { return configuration.getAppScriptBatch(); }
+
+    private static String batchKey(AppScriptMessage m) { return m.getApp() + "|" + m.getType(); }
+
+    private static String account(AppScriptMessage m) {
+        return m.getArgs() == null || m.getArgs().isEmpty() ? "" : String.valueOf(m.getArgs().get(0)).toLowerCase();
+    }
+
+    /**
+     * Queue a message for rooty. It is written within the configured window if it may be merged, otherwise right away.
+     * @param message an AppScriptMessage whose first argument is the account name
+     */
+    public void send(AppScriptMessage message) {
+        if (config().getWindow() <= 0) {
+            rooty.getSender().write(message);
+            return;
+        }
+
+        final boolean hold = config().isMultiUserScripts() && MERGEABLE.contains(message.getType());
+        final String key = batchKey(message);
+        final String account = account(message);
+        final String appAccount = message.getApp() + "|" + account;
+        synchronized (pending) {
+            final String otherBatch = pendingBatchByAppAccount.get(appAccount);
+            if (otherBatch != null && (!hold || !otherBatch.equals(key))) drainToWriter();
+
+            if (!hold) {
+                writeAsync(Collections.singletonList(message));
+                return;
+            }
+
+            Map<String, AppScriptMessage> batch = pending.get(key);
+            if (batch == null) {
+                batch = new LinkedHashMap<>();
+                pending.put(key, batch);
+            }
+            if (batch.remove(account) == null) pendingCount++; // re-insert, so the latest message keeps its place at the end
+            batch.put(account, message);
+            pendingBatchByAppAccount.put(appAccount, key);
+
+            if (pendingCount >= config().getMaxBatchSize()) {
+                drainToWriter();
+
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                scheduler.schedule(new Runnable() {
+                    @Override public void run() { flushAsync(); }
+                }, config().getWindow(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Write other rooty messages (say, the NewAccountEvents of a bulk create) as one batch on the writer thread,
+     * after every app script batch already drained. They are not held or merged.
+     * Callers that queue app script messages for the same accounts should call this first.
+     */
+    public void writeAll(final List<? extends RootyMessage> messages) {
+        if (messages.isEmpty()) return;
+        if (config().getWindow() <= 0) {
+            write(messages); // send() writes directly too, so keep the same order
+            return;
+        }
+        writeAsync(messages);
+    }
+
+    /** Write everything that is waiting now, returning once rooty has been sent every message queued so far. */
+    public void flush() {
+        try {
+            flushAsync().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("flush: "+e.getCause(), e.getCause());
+        }
+    }
+
+    private Future<?> flushAsync() {
+        synchronized (pending) {
+            flushScheduled = false;
+            return drainToWriter();
+        }
+    }
+
+    @PreDestroy public void shutdown() {
+        scheduler.shutdownNow();
+        flushAsync();
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                log.warn("shutdown: gave up waiting for app script messages to be written");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // must be called holding the lock on 'pending': batches reach the writer in the order they were drained
+    private Future<?> drainToWriter() { return writeAsync(drain()); }
+
+    private Future<?> writeAsync(final List<? extends RootyMessage> messages) {
+        try {
+            return writer.submit(new Runnable() {
+                @Override public void run() { write(messages); }
+            });
+        } catch (RejectedExecutionException e) {
+            // shutting down and the writer is gone: write from this thread rather than drop the messages
+            write(messages);
+            return Futures.immediateFuture(null);
+        }
+    }
+
+    private static String describe(RootyMessage message) {
+        if (message instanceof AppScriptMessage) {
+            final AppScriptMessage m = (AppScriptMessage) message;
+            return m.getType()+" for app "+m.getApp();
+        }
+        return message.getClass().getSimpleName();
+    }
+
+    private List<AppScriptMessage> drain() {
+        final boolean merge = config().isMultiUserScripts();
+        final List<AppScriptMessage> messages = new ArrayList<>();
+        for (Map<String, AppScriptMessage> batch : pending.values()) {
+            if (batch.isEmpty()) continue;
+            final AppScriptMessage first = batch.values().iterator().next();
+            if (merge && batch.size() > 1 && MERGEABLE.contains(first.getType())) {
+                final AppScriptMessage merged = new AppScriptMessage().setApp(first.getApp()).setType(first.getType());
+                for (AppScriptMessage m : batch.values()) {
+                    for (Object arg : m.getArgs()) merged.addArg(String.valueOf(arg));
+                }
+                messages.add(merged);
+            } else {
+                messages.addAll(batch.values());
+            }
+        }
+        pending.clear();
+        pendingBatchByAppAccount.clear();
+        pendingCount = 0;
+        return messages;
+    }
+
+    private void write(List<? extends RootyMessage> messages) {
+        for (RootyMessage message : messages) {
+            try {
+                rooty.getSender().write(message);
+            } catch (Exception e) {
+                log.error("write: error sending "+describe(message)+": "+e, e);
+            }
+        }
+    }
+
+}
@@ -75,7 +75,7 @@ public class AppUninstallTask extends CloudOsTaskBase {
                 // todo: need to implement this
             }
 
-            appDAO.resetApps();
+            appDAO.reloadApp(appName);
             result.setSuccess(!appLayout.getVersionDir().exists());
 
         } else {
@@ -3,13 +3,23 @@ package cloudos.service;
 import cloudos.dao.AccountDAO;
 import cloudos.dao.AccountGroupDAO;
 import cloudos.server.CloudOsConfiguration;
+import cloudos.server.LdapPoolConfiguration;
+import cloudos.service.ldap.NativeLdapBackend;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.util.system.CommandResult;
 import org.cobbzilla.wizard.dao.AbstractLdapDAO;
 import org.cobbzilla.wizard.ldap.LdapServiceBase;
+import org.cobbzilla.wizard.model.ResultPage;
+import org.cobbzilla.wizard.model.ldap.LdapEntity;
 import org.cobbzilla.wizard.server.config.LdapConfiguration;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import javax.naming.directory.Attributes;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.cobbzilla.util.daemon.ZillaRuntime.die;
@@ -26,6 +36,86 @@ public class CloudOsLdapService extends LdapServiceBase {
     @Override public LdapConfiguration getConfiguration() { return config.getLdap(); }
     public LdapConfiguration config() { return getConfiguration(); }
 
+    // when the ldapPool is enabled, talk to the directory over pooled JNDI connections instead of the ldap* commands
+    @Getter(lazy=true) private final NativeLdapBackend nativeBackend = initNativeBackend();
+    private NativeLdapBackend initNativeBackend() {
+        final LdapPoolConfiguration poolConfig = config.getLdapPool();
+        if (poolConfig == null || !poolConfig.isEnabled()) return null;
+        log.info("initNativeBackend: using pooled connections to "+getConfiguration().getServer());
+        return new NativeLdapBackend(getConfiguration(), poolConfig);
+    }
+    public boolean isNative() { return getNativeBackend() != null; }
+
+    // changes made outside of cloudos can only be noticed with the native backend, by polling modifyTimestamps
+    public boolean hasChangeSync() { return isNative() && config.getAccountCache().getSyncInterval() > 0; }
+
+    @PreDestroy public void shutdown() {
+        if (isNative()) getNativeBackend().shutdown();
+    }
+
+    @Override public CommandResult ldapadd(String ldif) {
+        return isNative() ? getNativeBackend().add(ldif) : super.ldapadd(ldif);
+    }
+
+    @Override public CommandResult ldapmodify(String ldif) {
+        return isNative() ? getNativeBackend().modify(ldif) : super.ldapmodify(ldif);
+    }
+
+    @Override public CommandResult ldapdelete(String dn) {
+        return isNative() ? getNativeBackend().delete(dn) : super.ldapdelete(dn);
+    }
+
+    /**
+     * Bind as the given user on a pooled connection. Only valid when isNative() is true.
+     * @param accountName an account name or a full DN
+     * @param password the password to check
+     */
+    public void nativeAuthenticate(String accountName, String password) {
+        final String dn = accountName.contains("=") ? accountName : getConfiguration().userDN(accountName);
+        getNativeBackend().authenticate(dn, password);
+    }
+
+    /**
+     * Bind as the given user and read their entry in the same exchange. Only valid when isNative() is true.
+     * @return the populated entity, or null if the bind succeeded but the user may not read their own entry
+     */
+    public <E extends LdapEntity> E nativeAuthenticateAndFind(String accountName, String password, E entity) {
+        final String dn = accountName.contains("=") ? accountName : getConfiguration().userDN(accountName);
+        final Attributes attrs = getNativeBackend().authenticateAndRead(dn, password);
+        return attrs == null ? null : NativeLdapBackend.toEntity(attrs, entity);
+    }
+
+    /**
+     * Read a single entry directly from the directory. Only valid when isNative() is true.
+     * @param dn the DN to read
+     * @param entity an empty entity to populate
+     * @return the populated entity, or null if there is no entry with that DN
+     */
+    public <E extends LdapEntity> E nativeFind(String dn, E entity) {
+        final Attributes attrs = getNativeBackend().lookup(dn);
+        return attrs == null ? null : NativeLdapBackend.toEntity(attrs, entity);
+    }
+
+    /**
+     * Find the DNs of every entry matching a ResultPage's filter, bounds and sort, ignoring its page number and size.
+     * Only valid when isNative() is true.
+     * @param base the search base
+     * @param page the filter, bounds and sort order to apply
+     * @param pageSize how many entries to ask the server for at a time
+     * @return the DNs, in order
+     */
+    public List<String> nativeSearchDNs(String base, ResultPage page, int pageSize) {
+        final Map<String, String> bounds = page.getBounds() == null ? new HashMap<String, String>() : new HashMap<>(page.getBounds());
+        bounds.remove(BOUND_BASE);
+        bounds.remove(BOUND_DN);
+        final String filter = ldapFilter(base, page.getFilter(), bounds);
+        final String sort = page.getHasSortField() ? ldapField(base, page.getSortField()) : null;
+        final boolean descending = String.valueOf(page.getSortType()).equalsIgnoreCase("desc");
+        return getNativeBackend().searchDNs(base, filter, sort, descending, pageSize);
+    }
+
+    // note: password changes still go through ldappasswd, so the server applies its own password hashing
+
     protected boolean isAccount(String ldif) {
         return ldif.startsWith("dn: " + accountDAO.getTemplateObject().getIdField() + "=");
     }
@@ -0,0 +1,145 @@
+package cloudos.service;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import lombok.extern.slf4j.Slf4j;
+import rooty.RootyMessage;
+import rooty.RootyStatusManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks rooty requests that are in flight; every RootyService.request and requestAsync goes through here.
+ * On each tick the status of every outstanding request is checked, and its future completed when rooty has finished
+ * with it, so callers don't need a thread apiece to poll. Every tracker ticks on the same scheduler thread.
+ * When a RootyStatusWatcher is running, it calls statusChanged as soon as rooty writes a status, and the periodic
+ * check becomes a slow safety net.
+ */
+@Slf4j
+public class RootyRequestTracker implements RootyStatusWatcher.Listener {
+
+    public static final long POLL_INTERVAL = 100;
+    public static final long WATCHED_POLL_INTERVAL = 2000;
+
+    private static class InFlight {
+        final RootyMessage message;
+        final SettableFuture<RootyMessage> future = SettableFuture.create();
+        final long start = System.nanoTime();
+        final long deadline;
+        InFlight(RootyMessage message, long timeout) {
+            this.message = message;
+            this.deadline = System.currentTimeMillis() + timeout;
+        }
+    }
+
+    private final RootyStatusManager statusManager;
+    private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "RootyRequestTracker");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    public RootyRequestTracker(RootyStatusManager statusManager) { this(statusManager, POLL_INTERVAL); }
+
+    private final ScheduledFuture<?> ticker;
+
+    public RootyRequestTracker(RootyStatusManager statusManager, long pollInterval) {
+        this.statusManager = statusManager;
+        ticker = SCHEDULER.scheduleWithFixedDelay(new Runnable() {
+            @Override public void run() { poll(); }
+        }, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stop ticking. Requests still in flight are only completed by statusChanged from then on. */
+    public void stop() { ticker.cancel(false); }
+
+    @Override public void statusChanged(String uuid) {
+        if (uuid == null) {
+            poll();
+        } else {
+            final InFlight request = inFlight.get(uuid);
+            if (request != null) check(uuid, request, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Start tracking a message. Call this before the message is sent, so that a fast reply is not missed.
+     * @param message the message, which must already have a uuid
+     * @param timeout how long to wait for rooty, in milliseconds
+     * @return a future that yields rooty's final status for the message, or fails with a TimeoutException
+     */
+    public ListenableFuture<RootyMessage> track(RootyMessage message, long timeout) {
+        final InFlight request = new InFlight(message, timeout);
+        inFlight.put(message.getUuid(), request);
+        requests.incrementAndGet();
+        return request.future;
+    }
+
+    /** Stop tracking a message, e.g. because it could not be sent. */
+    public void fail(RootyMessage message, Exception e) {
+        final InFlight request = inFlight.remove(message.getUuid());
+        if (request != null) request.future.setException(e);
+    }
+
+    /** Check every outstanding request now. Also called on each tick. */
+    public void poll() {
+        final long now = System.currentTimeMillis();
+        for (Map.Entry<String, InFlight> entry : inFlight.entrySet()) {
+            check(entry.getKey(), entry.getValue(), now);
+        }
+    }
+
+    private void check(String uuid, InFlight request, long now) {
+        try {
+            final RootyMessage status = statusManager.getStatus(uuid);
+            if (status != null && status.isFinished()) {
+                if (!inFlight.remove(uuid, request)) return; // someone else got it
+                record(request);
+                request.future.set(status);
+
+            } else if (now > request.deadline) {
+                if (!inFlight.remove(uuid, request)) return;
+                timeouts.incrementAndGet();
+                request.future.setException(new TimeoutException("no reply from rooty for "+request.message.getClass().getSimpleName()+"/"+uuid));
+            }
+        } catch (Exception e) {
+            log.warn("check: error checking status of "+uuid+": "+e);
+        }
+    }
+
+    private void record(InFlight request) {
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - request.start);
+        completed.incrementAndGet();
+        totalMillis.addAndGet(millis);
+        long max;
+        while (millis > (max = maxMillis.get())) {
+            if (maxMillis.compareAndSet(max, millis)) break;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        final long n = completed.get();
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlight", inFlight.size());
+        stats.put("requests", requests.get());
+        stats.put("completed", n);
+        stats.put("timeouts", timeouts.get());
+        stats.put("avgMillis", n == 0 ? 0 : totalMillis.get() / n);
+        stats.put("maxMillis", maxMillis.get());
+        return stats;
+    }
+
+}
@@ -1,12 +1,30 @@
 package cloudos.service;
 
 import cloudos.server.CloudOsConfiguration;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.util.json.JsonUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import rooty.*;
 
-import java.util.concurrent.TimeUnit;
+import java.io.File;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+import static org.cobbzilla.util.json.JsonUtil.toJsonOrDie;
 
 @Service @Slf4j
 public class RootyService {
@@ -23,8 +41,176 @@ public class RootyService {
 
     public RootyMessage request(RootyMessage message) { return request(message, TIMEOUT); }
 
+    /**
+     * Send a message to rooty and wait for rooty to finish with it. The reply is delivered by the request tracker,
+     * as soon as the status watcher sees it when rootyStatusDir is configured, otherwise on the tracker's next poll.
+     * @param message the message to send
+     * @param timeout how long to wait for rooty, in milliseconds
+     * @return rooty's final status for the message, or null if rooty did not reply in time
+     */
     public RootyMessage request(RootyMessage message, long timeout) {
-        return RootyMain.request(message, getSender(), getStatusManager(), timeout);
+        final ListenableFuture<RootyMessage> future = requestAsync(message, timeout);
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                log.warn("request: "+e.getCause().getMessage());
+                return null;
+            }
+            return die("request: error sending "+message.getClass().getSimpleName()+": "+e.getCause(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return die("request: interrupted waiting for "+message.getClass().getSimpleName());
+        }
+    }
+
+    // null unless rootyStatusDir is configured
+    @Getter(lazy=true) private final RootyStatusWatcher statusWatcher = initStatusWatcher();
+    private RootyStatusWatcher initStatusWatcher() {
+        final String dir = configuration.getRootyStatusDir();
+        if (empty(dir)) return null;
+        final File statusDir = new File(dir);
+        if (!statusDir.isDirectory()) {
+            log.warn("initStatusWatcher: not a directory, rooty status updates will be found by polling: "+statusDir.getAbsolutePath());
+            return null;
+        }
+        return new RootyStatusWatcher(statusDir).start();
+    }
+
+    public boolean isWatchingStatus() { return getStatusWatcher() != null && getStatusWatcher().isRunning(); }
+
+    // identical read-only requests in flight at the same time share one round trip to rooty
+    private final Map<String, ListenableFuture<RootyMessage>> sharedRequests = new ConcurrentHashMap<>();
+    private final AtomicLong sharedRequestCount = new AtomicLong();
+    private final AtomicLong collapsedRequestCount = new AtomicLong();
+
+    // the properties every RootyMessage has (uuid, status, ...): they differ between sends of the same request
+    private static final Set<String> MESSAGE_PROPERTIES = messageProperties();
+    private static Set<String> messageProperties() {
+        final ObjectMapper mapper = JsonUtil.FULL_MAPPER;
+        final Set<String> names = new HashSet<>();
+        final BeanDescription desc = mapper.getSerializationConfig().introspect(mapper.constructType(RootyMessage.class));
+        for (BeanPropertyDefinition property : desc.findProperties()) names.add(property.getName());
+        return names;
+    }
+
+    // what a message asks for: its class and the fields its class adds to RootyMessage
+    static String sharedKey(RootyMessage message) {
+        final ObjectNode node = JsonUtil.FULL_MAPPER.valueToTree(message);
+        node.remove(MESSAGE_PROPERTIES);
+        return message.getClass().getName() + ":" + node.toString();
+    }
+
+    /**
+     * Like request, but if an identical message (same class and request fields) is already waiting on rooty, wait for
+     * that one's reply instead of sending another. Only use this for messages that just read something.
+     * Callers that share a round trip get the same reply object, which they must not modify.
+     * @param message the read-only message to send
+     * @param timeout how long to wait for rooty, in milliseconds
+     * @return rooty's final status for the message, or null if rooty did not reply in time
+     */
+    public RootyMessage requestShared(RootyMessage message, long timeout) {
+        final String key = sharedKey(message);
+        final SettableFuture<RootyMessage> mine = SettableFuture.create();
+        final ListenableFuture<RootyMessage> existing = sharedRequests.putIfAbsent(key, mine);
+        sharedRequestCount.incrementAndGet();
+
+        if (existing != null) {
+            collapsedRequestCount.incrementAndGet();
+            try {
+                return existing.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                return null;
+            } catch (ExecutionException e) {
+                return die("requestShared: "+e.getCause(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return die("requestShared: interrupted");
+            }
+        }
+
+        try {
+            final RootyMessage reply = request(message, timeout);
+            mine.set(reply);
+            return reply;
+        } catch (RuntimeException e) {
+            mine.setException(e);
+            throw e;
+        } finally {
+            sharedRequests.remove(key, mine);
+        }
+    }
+
+    public Map<String, Object> getSharedRequestStats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlight", sharedRequests.size());
+        stats.put("requests", sharedRequestCount.get());
+        stats.put("collapsed", collapsedRequestCount.get());
+        return stats;
+    }
+
+    @Getter(lazy=true) private final RootyRequestTracker requestTracker = initRequestTracker();
+    private RootyRequestTracker initRequestTracker() {
+        if (!isWatchingStatus()) return new RootyRequestTracker(getStatusManager());
+        final RootyRequestTracker tracker = new RootyRequestTracker(getStatusManager(), RootyRequestTracker.WATCHED_POLL_INTERVAL);
+        getStatusWatcher().addListener(tracker);
+        return tracker;
+    }
+
+    /**
+     * Wait for rooty to write a status update for any message, if we are watching for them.
+     * @param timeout the maximum time to wait, in milliseconds
+     * @return true if an update was seen. false if the timeout passed, or status updates are not being watched
+     */
+    public boolean awaitStatusChange(long timeout) {
+        return isWatchingStatus() && getStatusWatcher().awaitChange(timeout);
+    }
+
+    /**
+     * Wait for rooty to change the status of one message, if we are watching for status updates.
+     * Updates for other messages wake us up, but we keep waiting until this message's status differs from what it
+     * was when we were called, or the timeout passes.
+     * @param uuid the message to wait for
+     * @param timeout the maximum time to wait, in milliseconds
+     * @return the message's status: changed, already finished, or as it stands when the timeout passes. null if
+     * rooty has no status for the message
+     */
+    public RootyMessage awaitStatus(String uuid, long timeout) {
+        final RootyMessage initial = getStatusManager().getStatus(uuid);
+        if (initial != null && initial.isFinished()) return initial;
+
+        final String before = initial == null ? null : toJsonOrDie(initial);
+        final long deadline = System.currentTimeMillis() + timeout;
+        long remaining;
+        while ((remaining = deadline - System.currentTimeMillis()) > 0 && awaitStatusChange(remaining)) {
+            final RootyMessage status = getStatusManager().getStatus(uuid);
+            if (status != null && !toJsonOrDie(status).equals(before)) return status;
+        }
+        return getStatusManager().getStatus(uuid);
+    }
+
+    public ListenableFuture<RootyMessage> requestAsync(RootyMessage message) { return requestAsync(message, TIMEOUT); }
+
+    /**
+     * Send a message to rooty without waiting for the reply.
+     * @param message the message to send
+     * @param timeout how long to wait for rooty, in milliseconds
+     * @return a future that yields rooty's final status for the message (as request would return),
+     * or fails with a TimeoutException if rooty has not finished with the message in time
+     */
+    public ListenableFuture<RootyMessage> requestAsync(RootyMessage message, long timeout) {
+        if (!message.hasUuid()) message.initUuid();
+        final RootyRequestTracker tracker = getRequestTracker();
+        final ListenableFuture<RootyMessage> future = tracker.track(message, timeout);
+        try {
+            getSender().write(message);
+        } catch (Exception e) {
+            tracker.fail(message, e);
+            return future;
+        }
+        // a sender that handles the message in-process has already written the final status
+        tracker.statusChanged(message.getUuid());
+        return future;
     }
 
 }
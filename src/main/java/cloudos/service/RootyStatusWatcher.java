@@ -0,0 +1,125 @@
+package cloudos.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the directory rooty writes status updates to, and tells listeners as soon as a file there is created or
+ * changed. If the file name contains a message uuid, listeners are told which message changed; otherwise they are
+ * told that something changed (uuid == null) and should check everything they are waiting for.
+ */
+@Slf4j
+public class RootyStatusWatcher {
+
+    public interface Listener {
+        void statusChanged(String uuid);
+    }
+
+    private static final Pattern UUID_PATTERN = Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+
+    private final File dir;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong changes = new AtomicLong();
+    private final Object changed = new Object();
+    private volatile boolean running = false;
+
+    public RootyStatusWatcher(File dir) { this.dir = dir; }
+
+    public void addListener(Listener listener) { listeners.add(listener); }
+
+    public long getChangeCount() { return changes.get(); }
+
+    public RootyStatusWatcher start() {
+        final WatchService watchService;
+        try {
+            watchService = dir.toPath().getFileSystem().newWatchService();
+            dir.toPath().register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+        } catch (IOException e) {
+            log.error("start: cannot watch "+dir.getAbsolutePath()+", rooty status updates will be found by polling: "+e, e);
+            return this;
+        }
+        running = true;
+        final Thread t = new Thread(new Runnable() {
+            @Override public void run() { watch(watchService); }
+        }, "RootyStatusWatcher");
+        t.setDaemon(true);
+        t.start();
+        log.info("start: watching "+dir.getAbsolutePath()+" for rooty status updates");
+        return this;
+    }
+
+    public boolean isRunning() { return running; }
+
+    private void watch(WatchService watchService) {
+        try {
+            while (true) {
+                final WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        fire(null);
+                    } else {
+                        final Matcher m = UUID_PATTERN.matcher(String.valueOf(event.context()));
+                        fire(m.find() ? m.group() : null);
+                    }
+                }
+                if (!key.reset()) {
+                    log.error("watch: "+dir.getAbsolutePath()+" is no longer accessible, rooty status updates will be found by polling");
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            log.info("watch: interrupted, exiting");
+        } finally {
+            running = false;
+        }
+    }
+
+    private void fire(String uuid) {
+        changes.incrementAndGet();
+        for (Listener listener : listeners) {
+            try {
+                listener.statusChanged(uuid);
+            } catch (Exception e) {
+                log.warn("fire: listener error: "+e, e);
+            }
+        }
+        synchronized (changed) { changed.notifyAll(); }
+    }
+
+    /**
+     * Block until a status update is seen (for any message), or the timeout passes.
+     * Callers should re-read the status they care about afterwards, and wait again if it has not changed.
+     * @param timeout the maximum time to wait, in milliseconds
+     * @return true if an update was seen, false if the timeout passed or the watcher is not running
+     */
+    public boolean awaitChange(long timeout) {
+        if (!running || timeout <= 0) return false;
+        final long start = changes.get();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        synchronized (changed) {
+            while (changes.get() == start) {
+                final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) return false;
+                try {
+                    changed.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,42 @@
+package cloudos.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * An immutable snapshot of facts about the system cloudos runs on. SystemFactsService replaces the whole snapshot
+ * when a fact changes, so readers never see a half-updated set.
+ */
+@AllArgsConstructor
+public class SystemFacts {
+
+    @Getter private final String locale;
+    @Getter private final String hostname;
+    @Getter private final String publicIp;
+    @Getter private final String timezone;
+
+    /** null until it has been read from rooty, and again after something that affects it was changed through cloudos */
+    @Getter private final Boolean allowSsh;
+
+    /** true when facts were collected again since allowSsh was read (it may have been changed outside cloudos) */
+    @Getter private final boolean allowSshStale;
+
+    @Getter private final long ctime;
+
+    public SystemFacts withTimezone(String timezone) {
+        return new SystemFacts(locale, hostname, publicIp, timezone, allowSsh, allowSshStale, System.currentTimeMillis());
+    }
+
+    public SystemFacts withAllowSsh(boolean allowSsh) {
+        return new SystemFacts(locale, hostname, publicIp, timezone, allowSsh, false, System.currentTimeMillis());
+    }
+
+    public SystemFacts withAllowSshUnknown() {
+        return new SystemFacts(locale, hostname, publicIp, timezone, null, false, System.currentTimeMillis());
+    }
+
+    public SystemFacts withAllowSshStale() {
+        return new SystemFacts(locale, hostname, publicIp, timezone, allowSsh, true, System.currentTimeMillis());
+    }
+
+}
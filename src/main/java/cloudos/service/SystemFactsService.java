@@ -0,0 +1,182 @@
+package cloudos.service;
+
+import cloudos.model.Account;
+import cloudos.server.CloudOsConfiguration;
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.util.io.FileUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import rooty.RootyMessage;
+import rooty.toots.service.ServiceKeyRequest;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.util.TimeZone;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static rooty.toots.service.ServiceKeyRequest.Operation.ALLOW_SSH;
+
+/**
+ * Facts about the system (locale, hostname, ip, timezone, whether ssh is allowed), collected once and kept in an
+ * immutable SystemFacts snapshot. Reads never run a command or talk to rooty, except to read allowSsh when it is not
+ * known. Callers that change a fact tell this service, via timezoneChanged and allowSshChanged; after an allowSsh
+ * change, the next reader waits for rooty's new answer.
+ * Everything is collected again every REFRESH_INTERVAL, in case the system was changed outside of cloudos; then
+ * readers get the last known allowSsh while it is read again from rooty in the background.
+ */
+@Service @Slf4j
+public class SystemFactsService {
+
+    public static final long ROOTY_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+    public static final long REFRESH_INTERVAL = TimeUnit.HOURS.toMillis(1);
+    public static final File ETC_TIMEZONE = new File("/etc/timezone");
+
+    @Autowired private CloudOsConfiguration configuration;
+    @Autowired private RootyService rooty;
+
+    private final AtomicReference<SystemFacts> facts = new AtomicReference<>();
+    private final AtomicBoolean readingAllowSsh = new AtomicBoolean(false);
+
+    private final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "SystemFactsService");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    @PostConstruct public void scheduleRefresh() {
+        background.scheduleWithFixedDelay(new Runnable() {
+            @Override public void run() {
+                try {
+                    refresh();
+                } catch (Exception e) {
+                    log.warn("scheduleRefresh: error refreshing system facts: "+e, e);
+                }
+            }
+        }, REFRESH_INTERVAL, REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy public void stopRefresh() { background.shutdownNow(); }
+
+    public SystemFacts getFacts() {
+        SystemFacts current = facts.get();
+        if (current == null) {
+            synchronized (facts) {
+                current = facts.get();
+                if (current == null) {
+                    current = collect(null);
+                    facts.set(current);
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Collect every fact again, e.g. after the system was changed outside of cloudos.
+     * The last known allowSsh is kept and marked stale, so readers are not blocked while it is read again.
+     */
+    public SystemFacts refresh() {
+        synchronized (facts) {
+            final SystemFacts current = collect(facts.get());
+            facts.set(current);
+            return current;
+        }
+    }
+
+    // hostname, ip and locale are derived again here: the configuration's getters keep the first value they saw
+    private SystemFacts collect(SystemFacts previous) {
+        final Boolean allowSsh = previous == null ? null : previous.getAllowSsh();
+        final SystemFacts collected = new SystemFacts(configuration.initSystemLocale(), configuration.initHostname(), configuration.initPublicIp(),
+                                                      readTimezone(), allowSsh, allowSsh != null, System.currentTimeMillis());
+        log.info("collect: locale="+collected.getLocale()+", hostname="+collected.getHostname()
+                +", publicIp="+collected.getPublicIp()+", timezone="+collected.getTimezone());
+        return collected;
+    }
+
+    private String readTimezone() {
+        if (ETC_TIMEZONE.exists()) {
+            try {
+                return FileUtil.toString(ETC_TIMEZONE).trim();
+            } catch (Exception e) {
+                log.warn("readTimezone: error reading "+ETC_TIMEZONE.getAbsolutePath()+": "+e);
+            }
+        }
+        return TimeZone.getDefault().getID();
+    }
+
+    /** @return the account's locale, or the system locale if the account has none */
+    public String getLocale(Account account) {
+        return account.hasLocale() ? account.getLocale() : getFacts().getLocale();
+    }
+
+    /**
+     * @return whether ssh is allowed. Waits for rooty on the first call and after allowSshChanged; after a periodic
+     * refresh, returns the previous answer and reads the new one in the background. Use checkAllowSsh to always wait
+     * for the current answer.
+     */
+    public boolean isAllowSsh() {
+        final SystemFacts current = getFacts();
+        if (current.getAllowSsh() == null) return checkAllowSsh();
+        if (current.isAllowSshStale()) readAllowSshInBackground();
+        return current.getAllowSsh();
+    }
+
+    /** Ask rooty whether ssh is allowed now, and remember the answer. */
+    public boolean checkAllowSsh() {
+        final SystemFacts current = getFacts();
+        final boolean allowSsh = readAllowSsh();
+
+        // only store the answer if nothing changed while we were asking
+        facts.compareAndSet(current, current.withAllowSsh(allowSsh));
+        return allowSsh;
+    }
+
+    private boolean readAllowSsh() {
+        final RootyMessage reply = rooty.requestShared(new ServiceKeyRequest(ALLOW_SSH), ROOTY_TIMEOUT);
+        if (reply == null) die("readAllowSsh: timed out waiting for rooty");
+        return Boolean.valueOf(reply.getResults());
+    }
+
+    private void readAllowSshInBackground() {
+        if (!readingAllowSsh.compareAndSet(false, true)) return;
+        try {
+            background.execute(new Runnable() {
+                @Override public void run() {
+                    try {
+                        checkAllowSsh();
+                    } catch (Exception e) {
+                        log.warn("readAllowSshInBackground: "+e);
+                    } finally {
+                        readingAllowSsh.set(false);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            readingAllowSsh.set(false);
+            throw e;
+        }
+    }
+
+    /** Call after anything that may change whether ssh is allowed; the next reader asks rooty again. */
+    public void allowSshChanged() {
+        SystemFacts current;
+        do {
+            current = getFacts();
+        } while (!facts.compareAndSet(current, current.withAllowSshUnknown()));
+    }
+
+    /** Call after sending rooty a SystemSetTimezoneMessage. */
+    public void timezoneChanged(String timezone) {
+        SystemFacts current;
+        do {
+            current = getFacts();
+        } while (!facts.compareAndSet(current, current.withTimezone(timezone)));
+    }
+
+}
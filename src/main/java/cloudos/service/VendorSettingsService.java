@@ -0,0 +1,248 @@
+package cloudos.service;
+
+import cloudos.appstore.model.app.AppConfigDef;
+import cloudos.appstore.model.app.AppManifest;
+import cloudos.dao.AppDAO;
+import cloudos.model.app.CloudOsApp;
+import cloudos.model.support.VendorSettingUpdateResult;
+import cloudos.service.app.AppProxyRoutes;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ListenableFuture;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import rooty.RootyMessage;
+import rooty.toots.vendor.VendorSettingDisplayValue;
+import rooty.toots.vendor.VendorSettingHandler;
+import rooty.toots.vendor.VendorSettingUpdateRequest;
+import rooty.toots.vendor.VendorSettingsListRequest;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.json.JsonUtil.fromJson;
+import static org.cobbzilla.wizard.resources.ResourceUtil.invalidEx;
+
+/**
+ * Reads and writes vendor settings through rooty, keeping each cookbook's settings in memory, indexed by path.
+ * A cookbook's entry is dropped when one of its settings is written through here, when apps are installed or
+ * uninstalled (AppDAO.reloadApp, AppDAO.resetApps), and after CACHE_TTL in case settings were changed some other way.
+ */
+@Service @Slf4j
+public class VendorSettingsService {
+
+    public static final long ROOTY_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+    public static final long CACHE_TTL = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String ALL_CONFIGURATIONS = "";
+
+    @Autowired private RootyService rooty;
+    @Autowired private AppDAO appDAO;
+    @Autowired private SystemFactsService systemFacts;
+    @Autowired private AppProxyRoutes proxyRoutes;
+
+    // cookbook -> (setting path -> setting), in the order rooty listed them
+    private final Cache<String, Map<String, VendorSettingDisplayValue>> settings = CacheBuilder.newBuilder()
+            .expireAfterWrite(CACHE_TTL, TimeUnit.MILLISECONDS)
+            .recordStats()
+            .build();
+
+    private final Cache<String, String[]> configurations = CacheBuilder.newBuilder()
+            .expireAfterWrite(CACHE_TTL, TimeUnit.MILLISECONDS)
+            .build();
+
+    public CacheStats getCacheStats() { return settings.stats(); }
+    public long getCacheSize() { return settings.size(); }
+
+    /** @return the names of all configuration groups (cookbooks) that have vendor settings */
+    public String[] getConfigurations() {
+        try {
+            return configurations.get(ALL_CONFIGURATIONS, new Callable<String[]>() {
+                @Override public String[] call() throws Exception {
+                    return fromJson(request(new VendorSettingsListRequest()).getResults(), String[].class);
+                }
+            }).clone();
+        } catch (ExecutionException e) {
+            return die("getConfigurations: "+e.getCause(), e.getCause());
+        }
+    }
+
+    /** @return every setting for the cookbook, in the order rooty lists them */
+    public VendorSettingDisplayValue[] getSettings(String app) {
+        final Collection<VendorSettingDisplayValue> values = load(app).values();
+        return values.toArray(new VendorSettingDisplayValue[values.size()]);
+    }
+
+    /** @return one setting, or null if the cookbook has no setting with that path */
+    public VendorSettingDisplayValue getSetting(String app, String path) { return load(app).get(path); }
+
+    private Map<String, VendorSettingDisplayValue> load(final String app) {
+        try {
+            return settings.get(app, new Callable<Map<String, VendorSettingDisplayValue>>() {
+                @Override public Map<String, VendorSettingDisplayValue> call() throws Exception { return fetch(app); }
+            });
+        } catch (ExecutionException e) {
+            return die("load("+app+"): "+e.getCause(), e.getCause());
+        }
+    }
+
+    // always asks rooty, bypassing the cache
+    private Map<String, VendorSettingDisplayValue> fetch(String app) {
+        final VendorSettingsListRequest listRequest = new VendorSettingsListRequest().setCookbook(app).setFields(getFields(app));
+        final VendorSettingDisplayValue[] values = fromJson(request(listRequest).getResults(), VendorSettingDisplayValue[].class);
+        final Map<String, VendorSettingDisplayValue> byPath = new LinkedHashMap<>();
+        for (VendorSettingDisplayValue v : values) byPath.put(v.getPath(), v);
+        return Collections.unmodifiableMap(byPath);
+    }
+
+    private RootyMessage request(VendorSettingsListRequest listRequest) {
+        final RootyMessage reply = rooty.requestShared(listRequest, ROOTY_TIMEOUT);
+        if (reply == null) die("request: timed out listing vendor settings for "+listRequest.getCookbook());
+        return reply;
+    }
+
+    // only installed apps restrict the list to the fields declared in their manifest
+    private List<String> getFields(String app) {
+        final CloudOsApp installedApp = appDAO.findInstalledByName(app);
+        if (installedApp == null) return null;
+        final AppManifest appManifest = installedApp.getManifest();
+        final List<String> fields = new ArrayList<>();
+        final AppConfigDef[] databags = appManifest.getConfig();
+        if (databags != null && databags.length > 0) {
+            for (AppConfigDef def : databags) {
+                for (String item : def.getItems()) {
+                    fields.add(def.getName() + "/" + item);
+                }
+            }
+        }
+        return fields;
+    }
+
+    public RootyMessage update(String app, String path, String value) {
+        try {
+            return rooty.request(new VendorSettingUpdateRequest(path, value).setCookbook(app), ROOTY_TIMEOUT);
+        } finally {
+            invalidate(app);
+        }
+    }
+
+    /**
+     * Write several settings for a cookbook, all or nothing. The current values are read from rooty first (not from
+     * the cache). If any of the settings is still at its vendor default, the batch is rejected before anything is
+     * written, because that value cannot be written back. Otherwise every update is sent at once, and if any of them
+     * fails, the ones that succeeded are set back to the values read before the batch.
+     * @param app the cookbook
+     * @param values setting path -> new value
+     * @return one result per setting, in the order given
+     */
+    public List<VendorSettingUpdateResult> updateAll(String app, Map<String, String> values) {
+        final Map<String, VendorSettingDisplayValue> previous = fetch(app);
+        final List<String> unrestorable = new ArrayList<>();
+        for (String path : values.keySet()) {
+            final VendorSettingDisplayValue old = previous.get(path);
+            if (old != null && VendorSettingHandler.VENDOR_DEFAULT.equals(old.getValue())) unrestorable.add(path);
+        }
+        if (!unrestorable.isEmpty()) {
+            throw invalidEx("{err.setConfig.cannotRollback}", "settings at their vendor default cannot be set back if the batch fails: "+unrestorable);
+        }
+
+        try {
+            final List<VendorSettingUpdateResult> results = send(app, values);
+            for (VendorSettingUpdateResult result : results) {
+                if (!result.isUpdated()) {
+                    rollback(app, previous, results);
+                    break;
+                }
+            }
+            return results;
+
+        } finally {
+            invalidate(app);
+        }
+    }
+
+    /**
+     * Write several settings for a cookbook, sending every update at once. Nothing is rolled back if some fail.
+     * @param app the cookbook
+     * @param values setting path -> new value
+     * @return one result per setting, in the order given
+     */
+    public List<VendorSettingUpdateResult> writeAll(String app, Map<String, String> values) {
+        try {
+            return send(app, values);
+        } finally {
+            invalidate(app);
+        }
+    }
+
+    private void rollback(String app, Map<String, VendorSettingDisplayValue> previous, List<VendorSettingUpdateResult> results) {
+        final Map<String, String> restore = new LinkedHashMap<>();
+        final Map<String, VendorSettingUpdateResult> byPath = new HashMap<>();
+        for (VendorSettingUpdateResult result : results) {
+            if (!result.isUpdated()) continue;
+            final VendorSettingDisplayValue old = previous.get(result.getPath());
+            if (old == null) {
+                result.setError("previous value cannot be restored");
+                continue;
+            }
+            restore.put(result.getPath(), old.getValue());
+            byPath.put(result.getPath(), result);
+        }
+        for (VendorSettingUpdateResult restored : send(app, restore)) {
+            final VendorSettingUpdateResult result = byPath.get(restored.getPath());
+            result.setRolledBack(restored.isUpdated());
+            if (!restored.isUpdated()) {
+                log.error("rollback: could not restore "+app+"/"+result.getPath()+": "+restored.getError());
+                result.setError("rollback failed: "+restored.getError());
+            }
+        }
+    }
+
+    // sends every update before waiting for any reply, so the round trips to rooty overlap
+    private List<VendorSettingUpdateResult> send(String app, Map<String, String> values) {
+        final List<VendorSettingUpdateResult> results = new ArrayList<>();
+        final List<ListenableFuture<RootyMessage>> replies = new ArrayList<>();
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            results.add(new VendorSettingUpdateResult(value.getKey()));
+            replies.add(rooty.requestAsync(new VendorSettingUpdateRequest(value.getKey(), value.getValue()).setCookbook(app), ROOTY_TIMEOUT));
+        }
+        for (int i=0; i<results.size(); i++) {
+            final VendorSettingUpdateResult result = results.get(i);
+            result.setError(await(replies.get(i)));
+            result.setUpdated(result.getError() == null);
+        }
+        return results;
+    }
+
+    // returns null if rooty applied the update, otherwise why it did not
+    private String await(ListenableFuture<RootyMessage> reply) {
+        try {
+            return reply.get().getBooleanResult() ? null : "not applied";
+        } catch (ExecutionException e) {
+            return e.getCause() instanceof TimeoutException ? "timed out" : String.valueOf(e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "interrupted";
+        }
+    }
+
+    // called after every write: also forget allowSsh, which depends on whether vendor settings still have their
+    // defaults, and the app's proxy route, whose filter scope holds the app's config
+    public void invalidate(String app) {
+        settings.invalidate(app);
+        proxyRoutes.invalidate(app);
+        systemFacts.allowSshChanged();
+    }
+
+    public void invalidateAll() {
+        settings.invalidateAll();
+        configurations.invalidateAll();
+    }
+
+}
@@ -0,0 +1,69 @@
+package cloudos.service.app;
+
+import cloudos.appstore.model.app.AppManifest;
+import cloudos.appstore.model.app.filter.AppFilterConfig;
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.sun.jersey.api.core.HttpContext;
+import lombok.Getter;
+import org.cobbzilla.util.http.CookieJar;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static cloudos.appstore.model.app.filter.AppFilterHandler.*;
+
+/**
+ * Everything AppAdapter needs to proxy a request to an installed app, worked out once per app: where the app listens,
+ * which filter config applies to each uri, and the parts of the filter scope that do not change between requests.
+ * Built and invalidated by AppProxyRoutes.
+ */
+public class AppProxyRoute {
+
+    public static final int MAX_URIS = 1000;
+
+    @Getter private final String name;
+    @Getter private final AppManifest manifest;
+    @Getter private final String appUri;
+
+    // null if the app has no filters, or if its runtime was not available when the route was built
+    private final Map<String, Object> baseScope;
+
+    // uri -> filter config; AppManifest.getFilterConfig matches the uri against every filter pattern, so remember it
+    private final LoadingCache<String, Optional<AppFilterConfig>> filterConfigs = CacheBuilder.newBuilder()
+            .maximumSize(MAX_URIS)
+            .build(new CacheLoader<String, Optional<AppFilterConfig>>() {
+                @Override public Optional<AppFilterConfig> load(String uri) {
+                    return Optional.fromNullable(manifest.getFilterConfig(uri));
+                }
+            });
+
+    public AppProxyRoute(String name, AppManifest manifest, String appUri, Map<String, Object> baseScope) {
+        this.name = name;
+        this.manifest = manifest;
+        this.appUri = appUri;
+        this.baseScope = baseScope == null ? null : Collections.unmodifiableMap(new HashMap<>(baseScope));
+    }
+
+    public boolean hasFilters() { return baseScope != null; }
+
+    /** @return false if the app has filters but its runtime was not available to build them: don't proxy to it */
+    public boolean isAvailable() { return hasFilters() || !manifest.hasFilters(); }
+
+    public AppFilterConfig getFilterConfig(String uri) {
+        return hasFilters() ? filterConfigs.getUnchecked(uri).orNull() : null;
+    }
+
+    /** @return the {{ }} scope for filtering one request: the per-app entries plus the per-request ones */
+    public Map<String, Object> newScope(String method, HttpContext context, CookieJar cookieJar) {
+        final Map<String, Object> scope = new HashMap<>(baseScope);
+        scope.put(FSCOPE_METHOD, method);
+        scope.put(FSCOPE_CONTEXT, context);
+        scope.put(FSCOPE_COOKIE_JAR, cookieJar);
+        return scope;
+    }
+
+}
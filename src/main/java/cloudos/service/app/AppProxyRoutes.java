@@ -0,0 +1,101 @@
+package cloudos.service.app;
+
+import cloudos.appstore.model.AppRuntime;
+import cloudos.appstore.model.AppRuntimeDetails;
+import cloudos.appstore.model.app.AppManifest;
+import cloudos.appstore.model.app.config.AppConfiguration;
+import cloudos.dao.AppDAO;
+import cloudos.databag.PortsDatabag;
+import cloudos.model.app.CloudOsApp;
+import cloudos.server.CloudOsConfiguration;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static cloudos.appstore.model.app.filter.AppFilterHandler.*;
+
+/**
+ * The proxy route of each installed app, built on first use. That an app has no route (it is not installed, or has no
+ * ports) is remembered too. AppDAO drops an app's route when the app is installed, upgraded, removed or reconfigured,
+ * and VendorSettingsService when one of its settings is written; ROUTE_TTL covers changes made on disk by other means.
+ */
+@Service @Slf4j
+public class AppProxyRoutes {
+
+    public static final long ROUTE_TTL = TimeUnit.MINUTES.toMillis(5);
+    // app names come from request paths, so bound what requests for made-up names can fill the cache with
+    public static final int MAX_ROUTES = 1000;
+
+    @Autowired private AppDAO appDAO;
+    @Autowired private CloudOsConfiguration configuration;
+
+    // absent: the app has no route
+    private final Cache<String, Optional<AppProxyRoute>> routes = CacheBuilder.newBuilder()
+            .expireAfterWrite(ROUTE_TTL, TimeUnit.MILLISECONDS)
+            .maximumSize(MAX_ROUTES)
+            .recordStats()
+            .build();
+
+    public CacheStats getCacheStats() { return routes.stats(); }
+    public long getCacheSize() { return routes.size(); }
+
+    /**
+     * @return the route for an installed app, or null if the app is not installed or has no ports assigned.
+     * If the app has filters but no runtime (it failed to load, or is being reloaded), the route is not available
+     * and is not kept, so the next request builds it again
+     */
+    public AppProxyRoute get(String appName) {
+        final Optional<AppProxyRoute> cached = routes.getIfPresent(appName);
+        if (cached != null) return cached.orNull();
+
+        final AppProxyRoute route = build(appName);
+        if (route == null) {
+            routes.put(appName, Optional.<AppProxyRoute>absent());
+        } else if (route.isAvailable()) {
+            routes.put(appName, Optional.of(route));
+        }
+        return route;
+    }
+
+    private AppProxyRoute build(String appName) {
+        final CloudOsApp app = appDAO.findInstalledByName(appName);
+        if (app == null) return null;
+
+        final AppManifest manifest = app.getManifest();
+        final PortsDatabag ports = configuration.getAppLayout(manifest).getPortsDatabag();
+        if (ports == null) return null;
+
+        final String appUri = "http://127.0.0.1:" + ports.getPrimary() + manifest.getNormalizedLocalMount();
+        if (!manifest.hasFilters()) return new AppProxyRoute(appName, manifest, appUri, null);
+
+        final AppRuntime runtime = appDAO.findAppRuntime(appName);
+        if (runtime == null) {
+            log.warn("build: no runtime for "+appName+", its filters cannot be applied, not proxying to it");
+            return new AppProxyRoute(appName, manifest, appUri, null);
+        }
+        final AppRuntimeDetails runtimeDetails = runtime.getDetails().getDetails(configuration.getPublicUriBase());
+        final AppConfiguration appConfig = appDAO.getConfiguration(appName, manifest.getVersion());
+
+        // these things define the {{ }} vars used in a manifest file's web.filters section, they can also be used by a PluginFilterHandler
+        final Map<String, Object> scope = new HashMap<>();
+        scope.put(FSCOPE_SYSTEM, configuration);
+        scope.put(FSCOPE_RUNTIME, runtime);
+        scope.put(FSCOPE_APP, runtimeDetails);
+        scope.put(FSCOPE_APP_URI, appUri);
+        scope.put(FSCOPE_CONFIG, appConfig.getDatabagMap());
+        return new AppProxyRoute(appName, manifest, appUri, scope);
+    }
+
+    public void invalidate(String appName) { routes.invalidate(appName); }
+
+    public void invalidateAll() { routes.invalidateAll(); }
+
+}
@@ -0,0 +1,11 @@
+package cloudos.service.ldap;
+
+/**
+ * Thrown when the directory rejects a bind because the password is wrong (LDAP result code 49), as opposed to
+ * the directory being unreachable or the bind failing for some other reason.
+ */
+public class InvalidCredentialsException extends RuntimeException {
+
+    public InvalidCredentialsException(String message) { super(message); }
+
+}
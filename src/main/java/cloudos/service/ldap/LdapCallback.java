@@ -0,0 +1,10 @@
+package cloudos.service.ldap;
+
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+
+public interface LdapCallback<T> {
+
+    T doInLdap(LdapContext ctx) throws NamingException;
+
+}
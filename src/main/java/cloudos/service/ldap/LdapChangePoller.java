@@ -0,0 +1,141 @@
+package cloudos.service.ldap;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.SearchResult;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically searches a subtree for entries whose modifyTimestamp is newer than the last poll,
+ * and reports their DNs. modifyTimestamp only has one-second resolution and LDAP filters have no strict
+ * greater-than, so the search includes the newest second already seen; the DNs already reported for that
+ * second are remembered and skipped, so each change is reported once. Used to notice changes made outside of cloudos (other admin tools, kolab itself).
+ * Polling starts from the newest modifyTimestamp in the subtree when the poller is started, so it does not depend on
+ * the local clock agreeing with the directory's. Deletes are not visible this way; caches using this should still
+ * expire their entries.
+ */
+@Slf4j
+public class LdapChangePoller implements Runnable {
+
+    public static final String MODIFY_TIMESTAMP = "modifyTimestamp";
+    public static final String CHANGED_SINCE_FILTER = "(" + MODIFY_TIMESTAMP + ">={0})";
+    public static final String BEGINNING_OF_TIME = "19700101000000Z";
+
+    public interface ChangeListener {
+        void entryChanged(String dn);
+    }
+
+    private final NativeLdapBackend backend;
+    private final String base;
+    private final long interval;
+    private final ChangeListener listener;
+
+    private ScheduledExecutorService executor;
+    // the newest modifyTimestamp reported so far, and the DNs reported with exactly that timestamp.
+    // null until the poller has read the newest timestamp from the directory
+    private volatile String lastSeen = null;
+    private volatile Set<String> reportedAtLastSeen = Collections.emptySet();
+
+    public LdapChangePoller(NativeLdapBackend backend, String base, long interval, ChangeListener listener) {
+        this.backend = backend;
+        this.base = base;
+        this.interval = interval;
+        this.listener = listener;
+    }
+
+    /**
+     * Read the newest modifyTimestamp in the subtree, then poll for changes after it. Callers should start the
+     * poller before they cache anything they read, so no change made in between is missed. If the directory
+     * cannot be read now, the first poll tries again.
+     */
+    public synchronized LdapChangePoller start() {
+        if (executor != null) return this;
+        try {
+            seed();
+        } catch (RuntimeException e) {
+            log.warn("start: error reading newest "+MODIFY_TIMESTAMP+" under "+base+", will retry: "+e);
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "LdapChangePoller:" + base);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.scheduleWithFixedDelay(this, interval, interval, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    public synchronized void stop() {
+        if (executor != null) executor.shutdownNow();
+        executor = null;
+    }
+
+    private void seed() {
+        String newest = BEGINNING_OF_TIME;
+        Set<String> reportedAtNewest = new HashSet<>();
+        for (SearchResult result : backend.search(base, CHANGED_SINCE_FILTER, new Object[]{BEGINNING_OF_TIME}, new String[]{MODIFY_TIMESTAMP})) {
+            final String value = timestamp(result);
+            if (value == null) continue;
+            final int cmp = value.compareTo(newest);
+            if (cmp > 0) {
+                newest = value;
+                reportedAtNewest = new HashSet<>();
+            }
+            if (cmp >= 0) reportedAtNewest.add(result.getNameInNamespace());
+        }
+        reportedAtLastSeen = reportedAtNewest;
+        lastSeen = newest;
+    }
+
+    private static String timestamp(SearchResult result) {
+        try {
+            final Attribute stamp = result.getAttributes().get(MODIFY_TIMESTAMP);
+            return stamp == null ? null : NativeLdapBackend.attrValue(stamp.get());
+        } catch (NamingException e) {
+            log.warn("timestamp: "+result.getNameInNamespace()+": "+e);
+            return null;
+        }
+    }
+
+    @Override public void run() {
+        try {
+            if (lastSeen == null) {
+                seed();
+                return;
+            }
+            String newest = lastSeen;
+            Set<String> reportedAtNewest = reportedAtLastSeen;
+            for (SearchResult result : backend.search(base, CHANGED_SINCE_FILTER, new Object[]{lastSeen}, new String[]{MODIFY_TIMESTAMP})) {
+                final String dn = result.getNameInNamespace();
+                final String value = timestamp(result);
+                if (value != null && value.equals(lastSeen) && reportedAtLastSeen.contains(dn)) continue;
+
+                listener.entryChanged(dn);
+                if (value == null) continue;
+                final int cmp = value.compareTo(newest);
+                if (cmp > 0) {
+                    newest = value;
+                    reportedAtNewest = new HashSet<>();
+                } else if (cmp == 0 && reportedAtNewest == reportedAtLastSeen) {
+                    reportedAtNewest = new HashSet<>(reportedAtLastSeen);
+                }
+                if (cmp >= 0) reportedAtNewest.add(dn);
+            }
+            reportedAtLastSeen = reportedAtNewest;
+            lastSeen = newest;
+
+        } catch (RuntimeException e) {
+            log.warn("run: error polling "+base+" for changes: "+e);
+        }
+    }
+
+}
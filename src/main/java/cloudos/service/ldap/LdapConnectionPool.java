@@ -0,0 +1,195 @@
+package cloudos.service.ldap;
+
+import cloudos.server.LdapPoolConfiguration;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+
+/**
+ * A small, bounded pool of persistent JNDI LDAP connections.
+ *
+ * Connections in an "admin" pool stay bound as the principal they were opened with. Connections in an
+ * "auth" pool (no principal) are re-bound by each borrower, see NativeLdapBackend.authenticate, and are
+ * returned to an anonymous bind, without the borrower's credentials, before they go back to the pool.
+ */
+@Slf4j
+public class LdapConnectionPool {
+
+    public static final String LDAP_CTX_FACTORY = "com.sun.jndi.ldap.LdapCtxFactory";
+    public static final String CONNECT_TIMEOUT = "com.sun.jndi.ldap.connect.timeout";
+    public static final String READ_TIMEOUT = "com.sun.jndi.ldap.read.timeout";
+
+    private final String name;
+    private final String url;
+    private final String principal;
+    private final String credentials;
+    private final LdapPoolConfiguration poolConfig;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+
+    @Getter private final AtomicLong created = new AtomicLong();
+    @Getter private final AtomicLong discarded = new AtomicLong();
+    @Getter private final AtomicLong borrowed = new AtomicLong();
+
+    private volatile boolean shutdown = false;
+
+    private static class PooledConnection {
+        final LdapContext ctx;
+        long lastUsed = System.currentTimeMillis();
+        PooledConnection(LdapContext ctx) { this.ctx = ctx; }
+    }
+
+    public LdapConnectionPool(String name, String url, String principal, String credentials, int size, LdapPoolConfiguration poolConfig) {
+        this.name = name;
+        this.url = url;
+        this.principal = principal;
+        this.credentials = credentials;
+        this.poolConfig = poolConfig;
+        this.permits = new Semaphore(size, true);
+    }
+
+    public <T> T execute(LdapCallback<T> callback) throws NamingException {
+        final PooledConnection conn = borrow();
+        boolean broken = false;
+        try {
+            return callback.doInLdap(conn.ctx);
+
+        } catch (CommunicationException | ServiceUnavailableException e) {
+            broken = true;
+            throw e;
+
+        } finally {
+            release(conn, broken);
+        }
+    }
+
+    private PooledConnection borrow() throws NamingException {
+        try {
+            if (!permits.tryAcquire(poolConfig.getBorrowTimeout(), TimeUnit.MILLISECONDS)) {
+                die("borrow("+name+"): timed out waiting for an LDAP connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            die("borrow("+name+"): interrupted");
+        }
+        borrowed.incrementAndGet();
+        try {
+            PooledConnection conn;
+            while ((conn = idle.pollFirst()) != null) {
+                if (isUsable(conn)) return conn;
+                close(conn);
+            }
+            return open();
+
+        } catch (NamingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void release(PooledConnection conn, boolean broken) {
+        try {
+            if (broken || shutdown || (principal == null && !unbind(conn))) {
+                close(conn);
+            } else {
+                conn.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(conn);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    // an auth connection is still bound as the user who borrowed it, with their password in its environment
+    private boolean unbind(PooledConnection conn) {
+        try {
+            conn.ctx.removeFromEnvironment(Context.SECURITY_PRINCIPAL);
+            conn.ctx.removeFromEnvironment(Context.SECURITY_CREDENTIALS);
+            conn.ctx.addToEnvironment(Context.SECURITY_AUTHENTICATION, "none");
+            conn.ctx.reconnect(null);
+            return true;
+        } catch (NamingException e) {
+            log.info("unbind("+name+"): discarding connection: "+e);
+            return false;
+        }
+    }
+
+    private boolean isUsable(PooledConnection conn) {
+        if (System.currentTimeMillis() - conn.lastUsed < poolConfig.getValidateAfterIdle()) return true;
+        try {
+            // reading the root DSE is the cheapest round trip that proves the connection is alive
+            conn.ctx.getAttributes("", new String[] {"objectClass"});
+            return true;
+        } catch (NamingException e) {
+            log.info("isUsable("+name+"): discarding stale connection: "+e);
+            return false;
+        }
+    }
+
+    private PooledConnection open() throws NamingException {
+        final Hashtable<String, String> env = new Hashtable<>();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, LDAP_CTX_FACTORY);
+        env.put(Context.PROVIDER_URL, url);
+        env.put(CONNECT_TIMEOUT, String.valueOf(poolConfig.getConnectTimeout()));
+        env.put(READ_TIMEOUT, String.valueOf(poolConfig.getReadTimeout()));
+        if (principal != null) {
+            env.put(Context.SECURITY_AUTHENTICATION, "simple");
+            env.put(Context.SECURITY_PRINCIPAL, principal);
+            env.put(Context.SECURITY_CREDENTIALS, credentials);
+        } else {
+            env.put(Context.SECURITY_AUTHENTICATION, "none");
+        }
+        final LdapContext ctx = connect(env);
+        created.incrementAndGet();
+        return new PooledConnection(ctx);
+    }
+
+    protected LdapContext connect(Hashtable<String, String> env) throws NamingException {
+        return new InitialLdapContext(env, null);
+    }
+
+    private void close(PooledConnection conn) {
+        discarded.incrementAndGet();
+        try {
+            conn.ctx.close();
+        } catch (NamingException e) {
+            log.warn("close("+name+"): "+e);
+        }
+    }
+
+    /**
+     * Close the idle connections. Connections that are in use are closed when they are released.
+     */
+    public void shutdown() {
+        shutdown = true;
+        PooledConnection conn;
+        while ((conn = idle.pollFirst()) != null) close(conn);
+    }
+
+    public Map<String, Object> getStats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("idle", idle.size());
+        stats.put("available", permits.availablePermits());
+        stats.put("borrowed", borrowed.get());
+        stats.put("created", created.get());
+        stats.put("discarded", discarded.get());
+        return stats;
+    }
+
+}
@@ -0,0 +1,10 @@
+package cloudos.service.ldap;
+
+import javax.naming.NamingException;
+import javax.naming.directory.SearchResult;
+
+public interface LdapEntryHandler {
+
+    void handle(SearchResult result) throws NamingException;
+
+}
@@ -0,0 +1,38 @@
+package cloudos.service.ldap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency counters for one kind of LDAP operation (bind, search, add, ...)
+ */
+public class LdapOperationStats {
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long startNanos, boolean success) {
+        final long micros = (System.nanoTime() - startNanos) / 1000;
+        count.incrementAndGet();
+        if (!success) errors.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long max;
+        while (micros > (max = maxMicros.get())) {
+            if (maxMicros.compareAndSet(max, micros)) break;
+        }
+    }
+
+    public Map<String, Object> toMap() {
+        final long n = count.get();
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("count", n);
+        map.put("errors", errors.get());
+        map.put("avgMicros", n == 0 ? 0 : totalMicros.get() / n);
+        map.put("maxMicros", maxMicros.get());
+        return map;
+    }
+
+}
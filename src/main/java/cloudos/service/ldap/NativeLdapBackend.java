@@ -0,0 +1,462 @@
+package cloudos.service.ldap;
+
+import cloudos.server.LdapPoolConfiguration;
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.util.system.CommandResult;
+import org.cobbzilla.wizard.model.ldap.LdapEntity;
+import org.cobbzilla.wizard.server.config.LdapConfiguration;
+
+import javax.naming.*;
+import javax.naming.directory.*;
+import javax.naming.ldap.*;
+import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+
+/**
+ * Talks to the directory over pooled, persistent JNDI connections instead of forking the
+ * ldapsearch/ldapadd/ldapmodify/ldapdelete commands. Writes still accept the LDIF produced by
+ * LdapEntity, so the DAOs do not need to know which backend is in use.
+ */
+@Slf4j
+public class NativeLdapBackend {
+
+    public static final String OP_BIND = "bind";
+    public static final String OP_LOOKUP = "lookup";
+    public static final String OP_SEARCH = "search";
+    public static final String OP_ADD = "add";
+    public static final String OP_MODIFY = "modify";
+    public static final String OP_DELETE = "delete";
+
+    private final LdapConnectionPool adminPool;
+    private final LdapConnectionPool authPool;
+
+    private final ConcurrentMap<String, LdapOperationStats> stats = new ConcurrentHashMap<>();
+
+    public NativeLdapBackend(LdapConfiguration ldap, LdapPoolConfiguration poolConfig) {
+        adminPool = new LdapConnectionPool("admin", ldap.getServer(), ldap.getAdmin_dn(), ldap.getPassword(), poolConfig.getSize(), poolConfig);
+        authPool = new LdapConnectionPool("auth", ldap.getServer(), null, null, poolConfig.getAuthSize(), poolConfig);
+    }
+
+    public void shutdown() {
+        adminPool.shutdown();
+        authPool.shutdown();
+    }
+
+    private LdapOperationStats stats(String op) {
+        LdapOperationStats s = stats.get(op);
+        if (s == null) {
+            stats.putIfAbsent(op, new LdapOperationStats());
+            s = stats.get(op);
+        }
+        return s;
+    }
+
+    protected <T> T execute(String op, LdapConnectionPool pool, LdapCallback<T> callback) {
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final T result = pool.execute(callback);
+            success = true;
+            return result;
+
+        } catch (NamingException e) {
+            return die(op+": "+e, e);
+
+        } finally {
+            stats(op).record(start, success);
+        }
+    }
+
+    public void authenticate(final String dn, final String password) {
+        // an empty password would be an unauthenticated bind, which the server accepts
+        if (empty(password)) throw new InvalidCredentialsException("authenticate failed: empty password");
+        execute(OP_BIND, authPool, new LdapCallback<Boolean>() {
+            @Override public Boolean doInLdap(LdapContext ctx) throws NamingException {
+                bind(ctx, dn, password);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Bind as the user and read their own entry over the same connection, so a login costs one
+     * connection checkout and two LDAP operations instead of a bind followed by an admin search.
+     * @return the user's attributes, or null if the bind succeeded but the entry could not be read
+     */
+    public Attributes authenticateAndRead(final String dn, final String password) {
+        if (empty(password)) throw new InvalidCredentialsException("authenticate failed: empty password");
+        return execute(OP_BIND, authPool, new LdapCallback<Attributes>() {
+            @Override public Attributes doInLdap(LdapContext ctx) throws NamingException {
+                bind(ctx, dn, password);
+                try {
+                    return ctx.getAttributes(dn);
+                } catch (NameNotFoundException | NoPermissionException e) {
+                    log.warn("authenticateAndRead: bound but could not read own entry ("+dn+"): "+e);
+                    return null;
+                }
+            }
+        });
+    }
+
+    protected void bind(LdapContext ctx, String dn, String password) throws NamingException {
+        ctx.addToEnvironment(Context.SECURITY_AUTHENTICATION, "simple");
+        ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, dn);
+        ctx.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+        try {
+            ctx.reconnect(null);
+        } catch (AuthenticationException e) {
+            throw new InvalidCredentialsException("authenticate failed: "+e.getExplanation());
+        }
+    }
+
+    /**
+     * @return the attributes of the entry with the given DN, or null if there is no such entry
+     */
+    public Attributes lookup(final String dn) {
+        return execute(OP_LOOKUP, adminPool, new LdapCallback<Attributes>() {
+            @Override public Attributes doInLdap(LdapContext ctx) throws NamingException {
+                try {
+                    return ctx.getAttributes(dn);
+                } catch (NameNotFoundException e) {
+                    return null;
+                }
+            }
+        });
+    }
+
+    /**
+     * @param base the search base, searched with subtree scope
+     * @param filter an RFC 4515 filter, may contain {0}, {1}... placeholders
+     * @param args values for the placeholders; JNDI escapes them
+     */
+    public List<SearchResult> search(String base, String filter, Object[] args) {
+        return search(base, filter, args, null);
+    }
+
+    /**
+     * @param attributes the attributes to return, or null for all user attributes
+     */
+    public List<SearchResult> search(final String base, final String filter, final Object[] args, final String[] attributes) {
+        return execute(OP_SEARCH, adminPool, new LdapCallback<List<SearchResult>>() {
+            @Override public List<SearchResult> doInLdap(LdapContext ctx) throws NamingException {
+                final SearchControls controls = new SearchControls();
+                controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+                controls.setReturningObjFlag(false);
+                controls.setReturningAttributes(attributes);
+                final List<SearchResult> results = new ArrayList<>();
+                final NamingEnumeration<SearchResult> found = ctx.search(base, filter, args, controls);
+                try {
+                    while (found.hasMore()) results.add(found.next());
+                } catch (NameNotFoundException e) {
+                    log.debug("search: base not found: "+base);
+                } finally {
+                    found.close();
+                }
+                return results;
+            }
+        });
+    }
+
+    /**
+     * Run a search using the simple paged results control, handing each entry to the handler as it arrives.
+     * Only one page of entries is in memory at a time. The connection is held until the search is done, since
+     * the server only honors the paging cookie on the connection that started the search: handlers must be quick.
+     * @param sortAttribute if not null, ask the server to sort by this attribute (ignored if the server can't)
+     * @param attributes the attributes to return, or null for all user attributes
+     * @return the number of entries handled
+     */
+    public int searchPaged(final String base, final String filter, final String sortAttribute, final boolean descending,
+                           final int pageSize, final String[] attributes, final LdapEntryHandler handler) {
+        return execute(OP_SEARCH, adminPool, new LdapCallback<Integer>() {
+            @Override public Integer doInLdap(LdapContext ctx) throws NamingException {
+                final SearchControls controls = new SearchControls();
+                controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+                controls.setReturningObjFlag(false);
+                controls.setReturningAttributes(attributes);
+
+                int count = 0;
+                byte[] cookie = null;
+                try {
+                    do {
+                        ctx.setRequestControls(pagedControls(pageSize, cookie, sortAttribute, descending));
+                        final NamingEnumeration<SearchResult> results = ctx.search(base, filter, controls);
+                        try {
+                            while (results.hasMore()) {
+                                handler.handle(results.next());
+                                count++;
+                            }
+                        } finally {
+                            results.close();
+                        }
+                        cookie = null;
+                        final Control[] responseControls = ctx.getResponseControls();
+                        if (responseControls != null) {
+                            for (Control c : responseControls) {
+                                if (c instanceof PagedResultsResponseControl) cookie = ((PagedResultsResponseControl) c).getCookie();
+                            }
+                        }
+                    } while (cookie != null && cookie.length > 0);
+
+                } finally {
+                    ctx.setRequestControls(null);
+                }
+                return count;
+            }
+        });
+    }
+
+    // asks the server for no attributes at all, just the DNs
+    public static final String[] NO_ATTRIBUTES = {"1.1"};
+
+    /**
+     * @return the DNs of every entry matching the filter, in the server's (sorted, if asked) order
+     */
+    public List<String> searchDNs(String base, String filter, String sortAttribute, boolean descending, int pageSize) {
+        final List<String> dns = new ArrayList<>();
+        searchPaged(base, filter, sortAttribute, descending, pageSize, NO_ATTRIBUTES, new LdapEntryHandler() {
+            @Override public void handle(SearchResult result) { dns.add(result.getNameInNamespace()); }
+        });
+        return dns;
+    }
+
+    /**
+     * Read a batch of entries in one search, matching each on the attribute and value of its first RDN.
+     * @param base a base that all the DNs are under
+     * @param dns the entries to read
+     * @return the entries that still exist, in the order of dns
+     */
+    public List<SearchResult> findAll(String base, List<String> dns) {
+        if (dns.isEmpty()) return new ArrayList<>();
+        final StringBuilder filter = new StringBuilder("(|");
+        final Object[] args = new Object[dns.size()];
+        for (int i = 0; i < dns.size(); i++) {
+            final Rdn rdn;
+            try {
+                final LdapName name = new LdapName(dns.get(i));
+                rdn = name.getRdn(name.size() - 1);
+            } catch (InvalidNameException e) {
+                return die("findAll: invalid DN: "+dns.get(i), e);
+            }
+            filter.append("(").append(rdn.getType()).append("={").append(i).append("})");
+            args[i] = String.valueOf(rdn.getValue());
+        }
+        filter.append(")");
+
+        final Map<String, SearchResult> found = new HashMap<>();
+        for (SearchResult result : search(base, filter.toString(), args)) {
+            found.put(result.getNameInNamespace().toLowerCase(), result);
+        }
+        final List<SearchResult> results = new ArrayList<>(dns.size());
+        for (String dn : dns) {
+            // an entry with the same RDN elsewhere under base is not one of ours
+            final SearchResult result = found.get(dn.toLowerCase());
+            if (result != null) results.add(result);
+        }
+        return results;
+    }
+
+    private Control[] pagedControls(int pageSize, byte[] cookie, String sortAttribute, boolean descending) {
+        try {
+            final Control paged = new PagedResultsControl(pageSize, cookie, Control.CRITICAL);
+            if (sortAttribute == null) return new Control[] {paged};
+            final SortKey sortKey = new SortKey(sortAttribute, !descending, null);
+            return new Control[] {paged, new SortControl(new SortKey[] {sortKey}, Control.NONCRITICAL)};
+
+        } catch (IOException e) {
+            return die("pagedControls: "+e, e);
+        }
+    }
+
+    public CommandResult add(String ldif) {
+        for (LdifRecord record : LdifRecord.parse(ldif)) add(record);
+        return CommandResult.OK;
+    }
+
+    public CommandResult modify(String ldif) {
+        for (final LdifRecord record : LdifRecord.parse(ldif)) {
+            switch (record.getChangetype()) {
+                case "add":    add(record); break;
+                case "delete": delete(record.getDn()); break;
+                case "modify":
+                    execute(OP_MODIFY, adminPool, new LdapCallback<Boolean>() {
+                        @Override public Boolean doInLdap(LdapContext ctx) throws NamingException {
+                            ctx.modifyAttributes(record.getDn(), record.toModifications());
+                            return true;
+                        }
+                    });
+                    break;
+                default: die("modify: unsupported changetype: "+record.getChangetype());
+            }
+        }
+        return CommandResult.OK;
+    }
+
+    private void add(final LdifRecord record) {
+        execute(OP_ADD, adminPool, new LdapCallback<Boolean>() {
+            @Override public Boolean doInLdap(LdapContext ctx) throws NamingException {
+                ctx.createSubcontext(record.getDn(), record.toAttributes()).close();
+                return true;
+            }
+        });
+    }
+
+    public CommandResult delete(final String dn) {
+        execute(OP_DELETE, adminPool, new LdapCallback<Boolean>() {
+            @Override public Boolean doInLdap(LdapContext ctx) throws NamingException {
+                ctx.destroySubcontext(dn);
+                return true;
+            }
+        });
+        return CommandResult.OK;
+    }
+
+    /**
+     * Copy directory attributes into an entity, the same way the LDIF parser in AbstractLdapDAO does.
+     */
+    public static <E extends LdapEntity> E toEntity(Attributes attrs, E entity) {
+        try {
+            final NamingEnumeration<? extends Attribute> all = attrs.getAll();
+            while (all.hasMore()) {
+                final Attribute attr = all.next();
+                final NamingEnumeration<?> values = attr.getAll();
+                while (values.hasMore()) {
+                    entity.attrFromLdif(attr.getID(), attrValue(values.next()));
+                }
+            }
+        } catch (NamingException e) {
+            return die("toEntity: "+e, e);
+        }
+        entity.clean();
+        return entity;
+    }
+
+    public static String attrValue(Object value) {
+        return value instanceof byte[] ? new String((byte[]) value, StandardCharsets.UTF_8) : String.valueOf(value);
+    }
+
+    public Map<String, Object> getStats() {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("adminPool", adminPool.getStats());
+        map.put("authPool", authPool.getStats());
+        for (Map.Entry<String, LdapOperationStats> op : new TreeMap<>(stats).entrySet()) {
+            map.put(op.getKey(), op.getValue().toMap());
+        }
+        return map;
+    }
+
+    /**
+     * One record of an LDIF document, as written by LdapEntity.ldifCreate and the modify helpers.
+     */
+    static class LdifRecord {
+
+        private String dn;
+        private String changetype = "add";
+        private final List<String[]> lines = new ArrayList<>();
+
+        public String getDn() { return dn; }
+        public String getChangetype() { return changetype; }
+
+        static List<LdifRecord> parse(String ldif) {
+            final List<LdifRecord> records = new ArrayList<>();
+            LdifRecord current = null;
+            for (String line : unfold(ldif)) {
+                if (line.startsWith("#")) continue;
+                if (line.trim().isEmpty()) {
+                    current = null;
+                    continue;
+                }
+                if (line.trim().equals("-")) {
+                    if (current != null) current.lines.add(null);
+                    continue;
+                }
+                final int colon = line.indexOf(':');
+                if (colon == -1) die("parse: invalid LDIF line: "+line);
+                final String name = line.substring(0, colon).trim();
+                String value = line.substring(colon+1);
+                if (value.startsWith(":")) {
+                    value = new String(DatatypeConverter.parseBase64Binary(value.substring(1).trim()), StandardCharsets.UTF_8);
+                } else {
+                    value = value.trim();
+                }
+                if (name.equalsIgnoreCase("dn")) {
+                    current = new LdifRecord();
+                    current.dn = value;
+                    records.add(current);
+
+                } else if (current == null) {
+                    die("parse: attribute before dn: "+line);
+
+                } else if (name.equalsIgnoreCase("changetype")) {
+                    current.changetype = value.toLowerCase();
+
+                } else {
+                    current.lines.add(new String[] {name, value});
+                }
+            }
+            return records;
+        }
+
+        // continuation lines start with a single space
+        private static List<String> unfold(String ldif) {
+            final List<String> lines = new ArrayList<>();
+            for (String line : ldif.split("\n")) {
+                if (line.endsWith("\r")) line = line.substring(0, line.length()-1);
+                if (line.startsWith(" ") && !lines.isEmpty()) {
+                    lines.set(lines.size()-1, lines.get(lines.size()-1) + line.substring(1));
+                } else {
+                    lines.add(line);
+                }
+            }
+            return lines;
+        }
+
+        Attributes toAttributes() {
+            final Attributes attrs = new BasicAttributes(true);
+            for (String[] line : lines) {
+                if (line == null) continue;
+                final Attribute attr = attrs.get(line[0]);
+                if (attr == null) {
+                    attrs.put(line[0], line[1]);
+                } else {
+                    attr.add(line[1]);
+                }
+            }
+            return attrs;
+        }
+
+        ModificationItem[] toModifications() {
+            final List<ModificationItem> mods = new ArrayList<>();
+            Integer op = null;
+            Attribute attr = null;
+            for (String[] line : lines) {
+                if (line == null) {
+                    if (op != null) mods.add(new ModificationItem(op, attr));
+                    op = null;
+                    attr = null;
+
+                } else if (op == null) {
+                    switch (line[0].toLowerCase()) {
+                        case "add":     op = DirContext.ADD_ATTRIBUTE; break;
+                        case "replace": op = DirContext.REPLACE_ATTRIBUTE; break;
+                        case "delete":  op = DirContext.REMOVE_ATTRIBUTE; break;
+                        default: die("toModifications: invalid operation: "+line[0]);
+                    }
+                    attr = new BasicAttribute(line[1]);
+
+                } else {
+                    attr.add(line[1]);
+                }
+            }
+            if (op != null) mods.add(new ModificationItem(op, attr));
+            return mods.toArray(new ModificationItem[mods.size()]);
+        }
+    }
+
+}
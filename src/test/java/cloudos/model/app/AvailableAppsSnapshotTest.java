@@ -0,0 +1,58 @@
+package cloudos.model.app;
+
+import cloudos.appstore.model.AppRuntimeDetails;
+import cloudos.model.Account;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.cobbzilla.util.json.JsonUtil.fromJson;
+import static org.junit.Assert.*;
+
+public class AvailableAppsSnapshotTest {
+
+    private static AppRuntimeDetails app(String name, String label) throws Exception {
+        final String assets = label == null ? "" : ", \"assets\": {\"taskbarIconAltText\": \""+label+"\"}";
+        return fromJson("{\"name\": \""+name+"\""+assets+"}", AppRuntimeDetails.class);
+    }
+
+    private static List<String> names(List<AppRuntimeDetails> apps) {
+        final List<String> names = new ArrayList<>();
+        for (AppRuntimeDetails app : apps) names.add(app.getName());
+        return names;
+    }
+
+    @Test public void testDisplayOrder () throws Exception {
+        final Map<String, AppRuntimeDetails> details = new LinkedHashMap<>();
+        for (AppRuntimeDetails app : new AppRuntimeDetails[] {
+                app("zapp", "Alpha"), app("owncloud", "Files"), app("bapp", null),
+                app("roundcube", "Mail"), app("aapp", "Zulu") }) {
+            details.put(app.getName(), app);
+        }
+
+        final AvailableAppsSnapshot snapshot = new AvailableAppsSnapshot(3, details);
+
+        // preferred apps first in PREFERRED_APPS order, then by taskbar label, falling back to the name
+        assertEquals(Arrays.asList("roundcube", "owncloud", "zapp", "bapp", "aapp"), names(snapshot.getApps()));
+        assertEquals(3, snapshot.getGeneration());
+    }
+
+    @Test public void testSnapshotIsShared () throws Exception {
+        final Map<String, AppRuntimeDetails> details = new LinkedHashMap<>();
+        details.put("app1", app("app1", null));
+        final AvailableAppsSnapshot snapshot = new AvailableAppsSnapshot(1, details);
+
+        final Account account = new Account().applyAvailableApps(snapshot);
+        assertSame(snapshot.getApps(), account.getAvailableApps());
+        assertEquals(AvailableAppsSnapshot.PREFERRED_APPS, account.getPreferredApps());
+        assertEquals(1, account.getAvailableAppsGeneration());
+        try {
+            account.getAvailableApps().add(app("app2", null));
+            fail("snapshot list should not be modifiable");
+        } catch (UnsupportedOperationException expected) { /* ok */ }
+    }
+}
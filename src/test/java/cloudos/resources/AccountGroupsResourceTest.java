@@ -1,5 +1,7 @@
 package cloudos.resources;
 
+import cloudos.dao.AccountDAO;
+import cloudos.dao.AccountGroupDAO;
 import cloudos.dao.AccountGroupMemberType;
 import cloudos.model.Account;
 import cloudos.model.AccountGroup;
@@ -11,6 +13,7 @@ import org.apache.commons.lang3.RandomUtils;
 import org.cobbzilla.util.http.HttpStatusCodes;
 import org.cobbzilla.wizard.model.ResultPage;
 import org.cobbzilla.wizard.util.RestResponse;
+import org.cobbzilla.wizard.validation.SimpleViolationException;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -25,6 +28,7 @@ import static org.cobbzilla.util.json.JsonUtil.fromJson;
 import static org.cobbzilla.util.json.JsonUtil.toJson;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class AccountGroupsResourceTest extends ApiClientTestBase {
 
@@ -219,6 +223,89 @@ public class AccountGroupsResourceTest extends ApiClientTestBase {
         assertEquals(OK, doDelete(GROUPS_ENDPOINT + "/" + sourceName).status);
     }
 
+    @Test public void testCircularReferences () throws Exception {
+        apiDocs.startRecording(DOC_TARGET, "groups that would contain themselves are rejected");
+
+        final AccountGroupRequest inner = new AccountGroupRequest()
+                .addRecipient(testAccounts.get(0).getName())
+                .setName(randomAlphanumeric(10).toLowerCase());
+        assertEquals(OK, put(GROUPS_ENDPOINT + "/" + inner.getName(), toJson(inner)).status);
+
+        final AccountGroupRequest outer = new AccountGroupRequest()
+                .addRecipient(testAccounts.get(1).getName())
+                .addRecipient(inner.getName())
+                .setName(randomAlphanumeric(10).toLowerCase());
+        assertEquals(OK, put(GROUPS_ENDPOINT + "/" + outer.getName(), toJson(outer)).status);
+
+        apiDocs.addNote("add the outer group to the inner group, should fail");
+        inner.addRecipient(outer.getName());
+        assertEquals(UNPROCESSABLE_ENTITY, doPost(GROUPS_ENDPOINT + "/" + inner.getName(), toJson(inner)).status);
+
+        apiDocs.addNote("add a group to itself, should fail");
+        inner.getRecipients().remove(outer.getName());
+        inner.addRecipient(inner.getName());
+        assertEquals(UNPROCESSABLE_ENTITY, doPost(GROUPS_ENDPOINT + "/" + inner.getName(), toJson(inner)).status);
+
+        apiDocs.addNote("add an account that is already in the inner group to the outer group, should fail");
+        outer.addRecipient(testAccounts.get(0).getName());
+        assertEquals(UNPROCESSABLE_ENTITY, doPost(GROUPS_ENDPOINT + "/" + outer.getName(), toJson(outer)).status);
+
+        apiDocs.addNote("an unrelated account is fine");
+        outer.getRecipients().remove(testAccounts.get(0).getName());
+        outer.addRecipient(testAccounts.get(2).getName());
+        assertEquals(OK, doPost(GROUPS_ENDPOINT + "/" + outer.getName(), toJson(outer)).status);
+    }
+
+    @Test public void testMirrorExpansionFollowsSourceChanges () throws Exception {
+        final String sourceName = randomAlphanumeric(10).toLowerCase();
+        final AccountGroupRequest source = new AccountGroupRequest()
+                .addRecipient(testAccounts.get(0).getName())
+                .setName(sourceName);
+        assertEquals(OK, put(GROUPS_ENDPOINT + "/" + sourceName, toJson(source)).status);
+        final AccountGroupRequest mirror = new AccountGroupRequest().setMirrors(sourceName).setName(sourceName + "_mirror");
+        assertEquals(OK, put(GROUPS_ENDPOINT + "/" + mirror.getName(), toJson(mirror)).status);
+
+        // the second read is served from the memoized expansion
+        assertEquals(1, fetchGroupView(mirror.getName()).getMemberCount());
+        assertEquals(1, fetchGroupView(mirror.getName()).getMemberCount());
+        assertTrue(getBean(AccountGroupDAO.class).getGraph().getExpansionCount() > 0);
+
+        // changing the source drops the memo
+        source.addRecipient(testAccounts.get(1).getName());
+        updateGroup(source);
+        assertEquals(2, fetchGroupView(mirror.getName()).getMemberCount());
+    }
+
+    @Test public void testResolveMemberDNsInBulk () throws Exception {
+        final AccountDAO accountDAO = getBean(AccountDAO.class);
+        final AccountGroupDAO groupDAO = getBean(AccountGroupDAO.class);
+        final String groupName = randomAlphanumeric(10).toLowerCase();
+        final AccountGroupRequest group = new AccountGroupRequest()
+                .addRecipient(testAccounts.get(0).getName())
+                .setName(groupName);
+        assertEquals(OK, put(GROUPS_ENDPOINT + "/" + groupName, toJson(group)).status);
+
+        // accounts and groups mixed, names in any case: DNs come back in the order the names were given
+        final List<String> names = new ArrayList<>();
+        final List<String> expected = new ArrayList<>();
+        for (Account account : testAccounts.subList(0, 3)) {
+            names.add(account.getName().toUpperCase());
+            expected.add(accountDAO.findByName(account.getName()).getDn());
+        }
+        names.add(1, groupName);
+        expected.add(1, groupDAO.findByName(groupName).getDn());
+        assertEquals(expected, groupDAO.resolveMemberDNs(names));
+
+        // a missing name fails the whole lookup
+        names.add(randomAlphanumeric(10));
+        try {
+            groupDAO.resolveMemberDNs(names);
+            fail("expected the missing name to be rejected");
+        } catch (SimpleViolationException e) {
+            // expected
+        }
+    }
+
     public AccountGroupView updateGroup(AccountGroupRequest request) throws Exception {
         assertEquals(OK, post(GROUPS_ENDPOINT +"/"+ request.getName(), toJson(request)).status);
         return fetchGroupView(request.getName());
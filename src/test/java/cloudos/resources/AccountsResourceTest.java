@@ -1,8 +1,12 @@
 package cloudos.resources;
 
+import cloudos.dao.AccountDAO;
+import cloudos.dao.SessionDAO;
 import cloudos.model.Account;
 import cloudos.model.auth.*;
 import cloudos.model.support.AccountRequest;
+import cloudos.model.support.BulkAccountResult;
+import cloudos.service.ldap.InvalidCredentialsException;
 import lombok.extern.slf4j.Slf4j;
 import org.cobbzilla.mail.sender.mock.MockTemplatedMailSender;
 import org.cobbzilla.mail.service.TemplatedMailService;
@@ -10,6 +14,7 @@ import org.cobbzilla.wizard.util.RestResponse;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -150,6 +155,111 @@ public class AccountsResourceTest extends ApiClientTestBase {
         assertEquals(404, response.status);
     }
 
+    @Test public void testSessionRevokedOnAnotherNode () throws Exception {
+        apiDocs.startRecording(DOC_TARGET, "log out on another API node, verify the session stops working on this one");
+        final String accountName = randomAlphanumeric(10).toLowerCase();
+        final AuthResponse authResponse = assertAccount(newAccountRequest(ldap(), accountName, randomAlphanumeric(10), false));
+
+        apiDocs.addNote("view profile twice, the second time the session comes from the in-process cache");
+        assertEquals(200, get(ACCOUNTS_ENDPOINT + "/" + accountName).status);
+        final SessionDAO sessionDAO = getBean(SessionDAO.class);
+        final long hits = sessionDAO.getSessionCacheStats().hitCount();
+        assertEquals(200, get(ACCOUNTS_ENDPOINT + "/" + accountName).status);
+        assertTrue(sessionDAO.getSessionCacheStats().hitCount() > hits);
+
+        apiDocs.addNote("another node (its own SessionDAO, same redis) invalidates the session; it must not be served from our cache");
+        final SessionDAO otherNode = server.getApplicationContext().getAutowireCapableBeanFactory().createBean(SessionDAO.class);
+        otherNode.invalidate(authResponse.getSessionId());
+        assertEquals(404, doGet(ACCOUNTS_ENDPOINT + "/" + accountName).status);
+    }
+
+    @Test public void testEvictAccountDropsOnlyThatAccount () throws Exception {
+        final String accountName = randomAlphanumeric(10).toLowerCase();
+        final AuthResponse authResponse = assertAccount(newAccountRequest(ldap(), accountName, randomAlphanumeric(10), false));
+        final SessionDAO sessionDAO = getBean(SessionDAO.class);
+        assertNotNull(sessionDAO.find(authResponse.getSessionId()));
+        assertNotNull(sessionDAO.find(adminToken));
+
+        final long misses = sessionDAO.getSessionCacheStats().missCount();
+        sessionDAO.evictAccount(accountName.toUpperCase());
+        assertNotNull(sessionDAO.find(adminToken));
+        assertEquals(misses, sessionDAO.getSessionCacheStats().missCount());
+        assertNotNull(sessionDAO.find(authResponse.getSessionId()));
+        assertEquals(misses + 1, sessionDAO.getSessionCacheStats().missCount());
+    }
+
+    @Test public void testRepeatedFailedLoginIsCached () throws Exception {
+        apiDocs.startRecording(DOC_TARGET, "repeat a failed login, verify the second attempt is rejected without another bind");
+        final String accountName = randomAlphanumeric(10).toLowerCase();
+        final String password = randomAlphanumeric(10);
+        assertAccount(newAccountRequest(ldap(), accountName, password, false));
+        flushTokens();
+
+        final AccountDAO accountDAO = getBean(AccountDAO.class);
+        final String wrongPassword = password + "-wrong";
+        assertEquals(404, login(accountName, wrongPassword).status);
+        final long hits = accountDAO.getFailedLoginStats().hitCount();
+        assertEquals(404, login(accountName, wrongPassword).status);
+        assertEquals(hits + 1, accountDAO.getFailedLoginStats().hitCount());
+
+        apiDocs.addNote("the right password is not affected by the cached failure");
+        assertEquals(200, login(accountName, password).status);
+    }
+
+    @Test public void testOnlyInvalidCredentialsAreCached () throws Exception {
+        assertTrue(AccountDAO.isInvalidCredentials(new InvalidCredentialsException("bad password")));
+        assertTrue(AccountDAO.isInvalidCredentials(new RuntimeException("wrapped", new javax.naming.AuthenticationException("[LDAP: error code 49]"))));
+        assertTrue(AccountDAO.isInvalidCredentials(new RuntimeException("ldapwhoami failed: ldap_bind: "+AccountDAO.LDAP_INVALID_CREDENTIALS)));
+        assertFalse(AccountDAO.isInvalidCredentials(new RuntimeException("borrow(auth): timed out waiting for an LDAP connection")));
+        assertFalse(AccountDAO.isInvalidCredentials(new RuntimeException("bind", new javax.naming.CommunicationException("connection refused"))));
+    }
+
+    @Test public void testAccountCacheOffWithoutChangeSync () throws Exception {
+        final AccountDAO accountDAO = getBean(AccountDAO.class);
+        if (accountDAO.getLdapService().isNative()) return; // the cache is in use when changes can be synced
+        final String accountName = randomAlphanumeric(10).toLowerCase();
+        assertAccount(newAccountRequest(ldap(), accountName, randomAlphanumeric(10), false));
+        assertNotNull(accountDAO.findByName(accountName));
+        assertNotNull(accountDAO.findByName(accountName));
+        assertEquals(0, accountDAO.getAccountCacheSize());
+    }
+
+    @Test public void testBulkCreateReportsEachRow () throws Exception {
+        apiDocs.startRecording(DOC_TARGET, "create several accounts at once, with per-account results");
+        final String name1 = randomAlphanumeric(10).toLowerCase();
+        final String name2 = randomAlphanumeric(10).toLowerCase();
+        final List<AccountRequest> requests = new ArrayList<>();
+        requests.add(newAccountRequest(ldap(), name1));
+        requests.add(newAccountRequest(ldap(), name2));
+        requests.add(newAccountRequest(ldap(), name1.toUpperCase())); // same name again
+        requests.add(newAccountRequest(ldap(), ""));                  // no name
+
+        pushToken(adminToken);
+        final RestResponse response = doPut(ACCOUNTS_ENDPOINT, toJson(requests));
+        assertEquals(200, response.status);
+        final BulkAccountResult[] results = fromJson(response.json, BulkAccountResult[].class);
+        assertEquals(requests.size(), results.length);
+
+        final Map<String, BulkAccountResult> byName = new HashMap<>();
+        int failed = 0;
+        for (BulkAccountResult result : results) {
+            if (result.isCreated()) {
+                assertNull(result.getError());
+                byName.put(result.getName(), result);
+            } else {
+                assertNotNull(result.getError());
+                failed++;
+            }
+        }
+        assertEquals(2, failed);
+        assertTrue(byName.containsKey(name1));
+        assertTrue(byName.containsKey(name2));
+
+        apiDocs.addNote("the created accounts can be read back");
+        assertEquals(200, doGet(ACCOUNTS_ENDPOINT + "/" + name1).status);
+        assertEquals(200, doGet(ACCOUNTS_ENDPOINT + "/" + name2).status);
+    }
+
     @Test public void testCreateAccountWith2FactorAuth () throws Exception {
         if (empty(getConfiguration().getAuthy().getUser())) {
             log.warn("testCreateAccountWith2FactorAuth: No auth config found, skipping test");
@@ -1,20 +1,23 @@
 package cloudos.resources;
 
 import cloudos.databag.CloudOsDatabag;
+import cloudos.model.support.VendorSettingUpdateResult;
+import org.cobbzilla.util.http.HttpStatusCodes;
 import org.cobbzilla.wizard.util.RestResponse;
 import org.junit.Test;
 import rooty.RootyMessage;
 import rooty.toots.vendor.VendorSettingDisplayValue;
 import rooty.toots.vendor.VendorSettingHandler;
 import rooty.toots.vendor.VendorSettingUpdateRequest;
+import rooty.toots.vendor.VendorSettingsListRequest;
 
 import java.util.*;
 
 import static cloudos.resources.ApiConstants.CONFIGS_ENDPOINT;
 import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
 import static org.cobbzilla.util.json.JsonUtil.fromJson;
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertTrue;
+import static org.cobbzilla.util.json.JsonUtil.toJson;
+import static org.junit.Assert.*;
 
 public class ConfigurationsResourceTest extends ConfigurationTestBase {
 
@@ -72,6 +75,102 @@ public class ConfigurationsResourceTest extends ConfigurationTestBase {
         assertEquals(newKey, settingsMap.get(AUTHY_SETTING_PATH));
     }
 
+    @Test
+    public void testSettingsCachedUntilWritten () throws Exception {
+        final String cloudOsConfigPath = CONFIGS_ENDPOINT + "/cloudos";
+        apiDocs.startRecording(DOC_TARGET, "settings are read from rooty once, and again after a write");
+
+        getSettings(cloudOsConfigPath);
+        getRootySender().flush();
+        getSettings(cloudOsConfigPath);
+        assertEquals("a second read should be served from the cache", 0, countListRequests());
+
+        final String newKey = randomAlphanumeric(10);
+        assertEquals(200, doPost(cloudOsConfigPath + "/" + AUTHY_SETTING_PATH, newKey).status);
+        assertEquals(newKey, getSettings(cloudOsConfigPath).get(AUTHY_SETTING_PATH));
+        assertEquals("a write should drop the cached settings", 1, countListRequests());
+    }
+
+    @Test
+    public void testUpdateAllRollsBack () throws Exception {
+        final String cloudOsConfigPath = CONFIGS_ENDPOINT + "/cloudos";
+        final String s3Bucket = "init/s3_bucket";
+        final String awsKey = "init/aws_access_key";
+        apiDocs.startRecording(DOC_TARGET, "update several settings at once, all or nothing");
+
+        apiDocs.addNote("give "+s3Bucket+" and "+awsKey+" non-default values, so they can be rolled back");
+        assertEquals(200, doPost(cloudOsConfigPath + "/" + s3Bucket, randomAlphanumeric(10)).status);
+        assertEquals(200, doPost(cloudOsConfigPath + "/" + awsKey, randomAlphanumeric(10)).status);
+
+        apiDocs.addNote("update "+s3Bucket+" and "+awsKey+" together");
+        final Map<String, String> values = new LinkedHashMap<>();
+        values.put(s3Bucket, randomAlphanumeric(10));
+        values.put(awsKey, randomAlphanumeric(10));
+        VendorSettingUpdateResult[] results = fromJson(doPost(cloudOsConfigPath, toJson(values)).json, VendorSettingUpdateResult[].class);
+        assertEquals(2, results.length);
+        for (VendorSettingUpdateResult result : results) assertTrue(result.isUpdated());
+        assertEquals(values.get(awsKey), getSettings(cloudOsConfigPath).get(awsKey));
+
+        apiDocs.addNote("update "+s3Bucket+", "+awsKey+" and a setting that does not exist, expect both to be set back");
+        final Map<String, String> before = getSettings(cloudOsConfigPath);
+        values.clear();
+        values.put(s3Bucket, randomAlphanumeric(10));
+        values.put("init/no_such_setting", randomAlphanumeric(10));
+        values.put(awsKey, randomAlphanumeric(10));
+        getRootySender().flush();
+        results = fromJson(doPost(cloudOsConfigPath, toJson(values)).json, VendorSettingUpdateResult[].class);
+        assertEquals(3, results.length);
+        assertTrue(results[0].isUpdated());
+        assertTrue(results[0].isRolledBack());
+        assertFalse(results[1].isUpdated());
+        assertTrue(results[2].isUpdated());
+        assertTrue(results[2].isRolledBack());
+        final Map<String, String> after = getSettings(cloudOsConfigPath);
+        assertEquals(before.get(s3Bucket), after.get(s3Bucket));
+        assertEquals(before.get(awsKey), after.get(awsKey));
+
+        // all three updates are sent together, then the two that succeeded are set back
+        assertEquals(5, countUpdates());
+    }
+
+    @Test
+    public void testUpdateAllCannotRestoreVendorDefault () throws Exception {
+        final String cloudOsConfigPath = CONFIGS_ENDPOINT + "/cloudos";
+        apiDocs.startRecording(DOC_TARGET, "a batch that includes a setting at its vendor default is rejected");
+
+        final Map<String, String> values = new LinkedHashMap<>();
+        values.put("init/aws_iam_user", randomAlphanumeric(10));
+        values.put("init/no_such_setting", randomAlphanumeric(10));
+        getRootySender().flush();
+        assertEquals(HttpStatusCodes.UNPROCESSABLE_ENTITY, doPost(cloudOsConfigPath, toJson(values)).status);
+        assertEquals("nothing should be written", 0, countUpdates());
+        assertEquals(VendorSettingHandler.VENDOR_DEFAULT, getSettings(cloudOsConfigPath).get("init/aws_iam_user"));
+    }
+
+    @Test
+    public void testUpdateAllRejectsInvalidValues () throws Exception {
+        final String cloudOsConfigPath = CONFIGS_ENDPOINT + "/cloudos";
+        apiDocs.startRecording(DOC_TARGET, "setting a value to the vendor default marker is not allowed");
+
+        final Map<String, String> values = new LinkedHashMap<>();
+        values.put(AUTHY_SETTING_PATH, VendorSettingHandler.VENDOR_DEFAULT);
+        getRootySender().flush();
+        assertEquals(HttpStatusCodes.UNPROCESSABLE_ENTITY, doPost(cloudOsConfigPath, toJson(values)).status);
+        assertEquals(0, countUpdates());
+    }
+
+    private int countListRequests() {
+        int count = 0;
+        for (RootyMessage m : getRootySender().getSent()) if (m instanceof VendorSettingsListRequest) count++;
+        return count;
+    }
+
+    private int countUpdates() {
+        int count = 0;
+        for (RootyMessage m : getRootySender().getSent()) if (m instanceof VendorSettingUpdateRequest) count++;
+        return count;
+    }
+
     public Map<String, String> getSettings(String cloudOsConfigPath) throws Exception {
 
         final RestResponse response = doGet(cloudOsConfigPath);
@@ -0,0 +1,75 @@
+package cloudos.resources;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.cobbzilla.util.reflect.ReflectionUtil;
+import org.junit.Test;
+
+import static cloudos.resources.RowProjector.DATE_FORMAT;
+import static cloudos.resources.RowProjector.DATE_PREFIX;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+public class RowProjectorTest {
+
+    private static final String[] FIELDS = {"name", "active", "info.description", "info.missing", DATE_PREFIX+"ctime"};
+
+    @AllArgsConstructor public static class Info {
+        @Getter private String description;
+        @Getter private String missing;
+    }
+
+    @AllArgsConstructor public static class Thing {
+        @Getter private String name;
+        @Getter private boolean active;
+        @Getter private Info info;
+        @Getter private long ctime;
+    }
+
+    private final Thing thing = new Thing("thing1", true, new Info("a thing", null), 1420070400000L);
+
+    @Test public void testProjectMatchesReflection () throws Exception {
+        final String[] row = new RowProjector(FIELDS).project(thing);
+        assertArrayEquals(new String[]{"thing1", "true", "a thing", null, DATE_FORMAT.print(thing.getCtime())}, row);
+        assertArrayEquals(reflectRow(thing), row);
+    }
+
+    @Test public void testNullIntermediateValue () throws Exception {
+        final Thing noInfo = new Thing("thing2", false, null, 0);
+        assertNull(new RowProjector(FIELDS).project(noInfo)[2]);
+    }
+
+    @Test public void testManyRowsMatchReflection () throws Exception {
+        final RowProjector projector = new RowProjector(FIELDS);
+        final Thing[] things = {
+                thing,
+                new Thing("thing2", false, null, 0),
+                new Thing(null, true, new Info(null, "present"), 1),
+                new Thing("thing4", false, new Info("another thing", "x"), System.currentTimeMillis())
+        };
+        // the same projector is reused across rows (and classes are only resolved once), so check every row
+        for (int i=0; i<3; i++) {
+            for (Thing t : things) assertArrayEquals(reflectRow(t), projector.project(t));
+        }
+    }
+
+    // what SearchResource.CsvOutput used to do for every cell
+    private String[] reflectRow(Object result) {
+        final String[] line = new String[FIELDS.length];
+        for (int i=0; i<line.length; i++) {
+            String field = FIELDS[i];
+            final boolean isDate = field.startsWith(DATE_PREFIX);
+            if (isDate) field = field.substring(DATE_PREFIX.length());
+            final Object rawValue;
+            try {
+                rawValue = ReflectionUtil.get(result, field);
+            } catch (Exception e) {
+                line[i] = null;
+                continue;
+            }
+            line[i] = (rawValue == null) ? null : (isDate ? DATE_FORMAT.print(((Number) rawValue).longValue()) : rawValue.toString());
+        }
+        return line;
+    }
+
+}
@@ -1,12 +1,18 @@
 package cloudos.resources;
 
+import cloudos.dao.AccountDAO;
 import cloudos.model.Account;
 import cloudos.model.auth.LoginRequest;
 import cloudos.model.support.AccountRequest;
+import cloudos.model.support.AccountTypeaheadEntry;
+import org.cobbzilla.util.json.JsonUtil;
+import org.cobbzilla.util.string.StringUtil;
 import org.cobbzilla.wizard.dao.SearchResults;
 import org.cobbzilla.wizard.model.ResultPage;
 import org.junit.Test;
 
+import javax.ws.rs.core.Response;
+
 import java.util.*;
 
 import static org.junit.Assert.*;
@@ -190,6 +196,58 @@ public class SearchAccountsTest extends SearchTestBase {
         }
     }
 
+    @Test public void testPageThroughSnapshotWithCursor () throws Exception {
+        final SearchResource searchResource = getBean(SearchResource.class);
+        final ResultPage page = new ResultPage().setPageNumber(0).setPageSize(10).setSortField("name").setSortOrder(ResultPage.ASC);
+
+        final List<String> seen = new ArrayList<>();
+        Response response = searchResource.search(adminToken, "accounts", null, page);
+        while (true) {
+            assertEquals(200, response.getStatus());
+            for (Object result : ((SearchResults) response.getEntity()).getResults()) seen.add(((Account) result).getName());
+            final Object cursor = response.getMetadata().getFirst(ApiConstants.H_SEARCH_CURSOR);
+            if (cursor == null) break;
+            response = searchResource.search(adminToken, "accounts", cursor.toString(), page);
+        }
+        assertEquals(accountNames, seen);
+
+        // an account created through this node makes the snapshot stale, the next search sees it
+        getBean(AccountDAO.class).create(newAccountRequest(ldap(), "zzz" + accountNames.get(0)));
+        response = searchResource.search(adminToken, "accounts", null, page);
+        assertEquals(NUM_ACCOUNTS + 1, ((SearchResults) response.getEntity()).total());
+    }
+
+    @Test public void testUnknownCursorIsNotFound () throws Exception {
+        final SearchResource searchResource = getBean(SearchResource.class);
+        final ResultPage page = new ResultPage().setPageNumber(0).setPageSize(5).setSortField("name").setSortOrder(ResultPage.ASC);
+        final Object cursor = searchResource.search(adminToken, "accounts", null, page).getMetadata().getFirst(ApiConstants.H_SEARCH_CURSOR);
+        assertNotNull(cursor);
+        assertEquals(404, searchResource.search(adminToken, "accounts", "bogus" + SearchSnapshot.CURSOR_SEPARATOR + "5", page).getStatus());
+    }
+
+    @Test public void testTypeaheadHidesEmailFromNonAdmins () throws Exception {
+        apiDocs.startRecording(DOC_TARGET, "type-ahead lookup of accounts");
+        final String accountName = accounts.get(0).getName();
+        final AccountRequest request = accountRequests.get(accountName);
+        final String emailPrefix = request.getEmail().substring(0, request.getEmail().indexOf('@'));
+
+        apiDocs.addNote("as admin, look up by first name and by email");
+        assertTrue(typeaheadNames(request.getFirstName()).contains(accountName));
+        assertTrue(typeaheadNames(emailPrefix).contains(accountName));
+
+        apiDocs.addNote("as a non-admin, first name still matches, email does not");
+        login(new LoginRequest().setName(accountName).setPassword(request.getPassword()));
+        assertTrue(typeaheadNames(request.getFirstName()).contains(accountName));
+        assertFalse(typeaheadNames(emailPrefix).contains(accountName));
+    }
+
+    private List<String> typeaheadNames(String prefix) throws Exception {
+        final AccountTypeaheadEntry[] found = JsonUtil.fromJson(doGet(ApiConstants.SEARCH_ENDPOINT + "/accounts/typeahead?q=" + StringUtil.urlEncode(prefix)).json, AccountTypeaheadEntry[].class);
+        final List<String> names = new ArrayList<>();
+        for (AccountTypeaheadEntry a : found) names.add(a.getName());
+        return names;
+    }
+
     @Test public void testDownloadCsv () throws Exception {
         apiDocs.startRecording(DOC_TARGET, "download a CSV of the results of a search");
         apiDocs.addNote("download all accounts as a CSV");
@@ -0,0 +1,36 @@
+package cloudos.resources;
+
+import org.cobbzilla.util.http.HttpStatusCodes;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static cloudos.resources.ApiConstants.STATS_ENDPOINT;
+import static org.cobbzilla.util.json.JsonUtil.fromJson;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StatsResourceTest extends ApiClientTestBase {
+
+    private static final String DOC_TARGET = "Runtime Statistics";
+
+    @Test public void testStats () throws Exception {
+        apiDocs.startRecording(DOC_TARGET, "read cache and pool statistics");
+        final Map<String, Map<String, Object>> stats = fromJson(get(STATS_ENDPOINT).json, Map.class);
+        for (String group : new String[] {"sessionCache", "accountCache", "appCatalog", "pluginLoaders", "rootyRequests"}) {
+            assertTrue("missing stats group: "+group, stats.containsKey(group));
+        }
+        assertTrue(stats.get("sessionCache").containsKey("hitRate"));
+        // the tests use the ldap* commands, so the group graph is never kept and is not reported
+        assertFalse(stats.containsKey("groupGraph"));
+        assertTrue(stats.get("appCatalog").containsKey("watching"));
+    }
+
+    @Test public void testStatsRequiresAdmin () throws Exception {
+        flushTokens();
+        apiDocs.startRecording(DOC_TARGET, "stats are not available without an admin session");
+        assertEquals(HttpStatusCodes.NOT_FOUND, doGet(STATS_ENDPOINT).status);
+    }
+
+}
@@ -1,5 +1,6 @@
 package cloudos.resources.app;
 
+import cloudos.appstore.model.AppRuntime;
 import cloudos.appstore.model.AppRuntimeDetails;
 import cloudos.appstore.model.app.AppLayout;
 import cloudos.appstore.model.app.AppManifest;
@@ -7,7 +8,9 @@ import cloudos.appstore.model.app.config.AppConfigMetadataDatabag;
 import cloudos.appstore.model.app.config.AppConfigTranslationCategory;
 import cloudos.appstore.model.app.config.AppConfiguration;
 import cloudos.appstore.test.TestApp;
+import cloudos.dao.AppDAO;
 import cloudos.model.Account;
+import cloudos.model.app.AppRuntimeStatus;
 import org.cobbzilla.wizard.task.TaskResult;
 import com.fasterxml.jackson.databind.JsonNode;
 import lombok.extern.slf4j.Slf4j;
@@ -20,11 +23,14 @@ import org.junit.Test;
 
 import javax.ws.rs.core.HttpHeaders;
 import java.io.File;
+import java.util.Map;
 
 import static cloudos.resources.ApiConstants.APPS_ENDPOINT;
+import static cloudos.resources.ApiConstants.EP_REFRESH;
 import static cloudos.resources.ApiConstants.SESSIONS_ENDPOINT;
 import static org.cobbzilla.util.json.JsonUtil.fromJson;
 import static org.cobbzilla.util.json.JsonUtil.toJson;
+import static org.cobbzilla.util.system.Sleep.sleep;
 import static org.junit.Assert.*;
 
 @Slf4j
@@ -130,6 +136,49 @@ public class AppInstallTest extends AppTestBase {
         final HttpResponseBean responseBean = HttpUtil.getResponse(details.getAssets().getTaskbarIconUrl());
         assertEquals(200, responseBean.getStatus());
         assertEquals(testApp.getIconFile().length(), Long.parseLong(responseBean.getFirstHeaderValue(HttpHeaders.CONTENT_LENGTH)));
+
+        apiDocs.addNote("reload just this app's runtime, expect a new init that becomes ready, assets included");
+        final AppRuntimeStatus before = awaitAssets("simple-webapp", 0);
+        assertEquals(200, doGet(APPS_ENDPOINT + EP_REFRESH + "?app=simple-webapp").status);
+        final AppRuntimeStatus after = awaitAssets("simple-webapp", before.getGeneration());
+        assertTrue(after.getGeneration() > before.getGeneration());
+        assertEquals(AppRuntimeStatus.State.ready, after.getRuntime());
+        assertEquals(AppRuntimeStatus.State.ready, after.getAssets());
+
+        assertReloadsOnly("simple-webapp");
+    }
+
+    // reloading one app must rebuild only that app's runtime, and publish a new snapshot of app details
+    private void assertReloadsOnly(String name) {
+        final AppDAO appDAO = getBean(AppDAO.class);
+        final Map<String, AppRuntime> before = appDAO.getAvailableRuntimes();
+        final long generation = appDAO.getAvailableApps().getGeneration();
+
+        appDAO.reloadApp(name);
+
+        final Map<String, AppRuntime> after = appDAO.getAvailableRuntimes();
+        assertNotSame("the runtimes map should be replaced, not changed in place", before, after);
+        assertEquals(before.keySet(), after.keySet());
+        assertNotNull(after.get(name));
+        assertNotSame(before.get(name), after.get(name));
+        for (String other : before.keySet()) {
+            if (!other.equals(name)) assertSame(other+" should not have been rebuilt", before.get(other), after.get(other));
+        }
+        assertTrue(appDAO.getAvailableApps().getGeneration() > generation);
+    }
+
+    // wait for an init newer than 'generation' to finish fetching assets
+    private AppRuntimeStatus awaitAssets(String name, long generation) throws Exception {
+        final long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < TIMEOUT) {
+            for (AppRuntimeStatus status : fromJson(doGet(APPS_ENDPOINT + "/status").json, AppRuntimeStatus[].class)) {
+                if (status.getName().equals(name) && status.getGeneration() > generation
+                        && status.getAssets() != AppRuntimeStatus.State.pending) return status;
+            }
+            sleep(250, "awaitAssets");
+        }
+        fail("assets never fetched for "+name);
+        return null;
     }
 
     private AppRuntimeDetails findRuntime(Account account, String name) {
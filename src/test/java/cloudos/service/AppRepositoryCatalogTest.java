@@ -0,0 +1,93 @@
+package cloudos.service;
+
+import cloudos.appstore.model.app.AppManifest;
+import cloudos.dao.AppRepositoryCatalog;
+import cloudos.resources.ApiClientTestBase;
+import org.cobbzilla.util.io.FileUtil;
+import org.cobbzilla.util.io.StreamUtil;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.apache.commons.io.FileUtils.deleteQuietly;
+import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
+import static org.cobbzilla.util.json.JsonUtil.fromJson;
+import static org.cobbzilla.util.json.JsonUtil.toJson;
+import static org.junit.Assert.*;
+
+public class AppRepositoryCatalogTest extends ApiClientTestBase {
+
+    @Override protected boolean skipAdminCreation() { return true; }
+
+    private static final String VERSION = "0.1.0";
+
+    private String writeApp() throws Exception {
+        final String name = "catalog-"+randomAlphanumeric(8).toLowerCase();
+        final AppManifest manifest = fromJson(StreamUtil.loadResourceAsStringOrDie("apps/simple-webapp-manifest.json"), AppManifest.class);
+        manifest.setName(name);
+        final File manifestFile = getConfiguration().getAppLayout(name, VERSION).getManifest();
+        manifestFile.getParentFile().mkdirs();
+        FileUtil.toFile(manifestFile, toJson(manifest));
+        return name;
+    }
+
+    private AppRepositoryCatalog newCatalog() { return new AppRepositoryCatalog(getConfiguration()).load(); }
+
+    @Test public void testLoadAndReload () throws Exception {
+        final String name = writeApp();
+        final AppRepositoryCatalog catalog = newCatalog();
+        try {
+            assertNotNull(catalog.get(name));
+            assertEquals(name, catalog.get(name).getManifests().get(VERSION).getName());
+
+            deleteQuietly(new File(catalog.getRoot(), name));
+            catalog.reload(name);
+            assertNull(catalog.get(name));
+        } finally {
+            catalog.close();
+        }
+    }
+
+    @Test public void testReplaceManifest () throws Exception {
+        final String name = writeApp();
+        final AppRepositoryCatalog catalog = newCatalog();
+        try {
+            final AppManifest shared = catalog.get(name).getManifests().get(VERSION);
+            final AppManifest copy = fromJson(toJson(shared), AppManifest.class);
+            assertTrue(catalog.replaceManifest(name, shared, copy));
+            assertSame(copy, catalog.get(name).getManifests().get(VERSION));
+
+            // once re-read from disk, a copy of the old manifest must not replace the fresh one
+            catalog.reload(name);
+            final AppManifest reread = catalog.get(name).getManifests().get(VERSION);
+            assertFalse(catalog.replaceManifest(name, copy, fromJson(toJson(copy), AppManifest.class)));
+            assertSame(reread, catalog.get(name).getManifests().get(VERSION));
+        } finally {
+            catalog.close();
+        }
+    }
+
+    @Test public void testLoadDoesNotDropConcurrentReload () throws Exception {
+        final AppRepositoryCatalog catalog = newCatalog();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final List<String> names = new ArrayList<>();
+            for (int i=0; i<20; i++) {
+                final String name = writeApp();
+                names.add(name);
+                final Future<?> load = executor.submit(new Runnable() { @Override public void run() { catalog.load(); } });
+                final Future<?> reload = executor.submit(new Runnable() { @Override public void run() { catalog.reload(name); } });
+                load.get();
+                reload.get();
+            }
+            for (String name : names) assertNotNull("lost "+name, catalog.get(name));
+        } finally {
+            executor.shutdownNow();
+            catalog.close();
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package cloudos.service;
+
+import cloudos.resources.ApiClientTestBase;
+import cloudos.server.AppScriptBatchConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import rooty.RootyMessage;
+import rooty.toots.app.AppScriptMessage;
+import rooty.toots.app.AppScriptMessageType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AppScriptBatcherTest extends ApiClientTestBase {
+
+    private AppScriptBatchConfiguration batchConfig;
+    private AppScriptBatcher batcher;
+
+    @Before public void enableBatching () {
+        batchConfig = getConfiguration().getAppScriptBatch();
+        batchConfig.setWindow(60000);
+        batchConfig.setMultiUserScripts(true);
+        batcher = getBean(AppScriptBatcher.class);
+        getRootySender().flush();
+    }
+
+    @After public void disableBatching () {
+        batchConfig.setWindow(0);
+        batchConfig.setMultiUserScripts(false);
+    }
+
+    private static AppScriptMessage message(String app, AppScriptMessageType type, String account) {
+        return new AppScriptMessage().setApp(app).setType(type).addArg(account);
+    }
+
+    private List<AppScriptMessage> sentScripts () {
+        final List<AppScriptMessage> scripts = new ArrayList<>();
+        for (RootyMessage m : getRootySender().getSent()) if (m instanceof AppScriptMessage) scripts.add((AppScriptMessage) m);
+        return scripts;
+    }
+
+    @Test public void testCreatesForSeveralAppsCoalesce () throws Exception {
+        for (String account : new String[] {"alice", "bob"}) {
+            for (String app : new String[] {"app1", "app2"}) {
+                batcher.send(message(app, AppScriptMessageType.user_create, account));
+            }
+        }
+        assertTrue("nothing should be written before the window closes", sentScripts().isEmpty());
+
+        batcher.flush();
+        final List<AppScriptMessage> sent = sentScripts();
+        assertEquals(2, sent.size());
+        for (AppScriptMessage m : sent) {
+            assertEquals(AppScriptMessageType.user_create, m.getType());
+            assertEquals(2, m.getArgs().size());
+        }
+    }
+
+    @Test public void testDeleteAfterCreateKeepsOrder () throws Exception {
+        batcher.send(message("app1", AppScriptMessageType.user_create, "alice"));
+        batcher.send(message("app1", AppScriptMessageType.user_delete, "alice"));
+        batcher.flush();
+
+        final List<AppScriptMessage> sent = sentScripts();
+        assertEquals(2, sent.size());
+        assertEquals(AppScriptMessageType.user_create, sent.get(0).getType());
+        assertEquals(AppScriptMessageType.user_delete, sent.get(1).getType());
+    }
+
+    @Test public void testWindowFlushesOnItsOwn () throws Exception {
+        batchConfig.setWindow(100);
+        batcher.send(message("app1", AppScriptMessageType.user_create, "alice"));
+        batcher.send(message("app1", AppScriptMessageType.user_create, "bob"));
+        batcher.send(message("app1", AppScriptMessageType.user_create, "alice"));
+
+        waitForScripts();
+        Thread.sleep(200);
+        final List<AppScriptMessage> sent = sentScripts();
+        assertEquals("the creates should be merged into one message", 1, sent.size());
+        assertEquals("alice should only be named once", 2, sent.get(0).getArgs().size());
+    }
+
+    @Test public void testNothingHeldWithoutMultiUserScripts () throws Exception {
+        batchConfig.setMultiUserScripts(false);
+        batcher.send(message("app1", AppScriptMessageType.user_create, "alice"));
+        batcher.send(message("app1", AppScriptMessageType.user_change_password, "bob"));
+
+        // the window is a minute: anything seen well before that was not held
+        final long start = System.currentTimeMillis();
+        while (sentScripts().size() < 2 && System.currentTimeMillis() - start < 5000) Thread.sleep(50);
+        assertEquals(2, sentScripts().size());
+    }
+
+    private void waitForScripts () throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        while (sentScripts().isEmpty() && System.currentTimeMillis() - start < 5000) Thread.sleep(50);
+    }
+
+}
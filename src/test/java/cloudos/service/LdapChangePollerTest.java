@@ -0,0 +1,110 @@
+package cloudos.service;
+
+import cloudos.resources.ApiClientTestBase;
+import cloudos.server.LdapPoolConfiguration;
+import cloudos.service.ldap.LdapChangePoller;
+import cloudos.service.ldap.NativeLdapBackend;
+import org.junit.Test;
+
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class LdapChangePollerTest extends ApiClientTestBase {
+
+    private static final String BASE = "ou=People,dc=example,dc=com";
+    private static final String T1 = "20150101120000Z";
+    private static final String T2 = "20150101120001Z";
+    private static final String T3 = "20150101120002Z";
+
+    @Override protected boolean skipAdminCreation() { return true; }
+
+    // answers the poller's search from an in-memory list of (dn, modifyTimestamp), like the server would
+    private class FakeBackend extends NativeLdapBackend {
+        final Map<String, String> entries = new LinkedHashMap<>();
+        final List<String> searchedSince = new ArrayList<>();
+
+        FakeBackend() { super(ldap(), new LdapPoolConfiguration()); }
+
+        @Override public List<SearchResult> search(String base, String filter, Object[] args, String[] attributes) {
+            final String since = args[0].toString();
+            searchedSince.add(since);
+            final List<SearchResult> results = new ArrayList<>();
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                if (entry.getValue().compareTo(since) < 0) continue;
+                final SearchResult result = new SearchResult(entry.getKey(), null, new BasicAttributes(LdapChangePoller.MODIFY_TIMESTAMP, entry.getValue()));
+                result.setNameInNamespace(entry.getKey());
+                results.add(result);
+            }
+            return results;
+        }
+    }
+
+    private String dn(String uid) { return "uid=" + uid + "," + BASE; }
+
+    private LdapChangePoller poller(FakeBackend backend, final List<String> reported) {
+        return new LdapChangePoller(backend, BASE, TimeUnit.MINUTES.toMillis(10), new LdapChangePoller.ChangeListener() {
+            @Override public void entryChanged(String dn) { reported.add(dn); }
+        });
+    }
+
+    @Test public void testEachChangeReportedOnce () throws Exception {
+        final FakeBackend backend = new FakeBackend();
+        final List<String> reported = new ArrayList<>();
+        final LdapChangePoller poller = poller(backend, reported);
+
+        // the first run starts from the newest timestamp in the directory: nothing there yet
+        poller.run();
+        assertEquals(LdapChangePoller.BEGINNING_OF_TIME, backend.searchedSince.get(0));
+
+        backend.entries.put(dn("a"), T1);
+        backend.entries.put(dn("b"), T1);
+        poller.run();
+        assertEquals(Arrays.asList(dn("a"), dn("b")), reported);
+
+        // another change within the same second: only the new entry is reported
+        reported.clear();
+        backend.entries.put(dn("c"), T1);
+        poller.run();
+        assertEquals(T1, backend.searchedSince.get(backend.searchedSince.size()-1));
+        assertEquals(Collections.singletonList(dn("c")), reported);
+
+        // a later second moves the high-water mark
+        reported.clear();
+        backend.entries.put(dn("a"), T2);
+        poller.run();
+        assertEquals(Collections.singletonList(dn("a")), reported);
+
+        // nothing new
+        reported.clear();
+        poller.run();
+        assertEquals(T2, backend.searchedSince.get(backend.searchedSince.size()-1));
+        assertEquals(Collections.<String>emptyList(), reported);
+    }
+
+    @Test public void testStartsFromDirectoryTimestamp () throws Exception {
+        final FakeBackend backend = new FakeBackend();
+        final List<String> reported = new ArrayList<>();
+
+        // entries that exist before the poller starts are not changes, whatever the local clock says
+        backend.entries.put(dn("a"), T1);
+        backend.entries.put(dn("b"), T2);
+        final LdapChangePoller poller = poller(backend, reported).start();
+        try {
+            assertEquals(LdapChangePoller.BEGINNING_OF_TIME, backend.searchedSince.get(0));
+
+            // a change in the newest second seen at start is still reported
+            backend.entries.put(dn("c"), T2);
+            backend.entries.put(dn("d"), T3);
+            poller.run();
+            assertEquals(T2, backend.searchedSince.get(backend.searchedSince.size()-1));
+            assertEquals(Arrays.asList(dn("c"), dn("d")), reported);
+        } finally {
+            poller.stop();
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+package cloudos.service;
+
+import cloudos.dao.PluginClassLoaderRegistry;
+import org.cobbzilla.util.io.FileUtil;
+import org.cobbzilla.util.io.TempDir;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.util.Collections.singleton;
+import static org.apache.commons.io.FileUtils.deleteQuietly;
+import static org.junit.Assert.*;
+
+public class PluginClassLoaderRegistryTest {
+
+    private TempDir dir;
+    private PluginClassLoaderRegistry registry;
+
+    @Before public void setUp () throws Exception {
+        dir = new TempDir();
+        registry = new PluginClassLoaderRegistry(getClass().getClassLoader());
+    }
+
+    @After public void tearDown () { deleteQuietly(dir); }
+
+    private File jar(String name, String content) throws Exception {
+        final File f = new File(dir, name);
+        FileUtil.toFile(f, content);
+        return f;
+    }
+
+    // write the new content to a temp file and rename it over the old one, as the registry expects
+    private File replace(File jar, String content) throws Exception {
+        final File tmp = new File(dir, jar.getName()+".tmp");
+        FileUtil.toFile(tmp, content);
+        assertTrue(tmp.renameTo(jar));
+        return jar;
+    }
+
+    @Test public void testSameJarSharesLoader () throws Exception {
+        final File jar = jar("plugin.jar", "version one");
+        final ClassLoader a = registry.acquire("app-a", jar);
+        assertSame(a, registry.acquire("app-b", jar));
+        assertSame(a, registry.acquire("app-a", jar));
+        assertEquals(1L, registry.getStats().get("created"));
+        assertEquals(1, registry.getStats().get("loaders"));
+    }
+
+    @Test public void testNewContentGetsNewLoader () throws Exception {
+        final File jar = jar("plugin.jar", "version one");
+        final ClassLoader first = registry.acquire("app-a", jar);
+        final ClassLoader second = registry.acquire("app-a", replace(jar, "version two, which is longer"));
+        assertNotSame(first, second);
+        assertEquals(2L, registry.getStats().get("created"));
+        assertEquals("the old loader should be closing", 1, registry.getStats().get("closing"));
+    }
+
+    @Test public void testOverwriteInPlaceIsRefused () throws Exception {
+        final File jar = jar("plugin.jar", "version one");
+        registry.acquire("app-a", jar);
+        FileUtil.toFile(jar, "version two, written over the old file");
+        try {
+            registry.acquire("app-a", jar);
+            fail("expected a jar overwritten in place to be refused while its old loader is open");
+        } catch (Exception expected) {
+            // expected
+        }
+    }
+
+    @Test public void testReleaseAndRetain () throws Exception {
+        final ClassLoader a = registry.acquire("app-a", jar("a.jar", "a"));
+        registry.acquire("app-b", jar("b.jar", "b"));
+        registry.retain(singleton("app-a"));
+        assertEquals(1, registry.getStats().get("closing"));
+        assertSame("re-acquiring a loader cancels its close", a, registry.acquire("app-a", new File(dir, "a.jar")));
+        registry.release("app-a");
+        assertEquals(2, registry.getStats().get("closing"));
+    }
+
+    @Test public void testConcurrentAcquireCreatesOneLoader () throws Exception {
+        final File jar = jar("plugin.jar", "shared");
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<ClassLoader>> futures = new ArrayList<>();
+            for (int i=0; i<32; i++) {
+                final String app = "app-"+i;
+                futures.add(executor.submit(new Callable<ClassLoader>() {
+                    @Override public ClassLoader call() throws Exception { return registry.acquire(app, jar); }
+                }));
+            }
+            final Set<ClassLoader> loaders = Collections.newSetFromMap(new IdentityHashMap<ClassLoader, Boolean>());
+            for (Future<ClassLoader> f : futures) loaders.add(f.get());
+            assertEquals(1, loaders.size());
+            assertEquals(1, registry.getStats().get("loaders"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package cloudos.service;
+
+import cloudos.resources.ApiClientTestBase;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.cobbzilla.util.io.FileUtil;
+import org.cobbzilla.util.io.TempDir;
+import org.junit.Test;
+import rooty.RootyMessage;
+import rooty.RootyStatusManager;
+import rooty.toots.system.SystemSetTimezoneMessage;
+import rooty.toots.vendor.VendorSettingsListRequest;
+
+import java.io.File;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.apache.commons.io.FileUtils.deleteQuietly;
+import static org.junit.Assert.*;
+
+public class RootyRequestTrackerTest extends ApiClientTestBase {
+
+    private RootyStatusManager statusManager() { return getConfiguration().getRooty().getStatusManager(); }
+
+    @Test public void testStatusChangeCompletesRequest () throws Exception {
+        // a long poll interval, so only statusChanged can complete the request in time
+        final RootyRequestTracker tracker = new RootyRequestTracker(statusManager(), TimeUnit.MINUTES.toMillis(1));
+        final RootyMessage message = new VendorSettingsListRequest();
+        final String uuid = message.initUuid();
+
+        try {
+            final ListenableFuture<RootyMessage> future = tracker.track(message, TimeUnit.SECONDS.toMillis(10));
+            tracker.statusChanged(uuid);
+            assertFalse("request should wait until rooty has finished", future.isDone());
+
+            statusManager().update(getRootySender().getQueueName(), message.setFinished(true), true);
+            tracker.statusChanged(uuid);
+            assertTrue(future.isDone());
+            assertTrue(future.get().isFinished());
+            assertEquals(1L, tracker.getStats().get("completed"));
+        } finally {
+            tracker.stop();
+        }
+    }
+
+    @Test public void testRequestTimesOut () throws Exception {
+        final RootyRequestTracker tracker = new RootyRequestTracker(statusManager(), 20);
+        final RootyMessage message = new VendorSettingsListRequest();
+        message.initUuid();
+
+        try {
+            final ListenableFuture<RootyMessage> future = tracker.track(message, 50);
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("expected the request to time out");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            assertEquals(1L, tracker.getStats().get("timeouts"));
+            assertEquals(0, tracker.getStats().get("inFlight"));
+        } finally {
+            tracker.stop();
+        }
+    }
+
+    @Test public void testRequestReturnsNullOnTimeout () throws Exception {
+        // nothing handles this message in tests, so rooty never replies
+        final RootyMessage message = new SystemSetTimezoneMessage("Etc/UTC");
+        assertNull(getBean(RootyService.class).request(message, 200));
+    }
+
+    @Test public void testWatcherReportsStatusFiles () throws Exception {
+        final TempDir dir = new TempDir();
+        try {
+            final List<String> seen = new CopyOnWriteArrayList<>();
+            final RootyStatusWatcher watcher = new RootyStatusWatcher(dir);
+            watcher.addListener(new RootyStatusWatcher.Listener() {
+                @Override public void statusChanged(String uuid) { seen.add(String.valueOf(uuid)); }
+            });
+            assertTrue(watcher.start().isRunning());
+
+            final String uuid = UUID.randomUUID().toString();
+            FileUtil.toFile(new File(dir, uuid + ".json"), "{}");
+            final long start = System.currentTimeMillis();
+            while (!seen.contains(uuid) && System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(30)) Thread.sleep(50);
+            assertTrue(seen.contains(uuid));
+
+        } finally {
+            deleteQuietly(dir);
+        }
+    }
+
+}
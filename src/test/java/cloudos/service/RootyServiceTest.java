@@ -0,0 +1,76 @@
+package cloudos.service;
+
+import cloudos.resources.ApiClientTestBase;
+import org.junit.Test;
+import rooty.RootyMessage;
+import rooty.toots.system.SystemSetTimezoneMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class RootyServiceTest extends ApiClientTestBase {
+
+    public static final long TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    @Test public void testSharedKeyIgnoresMessageIdentity () throws Exception {
+        final RootyMessage first = new SystemSetTimezoneMessage("Etc/UTC");
+        first.initUuid();
+        final RootyMessage second = new SystemSetTimezoneMessage("Etc/UTC");
+        second.initUuid();
+        assertEquals(RootyService.sharedKey(first), RootyService.sharedKey(second));
+        assertNotEquals(RootyService.sharedKey(first), RootyService.sharedKey(new SystemSetTimezoneMessage("America/New_York")));
+    }
+
+    @Test public void testIdenticalRequestsShareOneRoundTrip () throws Exception {
+        final RootyService rooty = getBean(RootyService.class);
+        getRootySender().flush();
+        final long collapsed = (Long) rooty.getSharedRequestStats().get("collapsed");
+
+        // nothing handles this message in tests, so it stays in flight until we write its status
+        final Callable<RootyMessage> ask = new Callable<RootyMessage>() {
+            @Override public RootyMessage call() throws Exception {
+                return rooty.requestShared(new SystemSetTimezoneMessage("Etc/UTC"), TIMEOUT);
+            }
+        };
+        final ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            final Future<RootyMessage> first = pool.submit(ask);
+            final RootyMessage sent = awaitSent();
+            assertNotNull("the first request should have been sent", sent);
+
+            final Future<RootyMessage> second = pool.submit(ask);
+            final long start = System.currentTimeMillis();
+            while ((Long) rooty.getSharedRequestStats().get("collapsed") == collapsed
+                    && System.currentTimeMillis() - start < TIMEOUT) Thread.sleep(20);
+            assertEquals(collapsed + 1, rooty.getSharedRequestStats().get("collapsed"));
+
+            rooty.getStatusManager().update(getRootySender().getQueueName(), sent.setFinished(true), true);
+            final RootyMessage reply = first.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            assertNotNull(reply);
+            assertSame(reply, second.get(TIMEOUT, TimeUnit.MILLISECONDS));
+            assertEquals("only one message should reach rooty", 1, sentTimezoneMessages().size());
+
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private RootyMessage awaitSent () throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        List<RootyMessage> sent;
+        while ((sent = sentTimezoneMessages()).isEmpty() && System.currentTimeMillis() - start < TIMEOUT) Thread.sleep(20);
+        return sent.isEmpty() ? null : sent.get(0);
+    }
+
+    private List<RootyMessage> sentTimezoneMessages () {
+        final List<RootyMessage> found = new ArrayList<>();
+        for (RootyMessage m : new ArrayList<>(getRootySender().getSent())) {
+            if (m instanceof SystemSetTimezoneMessage) found.add(m);
+        }
+        return found;
+    }
+
+}
@@ -0,0 +1,65 @@
+package cloudos.service;
+
+import cloudos.resources.ApiClientTestBase;
+import org.junit.Test;
+import rooty.RootyMessage;
+import rooty.toots.service.ServiceKeyRequest;
+
+import static org.junit.Assert.*;
+
+public class SystemFactsServiceTest extends ApiClientTestBase {
+
+    private int countAllowSshRequests() {
+        int count = 0;
+        for (RootyMessage m : getRootySender().getSent()) if (m instanceof ServiceKeyRequest) count++;
+        return count;
+    }
+
+    private SystemFacts awaitFresh(SystemFactsService systemFacts) throws Exception {
+        final long start = System.currentTimeMillis();
+        while (systemFacts.getFacts().isAllowSshStale() && System.currentTimeMillis() - start < 10000) Thread.sleep(50);
+        return systemFacts.getFacts();
+    }
+
+    @Test public void testRefreshCollectsAgain () throws Exception {
+        final SystemFactsService systemFacts = getBean(SystemFactsService.class);
+        final SystemFacts before = systemFacts.getFacts();
+        assertEquals(getConfiguration().initHostname(), before.getHostname());
+        assertEquals(getConfiguration().initPublicIp(), before.getPublicIp());
+
+        final SystemFacts after = systemFacts.refresh();
+        assertNotSame(before, after);
+        assertSame(after, systemFacts.getFacts());
+        assertEquals(before.getHostname(), after.getHostname());
+    }
+
+    @Test public void testAllowSshReadAgainAfterChange () throws Exception {
+        final SystemFactsService systemFacts = getBean(SystemFactsService.class);
+        getRootySender().flush();
+
+        final boolean allowSsh = systemFacts.isAllowSsh();
+        assertEquals(1, countAllowSshRequests());
+        assertEquals(allowSsh, systemFacts.isAllowSsh());
+        assertEquals("a known answer should not ask rooty again", 1, countAllowSshRequests());
+
+        systemFacts.allowSshChanged();
+        assertNull(systemFacts.getFacts().getAllowSsh());
+        assertEquals(allowSsh, systemFacts.isAllowSsh());
+        assertEquals("the reader after a change should wait for rooty's answer", 2, countAllowSshRequests());
+        assertEquals(Boolean.valueOf(allowSsh), systemFacts.getFacts().getAllowSsh());
+    }
+
+    @Test public void testAllowSshServedWhileStale () throws Exception {
+        final SystemFactsService systemFacts = getBean(SystemFactsService.class);
+        final boolean allowSsh = systemFacts.isAllowSsh();
+        getRootySender().flush();
+
+        systemFacts.refresh();
+        assertEquals(Boolean.valueOf(allowSsh), systemFacts.getFacts().getAllowSsh());
+        assertTrue("refresh should keep allowSsh but mark it stale", systemFacts.getFacts().isAllowSshStale());
+        assertEquals("the last known answer should be served while stale", allowSsh, systemFacts.isAllowSsh());
+        assertFalse("allowSsh should be read again in the background", awaitFresh(systemFacts).isAllowSshStale());
+        assertEquals(1, countAllowSshRequests());
+    }
+
+}
@@ -0,0 +1,36 @@
+package cloudos.service.app;
+
+import cloudos.resources.ApiClientTestBase;
+import cloudos.service.VendorSettingsService;
+import org.junit.Test;
+
+import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AppProxyRoutesTest extends ApiClientTestBase {
+
+    @Test public void testMissingAppIsRemembered () throws Exception {
+        final AppProxyRoutes routes = getBean(AppProxyRoutes.class);
+        final String app = "no-such-app-" + randomAlphanumeric(6).toLowerCase();
+        final long misses = routes.getCacheStats().missCount();
+        final long hits = routes.getCacheStats().hitCount();
+
+        assertNull(routes.get(app));
+        assertNull(routes.get(app));
+        assertEquals("only the first lookup should look for the app", misses + 1, routes.getCacheStats().missCount());
+        assertEquals(hits + 1, routes.getCacheStats().hitCount());
+    }
+
+    @Test public void testSettingsWriteDropsRoute () throws Exception {
+        final AppProxyRoutes routes = getBean(AppProxyRoutes.class);
+        final String app = "no-such-app-" + randomAlphanumeric(6).toLowerCase();
+        assertNull(routes.get(app));
+        final long misses = routes.getCacheStats().missCount();
+
+        getBean(VendorSettingsService.class).invalidate(app);
+        assertNull(routes.get(app));
+        assertEquals("the route should be looked up again after a settings write", misses + 1, routes.getCacheStats().missCount());
+    }
+
+}
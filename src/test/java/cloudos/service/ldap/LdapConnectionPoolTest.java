@@ -0,0 +1,116 @@
+package cloudos.service.ldap;
+
+import cloudos.server.LdapPoolConfiguration;
+import org.junit.Test;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LdapConnectionPoolTest {
+
+    // records what the pool does with a connection, without a directory server
+    static class FakeConnection implements InvocationHandler {
+        final Hashtable<String, Object> env = new Hashtable<>();
+        final List<String> calls = new ArrayList<>();
+        boolean closed = false;
+
+        FakeConnection(Hashtable<String, String> initial) { env.putAll(initial); }
+
+        LdapContext context() {
+            return (LdapContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{LdapContext.class}, this);
+        }
+
+        @Override public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            calls.add(method.getName());
+            switch (method.getName()) {
+                case "addToEnvironment":      return env.put((String) args[0], args[1]);
+                case "removeFromEnvironment": return env.remove(args[0]);
+                case "close":                 closed = true; return null;
+                default:                      return null;
+            }
+        }
+    }
+
+    static class FakePool extends LdapConnectionPool {
+        final List<FakeConnection> connections = new ArrayList<>();
+
+        FakePool(String principal) {
+            super("test", "ldap://localhost", principal, principal == null ? null : "adminpass", 2, new LdapPoolConfiguration());
+        }
+
+        @Override protected LdapContext connect(Hashtable<String, String> env) {
+            final FakeConnection conn = new FakeConnection(env);
+            connections.add(conn);
+            return conn.context();
+        }
+    }
+
+    private static final LdapCallback<Boolean> USER_BIND = new LdapCallback<Boolean>() {
+        @Override public Boolean doInLdap(LdapContext ctx) throws NamingException {
+            ctx.addToEnvironment(Context.SECURITY_AUTHENTICATION, "simple");
+            ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, "uid=user1");
+            ctx.addToEnvironment(Context.SECURITY_CREDENTIALS, "user1pass");
+            ctx.reconnect(null);
+            return true;
+        }
+    };
+
+    @Test public void testAuthConnectionReleasedWithoutCredentials () throws Exception {
+        final FakePool pool = new FakePool(null);
+        pool.execute(USER_BIND);
+
+        assertEquals(1, pool.connections.size());
+        final FakeConnection conn = pool.connections.get(0);
+        assertFalse(conn.closed);
+        assertNull(conn.env.get(Context.SECURITY_PRINCIPAL));
+        assertNull(conn.env.get(Context.SECURITY_CREDENTIALS));
+        assertEquals("none", conn.env.get(Context.SECURITY_AUTHENTICATION));
+        // the user's bind, then the anonymous bind on release
+        assertEquals(2, count(conn.calls, "reconnect"));
+
+        // the same connection is reused
+        pool.execute(USER_BIND);
+        assertEquals(1, pool.connections.size());
+    }
+
+    @Test public void testAdminConnectionKeepsItsBind () throws Exception {
+        final FakePool pool = new FakePool("cn=admin");
+        pool.execute(new LdapCallback<Boolean>() {
+            @Override public Boolean doInLdap(LdapContext ctx) { return true; }
+        });
+        final FakeConnection conn = pool.connections.get(0);
+        assertEquals("cn=admin", conn.env.get(Context.SECURITY_PRINCIPAL));
+        assertEquals(0, count(conn.calls, "reconnect"));
+        assertFalse(conn.closed);
+    }
+
+    @Test public void testShutdownClosesIdleAndReleasedConnections () throws Exception {
+        final FakePool pool = new FakePool("cn=admin");
+        pool.execute(new LdapCallback<Boolean>() {
+            @Override public Boolean doInLdap(LdapContext ctx) { return true; }
+        });
+        pool.execute(new LdapCallback<Boolean>() {
+            @Override public Boolean doInLdap(LdapContext ctx) {
+                // a connection that is in use while the pool shuts down
+                pool.shutdown();
+                return true;
+            }
+        });
+        for (FakeConnection conn : pool.connections) assertTrue(conn.closed);
+    }
+
+    private static int count(List<String> calls, String name) {
+        int count = 0;
+        for (String call : calls) if (call.equals(name)) count++;
+        return count;
+    }
+}